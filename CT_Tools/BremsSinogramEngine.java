@@ -0,0 +1,755 @@
+package CT_Tools;
+
+/*
+ * A multi-threaded bremsstrahlung sinogram engine for tagged images.
+ *
+ * This is a projector of its own, not a parallel version of the library's
+ * FanProjectors and ParallelProjectors.  The library only offers a whole scan
+ * per call, numAng angles from 0, with no first angle or angle range, so its scan
+ * cannot be split into angle sub-scans, and its source is not part of this tree,
+ * so there is nothing here to test an exact match against.  The engine has its
+ * own ray tracer, geometry and spectrum sampling, described below, and its
+ * sinograms differ from the "Library" engine's.  The plugins label it as a
+ * different model and keep "Library" as the default, the serial reference.
+ *
+ * Two ways of splitting the work are offered.
+ *
+ * Angle parallel:
+ * The view angles of a CT scan are independent of one another, so the angle range
+ * is split across a fork-join pool and each worker writes its rows straight into
+ * the shared sinogram. Every row is computed by the same code whichever thread
+ * runs it, so this engine's sinogram is bit-identical for any thread count.
+ *
+ * Energy parallel:
+ * Each ray is traced once, split across threads by angle, and its path length
+ * through each tagged material is kept.  The keV bins are independent until the
+ * final detector weighted sum, so the bins are then split into blocks and each
+ * worker forms the attenuation of its block from the kept lengths into its own
+ * intensity accumulator.  The accumulators are summed in block order at the end,
+ * so the result is repeatable for a given thread count.  This helps when nBins is
+ * large compared to the number of view angles per thread.  The kept lengths take
+ * 8 bytes per ray per material, the run is refused if they do not fit in memory.
+ *
+ * Path length:
+ * The line integral is linear, so each ray instead accumulates the path length
+ * through each tagged material and the attenuation at every bin is formed as
+ * tau = sum(muLin[tag][bin]*length[tag]).  The pixel grid is traversed once per ray
+ * instead of once per bin, and the work per ray is nTags*nBins multiply-adds.
+ * The per-tag path length sinograms can be kept for output.  The angles are split
+ * across threads as in the angle parallel mode.
+ *
+ * Geometry:
+ * The rotation axis is the center of the image.  Pixel (i,j) covers [i,i+1) x [j,j+1).
+ * At view angle theta the central ray runs along (cos(theta),sin(theta)) and detector
+ * pixel k is offset (k + 0.5 - detPixCnt/2) pixels along (-sin(theta),cos(theta)).
+ * Fan beam: 0 to 360 degrees, the rays diverge from the source, the detector pixel
+ * size is the image pixel size, so detPixCnt = width*magnification.
+ * Parallel beam: 0 to 180 degrees, detPixCnt = width.
+ *
+ * Each ray is traced through the pixel grid and the exact path length in each
+ * pixel is used to accumulate the attenuation at every energy bin.
+ *
+ * Spectrum:
+ * The bin weights and material attenuations come from a SpectralMaterialTable,
+ * which is reused by later runs with the same spectrum and materials.
+ * The sinogram value is -ln(sum(weight*exp(-tau))/sum(weight)).
+ */
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jhd.Projection.FanProjectors;
+import jhd.Projection.ParallelProjectors;
+
+public class BremsSinogramEngine
+{
+	//The spectrum of the current scan
+	SpectralMaterialTable table;
+	int nBins;
+	double[] binWeight;		//the detected intensity of the filtered source in each bin
+	double weightSum;
+	float[][] tagMuLin;		//[tag][bin] linear attenuation in cm-1, null for unknown tags
+
+	//The image of the current scan as tags, -1 for unknown tags
+	int[] tagImage;
+	int[] pathTags;			//the tags present in the table
+	int[] tagToPath;		//[tag] the index into pathTags
+	int width,height;
+	double pixSizeCM;
+
+	//The geometry of the current scan in pixel units
+	boolean fanBeam;
+	int numAng,detPixCnt;
+	double srcToSamp,srcToDet;	//fan beam
+	double rayHalfLength;		//parallel beam
+
+	float[] sinogram;
+	double[][] blockIntensity;	//[block][ray] energy parallel accumulators
+	double[][] rayLengths;		//[pathTags index][ray] energy parallel path lengths in cm
+	int[] blockFirstBin;
+	AtomicInteger rowsDone = new AtomicInteger();
+	int rowsTotal;
+
+	//Path length mode
+	boolean byPathLength;
+	boolean keepPathLengths;
+	float[][] pathLengthSino;	//[pathTags index][ray] in cm
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic fan beam CT scan of a tagged image from 0 to 360 degrees
+	 * using view angle partitioning
+	 * @param bfp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the view angles
+	 * @return A sinogram detPixCnt wide by numAng high
+	 */
+	public float[] imageToBremsstrahlungFanBeamSinogram(FanProjectors.BremFanParams bfp, float[] image, int width, int height, int nThreads)
+	{
+		initFan(bfp,image,width,height);
+		return runAngleParallel(nThreads,false);
+	}
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic fan beam CT scan of a tagged image from 0 to 360 degrees
+	 * by projecting the path length through each material once
+	 * @param bfp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the view angles
+	 * @return A sinogram detPixCnt wide by numAng high
+	 */
+	public float[] imageToBremsstrahlungFanBeamSinogramByPathLength(FanProjectors.BremFanParams bfp, float[] image, int width, int height, int nThreads)
+	{
+		initFan(bfp,image,width,height);
+		return runAngleParallel(nThreads,true);
+	}
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic fan beam CT scan of a tagged image from 0 to 360 degrees
+	 * using energy bin partitioning
+	 * @param bfp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the energy bins
+	 * @return A sinogram detPixCnt wide by numAng high, null if there is not enough memory for the path lengths
+	 */
+	public float[] imageToBremsstrahlungFanBeamSinogramByEnergy(FanProjectors.BremFanParams bfp, float[] image, int width, int height, int nThreads)
+	{
+		initFan(bfp,image,width,height);
+		return runEnergyParallel(nThreads);
+	}
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic parallel beam CT scan of a tagged image from 0 to 180 degrees
+	 * using view angle partitioning
+	 * @param bpp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the view angles
+	 * @return A sinogram width wide by numAng high
+	 */
+	public float[] imageToBremsstrahlungParallelSinogram(ParallelProjectors.BremParallelParams bpp, float[] image, int width, int height, int nThreads)
+	{
+		initParallel(bpp,image,width,height);
+		return runAngleParallel(nThreads,false);
+	}
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic parallel beam CT scan of a tagged image from 0 to 180 degrees
+	 * by projecting the path length through each material once
+	 * @param bpp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the view angles
+	 * @return A sinogram width wide by numAng high
+	 */
+	public float[] imageToBremsstrahlungParallelSinogramByPathLength(ParallelProjectors.BremParallelParams bpp, float[] image, int width, int height, int nThreads)
+	{
+		initParallel(bpp,image,width,height);
+		return runAngleParallel(nThreads,true);
+	}
+
+	//*******************************************************************************
+
+	/**@param keep true to keep the per-tag path length sinograms of the next path length scan*/
+	public void setKeepPathLengths(boolean keep)
+	{
+		keepPathLengths = keep;
+	}
+
+	//*******************************************************************************
+
+	/**@return The per-tag path length sinograms in cm of the last path length scan,
+	 * in the order of getPathLengthTags(), or null if they were not kept
+	 */
+	public float[][] getPathLengthSinograms()
+	{
+		return pathLengthSino;
+	}
+
+	//*******************************************************************************
+
+	/**@return The tags of the path length sinograms*/
+	public int[] getPathLengthTags()
+	{
+		return pathTags;
+	}
+
+	//*******************************************************************************
+
+	/**Shows the path length through each material as a sinogram stack in cm
+	 * @param title The sinogram's title
+	 * @param width The sinogram width
+	 * @param height The number of view angles
+	 * @param sinoCal The sinogram's calibration
+	 * @param matlTag The scan's material tags
+	 * @param matlName The scan's material names, may be null
+	 */
+	public void showPathLengthSinograms(String title, int width, int height, Calibration sinoCal, int[] matlTag, String[] matlName)
+	{
+		if(pathLengthSino==null || pathLengthSino.length==0) return;
+
+		ImageStack lenStk = new ImageStack(width,height);
+		for(int j=0;j<pathLengthSino.length;j++)
+		{
+			String label = "Tag " + pathTags[j];
+			for(int i=0;i<matlTag.length;i++)
+			{
+				if(matlTag[i]==pathTags[j] && matlName!=null) label += " " + matlName[i];
+			}
+			lenStk.addSlice(label, pathLengthSino[j]);
+		}
+		ImagePlus lenImp = new ImagePlus(title + "_PathLengths", lenStk);
+		lenImp.setCalibration(sinoCal.copy());
+		lenImp.getCalibration().setValueUnit(sinoCal.getXUnit());
+		lenImp.show();
+		IJ.run(lenImp, "Enhance Contrast", "saturated=0.35");
+	}
+
+	//*******************************************************************************
+
+	/**Simulates a polychromatic parallel beam CT scan of a tagged image from 0 to 180 degrees
+	 * using energy bin partitioning
+	 * @param bpp The scan parameters
+	 * @param image A tagged image, the pixel values are the material tags
+	 * @param width The image width
+	 * @param height The image height
+	 * @param nThreads The number of threads used to process the energy bins
+	 * @return A sinogram width wide by numAng high, null if there is not enough memory for the path lengths
+	 */
+	public float[] imageToBremsstrahlungParallelSinogramByEnergy(ParallelProjectors.BremParallelParams bpp, float[] image, int width, int height, int nThreads)
+	{
+		initParallel(bpp,image,width,height);
+		return runEnergyParallel(nThreads);
+	}
+
+	//*******************************************************************************
+
+	private void initFan(FanProjectors.BremFanParams bfp, float[] image, int width, int height)
+	{
+		setTable(SpectralMaterialTable.get(bfp));
+		initImage(image,width,height,bfp.pixSizeCM);
+
+		fanBeam = true;
+		numAng = bfp.numAng;
+		detPixCnt = (int)(width*bfp.magnification);
+		srcToDet = bfp.srcToDetCM/bfp.pixSizeCM;
+		srcToSamp = srcToDet/bfp.magnification;
+	}
+
+	//*******************************************************************************
+
+	private void initParallel(ParallelProjectors.BremParallelParams bpp, float[] image, int width, int height)
+	{
+		setTable(SpectralMaterialTable.get(bpp));
+		initImage(image,width,height,bpp.pixSizeCM);
+
+		fanBeam = false;
+		numAng = bpp.numAng;
+		detPixCnt = width;
+		//long enough to cross the image at any angle and offset
+		rayHalfLength = width + height;
+	}
+
+	//*******************************************************************************
+
+	private float[] runAngleParallel(int nThreads, boolean byPathLength)
+	{
+		this.byPathLength = byPathLength;
+		pathLengthSino = null;
+		if(byPathLength && keepPathLengths)
+		{
+			pathLengthSino = new float[pathTags.length][detPixCnt*numAng];
+		}
+		sinogram = new float[detPixCnt*numAng];
+		rowsDone.set(0);
+		rowsTotal = numAng;
+		traceAngles(nThreads);
+		IJ.showProgress(1.0);
+
+		return finish();
+	}
+
+	//*******************************************************************************
+
+	/**Runs AngleRows over all of the view angles*/
+	private void traceAngles(int nThreads)
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nThreads));
+		try
+		{
+			int grain = Math.max(1, numAng/(8*pool.getParallelism()));
+			pool.invoke(new AngleRows(0, numAng, grain));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	//*******************************************************************************
+
+	private float[] runEnergyParallel(int nThreads)
+	{
+		//The kept lengths need a double per ray per material, one block accumulator
+		//a double per ray and the sinogram a float per ray
+		long blockBytes = 8L*detPixCnt*numAng;
+		long needBytes = blockBytes*pathTags.length + blockBytes + 4L*detPixCnt*numAng;
+		Runtime rt = Runtime.getRuntime();
+		long freeBytes = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+		if(needBytes > freeBytes)
+		{
+			IJ.error("Energy Parallel", "Energy Parallel needs about " + needBytes/1048576 + "MB to keep the path lengths\n"
+					+ "of " + pathTags.length + " materials, only " + freeBytes/1048576 + "MB is free.\n"
+					+ "Use Angle Parallel or Path Length, or fewer angles.");
+			return null;
+		}
+
+		//Trace each ray once, keeping its path length through each material
+		pathLengthSino = null;
+		rayLengths = new double[pathTags.length][detPixCnt*numAng];
+		rowsDone.set(0);
+		rowsTotal = 2*numAng;
+		traceAngles(nThreads);
+
+		//Each block needs a double per ray, don't ask for more than half of the free memory
+		freeBytes = rt.maxMemory() - rt.totalMemory() + rt.freeMemory();
+		int nBlocks = Math.min(Math.max(1, nThreads), nBins);
+		nBlocks = (int)Math.max(1, Math.min(nBlocks, freeBytes/2/blockBytes));
+
+		blockFirstBin = new int[nBlocks + 1];
+		for(int i = 0; i <= nBlocks; i++)
+		{
+			blockFirstBin[i] = (int)((long)i*nBins/nBlocks);
+		}
+		blockIntensity = new double[nBlocks][];
+
+		ForkJoinPool pool = new ForkJoinPool(nBlocks);
+		try
+		{
+			pool.invoke(new BinBlocks(0, nBlocks));
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		//Reduce the accumulators in block order
+		sinogram = new float[detPixCnt*numAng];
+		for(int r = 0; r < sinogram.length; r++)
+		{
+			double intensity = 0;
+			for(int blk = 0; blk < nBlocks; blk++)
+			{
+				intensity += blockIntensity[blk][r];
+			}
+			sinogram[r] = weightSum > 0 ? (float)(-Math.log(intensity/weightSum)) : 0;
+		}
+		IJ.showProgress(1.0);
+
+		blockIntensity = null;
+		rayLengths = null;
+		return finish();
+	}
+
+	//*******************************************************************************
+
+	private float[] finish()
+	{
+		float[] result = sinogram;
+		sinogram = null;
+		tagImage = null;
+		return result;
+	}
+
+	//*******************************************************************************
+
+	/**Splits a range of view angles until it is small enough to run in one worker*/
+	@SuppressWarnings("serial")
+	class AngleRows extends RecursiveAction
+	{
+		int first,last,grain;
+
+		AngleRows(int first, int last, int grain)
+		{
+			this.first = first;
+			this.last = last;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(last - first <= grain)
+			{
+				TauSink tauSink = new TauSink();
+				LengthSink lengthSink = new LengthSink();
+				double[] tau = tauSink.tau;
+				double[] length = lengthSink.length;
+				double[] ray = new double[4];
+				for(int a = first; a < last; a++)
+				{
+					int row = a*detPixCnt;
+					for(int k = 0; k < detPixCnt; k++)
+					{
+						getRay(a,k,ray);
+						if(rayLengths != null)
+						{
+							//energy parallel, the bins are formed from the lengths later
+							Arrays.fill(length, 0);
+							traverse(ray, lengthSink);
+							for(int j = 0; j < length.length; j++)
+							{
+								rayLengths[j][row + k] = length[j];
+							}
+							continue;
+						}
+						if(byPathLength)
+						{
+							Arrays.fill(length, 0);
+							traverse(ray, lengthSink);
+							pathLengthsToTau(length, tau);
+							if(pathLengthSino != null)
+							{
+								for(int j = 0; j < length.length; j++)
+								{
+									pathLengthSino[j][row + k] = (float)length[j];
+								}
+							}
+						}
+						else
+						{
+							Arrays.fill(tau, 0);
+							traverse(ray, tauSink);
+						}
+						sinogram[row + k] = detectedTau(tau);
+					}
+					IJ.showProgress(rowsDone.incrementAndGet(),rowsTotal);
+				}
+			}
+			else
+			{
+				int mid = (first + last) >>> 1;
+				invokeAll(new AngleRows(first, mid, grain), new AngleRows(mid, last, grain));
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Splits a range of energy bin blocks until there is one per worker,
+	 * each block forms its bins from the path lengths of the already traced rays
+	 */
+	@SuppressWarnings("serial")
+	class BinBlocks extends RecursiveAction
+	{
+		int first,last;
+
+		BinBlocks(int first, int last)
+		{
+			this.first = first;
+			this.last = last;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(last - first == 1)
+			{
+				int binLo = blockFirstBin[first];
+				int binHi = blockFirstBin[first + 1];
+				double[] intensity = new double[detPixCnt*numAng];
+				for(int a = 0; a < numAng; a++)
+				{
+					int row = a*detPixCnt;
+					for(int r = row; r < row + detPixCnt; r++)
+					{
+						double sum = 0;
+						for(int b = binLo; b < binHi; b++)
+						{
+							double tau = 0;
+							for(int j = 0; j < pathTags.length; j++)
+							{
+								tau += tagMuLin[pathTags[j]][b]*rayLengths[j][r];
+							}
+							sum += binWeight[b]*Math.exp(-tau);
+						}
+						intensity[r] = sum;
+					}
+					//the blocks share the second half of the progress bar
+					if(first == 0) IJ.showProgress(rowsDone.incrementAndGet(),rowsTotal);
+				}
+				blockIntensity[first] = intensity;
+			}
+			else
+			{
+				int mid = (first + last) >>> 1;
+				invokeAll(new BinBlocks(first, mid), new BinBlocks(mid, last));
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Gets the end points of a ray
+	 * @param a The view angle index
+	 * @param k The detector pixel index
+	 * @param ray Returns x0,y0,x1,y1 in pixel units
+	 */
+	private void getRay(int a, int k, double[] ray)
+	{
+		double theta = (fanBeam ? 2*Math.PI : Math.PI)*a/numAng;
+		double cos = Math.cos(theta);
+		double sin = Math.sin(theta);
+		double u = k + 0.5 - detPixCnt/2.0;
+
+		if(fanBeam)
+		{
+			double xs = width/2.0 - srcToSamp*cos;
+			double ys = height/2.0 - srcToSamp*sin;
+			ray[0] = xs;
+			ray[1] = ys;
+			ray[2] = xs + srcToDet*cos - u*sin;
+			ray[3] = ys + srcToDet*sin + u*cos;
+		}
+		else
+		{
+			double xc = width/2.0 - u*sin;
+			double yc = height/2.0 + u*cos;
+			ray[0] = xc - rayHalfLength*cos;
+			ray[1] = yc - rayHalfLength*sin;
+			ray[2] = xc + rayHalfLength*cos;
+			ray[3] = yc + rayHalfLength*sin;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Receives the segments of a ray that cross tagged pixels*/
+	abstract static class SegmentSink
+	{
+		/**@param tag The material tag of the pixel
+		 * @param seg The length of the segment in cm
+		 */
+		abstract void add(int tag, double seg);
+	}
+
+	/**Adds the attenuation of each segment at every bin to tau*/
+	class TauSink extends SegmentSink
+	{
+		double[] tau = new double[nBins];
+
+		@Override
+		void add(int tag, double seg)
+		{
+			float[] mu = tagMuLin[tag];
+			for(int b = 0; b < nBins; b++)
+			{
+				tau[b] += mu[b]*seg;
+			}
+		}
+	}
+
+	/**Adds the length of each segment to its material in length*/
+	class LengthSink extends SegmentSink
+	{
+		double[] length = new double[pathTags.length];
+
+		@Override
+		void add(int tag, double seg)
+		{
+			length[tagToPath[tag]] += seg;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Walks a ray through the image pixel by pixel
+	 * @param ray The ray x0,y0,x1,y1 in pixel units
+	 * @param sink Receives each segment through a tagged pixel
+	 */
+	private void traverse(double[] ray, SegmentSink sink)
+	{
+		double x0 = ray[0], y0 = ray[1];
+		double dx = ray[2] - x0;
+		double dy = ray[3] - y0;
+		double len = Math.sqrt(dx*dx + dy*dy)*pixSizeCM;
+
+		//clip the ray parameter t in [0,1] to the image
+		double tMin = 0, tMax = 1;
+		if(dx != 0)
+		{
+			double t0 = -x0/dx, t1 = (width - x0)/dx;
+			tMin = Math.max(tMin, Math.min(t0, t1));
+			tMax = Math.min(tMax, Math.max(t0, t1));
+		}
+		else if(x0 < 0 || x0 >= width) return;
+		if(dy != 0)
+		{
+			double t0 = -y0/dy, t1 = (height - y0)/dy;
+			tMin = Math.max(tMin, Math.min(t0, t1));
+			tMax = Math.min(tMax, Math.max(t0, t1));
+		}
+		else if(y0 < 0 || y0 >= height) return;
+		if(tMin >= tMax) return;
+
+		//the pixel containing the start of the first step
+		double tMid = tMin + Math.min(1e-9, (tMax - tMin)/2);
+		int ix = Math.min(width - 1, Math.max(0, (int)Math.floor(x0 + dx*tMid)));
+		int iy = Math.min(height - 1, Math.max(0, (int)Math.floor(y0 + dy*tMid)));
+
+		int stepX = dx > 0 ? 1 : -1;
+		int stepY = dy > 0 ? 1 : -1;
+		double tDeltaX = dx != 0 ? Math.abs(1/dx) : Double.POSITIVE_INFINITY;
+		double tDeltaY = dy != 0 ? Math.abs(1/dy) : Double.POSITIVE_INFINITY;
+		double tNextX = dx != 0 ? ((dx > 0 ? ix + 1 : ix) - x0)/dx : Double.POSITIVE_INFINITY;
+		double tNextY = dy != 0 ? ((dy > 0 ? iy + 1 : iy) - y0)/dy : Double.POSITIVE_INFINITY;
+
+		double t = tMin;
+		while(t < tMax)
+		{
+			double tNext = Math.min(tMax, Math.min(tNextX, tNextY));
+			int tag = tagImage[iy*width + ix];
+			if(tag >= 0)
+			{
+				sink.add(tag, (tNext - t)*len);
+			}
+			t = tNext;
+
+			if(tNextX <= tNextY)
+			{
+				ix += stepX;
+				tNextX += tDeltaX;
+				if(ix < 0 || ix >= width) break;
+			}
+			else
+			{
+				iy += stepY;
+				tNextY += tDeltaY;
+				if(iy < 0 || iy >= height) break;
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	//*******************************************************************************
+
+	/**@param length The path length in cm through each of pathTags
+	 * @param tau Returns the attenuation at each bin
+	 */
+	private void pathLengthsToTau(double[] length, double[] tau)
+	{
+		Arrays.fill(tau, 0);
+		for(int j = 0; j < length.length; j++)
+		{
+			if(length[j] == 0) continue;
+			float[] mu = tagMuLin[pathTags[j]];
+			for(int b = 0; b < nBins; b++)
+			{
+				tau[b] += mu[b]*length[j];
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	/**@param tau The attenuation at each bin
+	 * @return The attenuation seen by the detector, -ln(I/I0)
+	 */
+	private float detectedTau(double[] tau)
+	{
+		if(weightSum <= 0) return 0;
+		double intensity = 0;
+		for(int b = 0; b < nBins; b++)
+		{
+			intensity += binWeight[b]*Math.exp(-tau[b]);
+		}
+		return (float)(-Math.log(intensity/weightSum));
+	}
+
+	//*******************************************************************************
+
+	/**Uses a compiled spectral material table for the current scan*/
+	private void setTable(SpectralMaterialTable table)
+	{
+		this.table = table;
+		nBins = table.nBins;
+		binWeight = table.binWeight;
+		weightSum = table.weightSum;
+		tagMuLin = table.muLin;
+	}
+
+	//*******************************************************************************
+
+	/**Converts the pixel values to tags once so the ray tracer does a single lookup*/
+	private void initImage(float[] image, int width, int height, double pixSizeCM)
+	{
+		this.width = width;
+		this.height = height;
+		this.pixSizeCM = pixSizeCM;
+
+		int nTags = 0;
+		for(int tag = 0; tag < tagMuLin.length; tag++)
+		{
+			if(table.hasTag(tag)) nTags++;
+		}
+		pathTags = new int[nTags];
+		tagToPath = new int[tagMuLin.length];
+		for(int tag = 0, j = 0; tag < tagMuLin.length; tag++)
+		{
+			tagToPath[tag] = -1;
+			if(table.hasTag(tag))
+			{
+				pathTags[j] = tag;
+				tagToPath[tag] = j++;
+			}
+		}
+
+		tagImage = new int[width*height];
+		for(int i = 0; i < tagImage.length; i++)
+		{
+			int tag = (int)image[i];
+			if(table.hasTag(tag)) tagImage[i] = tag;
+			else tagImage[i] = -1;
+		}
+	}
+}
@@ -10,6 +10,7 @@ package CT_Tools;
 import ij.IJ;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
 import ij.gui.*;
@@ -17,6 +18,7 @@ import ij.measure.*;
 
 //import java.awt.event.*;
 import java.awt.*;
+import java.io.IOException;
 //import java.util.*;
 import java.util.Vector;
 
@@ -31,6 +33,9 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 	
 	boolean scale16,padImage;
 	int oldImageWidth,oldImageHeight;
+	//Stack mode, each slice is projected and written to a TIFF stack on disk
+	boolean doStack;
+	int nThreads = Runtime.getRuntime().availableProcessors();
 
 	
 	//The class that does the simulation
@@ -107,16 +112,25 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 		gd.addDialogListener(this);
 		gd.addCheckbox("Pad Image", false);		
 		gd.addCheckbox("Scale to 16-bit proj", false);
+		if(imp.getStackSize()>1)
+		{
+			gd.setInsets(10,0,0);
+			gd.addMessage("Stack______________________",myFont,Color.BLACK);
+			gd.addCheckbox("Project all slices to disk", false);
+			gd.addNumericField("Threads", nThreads,0);
+		}
 		gd.addHelp("https://lazzyizzi.github.io/CTsimulator.html");
 		
 		Vector<TextField> numFlds = gd.getNumericFields();
 		numFlds.get(0).setName("numAng");
 		numFlds.get(1).setName("srcToDetCM");
 		numFlds.get(2).setName("magnification");
+		if(numFlds.size()>3) numFlds.get(3).setName("nThreads");
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		ckBoxes.get(0).setName("padImage");
 		ckBoxes.get(1).setName("scale16");
+		if(ckBoxes.size()>2) ckBoxes.get(2).setName("doStack");
 		gd.showDialog();
 
 		if (gd.wasCanceled())
@@ -140,6 +154,11 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 			IJ.error("Fan beam magnification must always be greater than 1");
 			return false;			
 		}
+		if(doStack && nThreads < 1)
+		{
+			IJ.error("Image To Sinogram Error", "Threads must be 1 or more");
+			return false;
+		}
 		if(fpSet.numAng> 1 && imp.getWidth()==imp.getHeight())
 		{
 			return true;
@@ -155,6 +174,11 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 
 	private void DoRoutine(FanProjectors.FanParams fpSet)
 	{
+		if(doStack)
+		{
+			DoStackRoutine(fpSet);
+			return;
+		}
 		ImageProcessor ip = imp.getProcessor();
 		Object image = ip.getPixels();
 		
@@ -234,6 +258,57 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 	
 	//*******************************************************************************
 
+	/**Projects every slice in parallel and streams the sinograms to a TIFF stack*/
+	private void DoStackRoutine(final FanProjectors.FanParams fpSet)
+	{
+		String dir = IJ.getDirectory("Choose a Directory");
+		if(dir==null) return;
+
+		String title;
+		String name = imp.getTitle();
+		int dotIndex = name.lastIndexOf(".");
+		if(dotIndex != -1) title = name.substring(0, dotIndex);
+		else title  = name;
+		String path = dir + title + "_Mag" + fpSet.magnification + "FanSino" + fpSet.numAng + ".tif";
+
+		ImageStack stk = imp.getStack();
+		fpSet.pixSizeCM = (float)imp.getCalibration().pixelWidth;
+		Calibration  imgCal = imp.getCalibration();
+		double pixSize = imgCal.getX(1); //cm per pixel
+		//See DoRoutine for the 16-bit scaling
+		double scale = scale16 ? 6000*pixSize : pixSize;
+		int sinoWidth = (int)(stk.getWidth()*fpSet.magnification);
+
+		try(TiffStackWriter writer = new TiffStackWriter(path, sinoWidth, fpSet.numAng, stk.getSize(),
+				scale16 ? 16 : 32, pixSize, 360.0/fpSet.numAng, imgCal.getUnit(), "Deg"))
+		{
+			SliceStackProjector.projectToTiff(stk, new SliceStackProjector.SliceProjectorFactory()
+			{
+				@Override
+				public SliceStackProjector.SliceProjector create()
+				{
+					final FanProjectors prj = new FanProjectors();
+					return new SliceStackProjector.SliceProjector()
+					{
+						@Override
+						public float[] project(float[] slice, int width, int height)
+						{
+							return prj.imageToFanBeamSinogram(slice,width,height,fpSet,true);
+						}
+					};
+				}
+			}, nThreads, writer, scale);
+		}
+		catch(IOException e)
+		{
+			IJ.error("Image To Sinogram Error", "Could not write " + path + "\n" + e.getMessage());
+			return;
+		}
+		IJ.showStatus("Saved " + path);
+	}
+
+	//*******************************************************************************
+
 	//Simple Fan projection
 	@SuppressWarnings("unchecked")
 	private void GetSelections(GenericDialog gd)
@@ -250,9 +325,16 @@ public class MuLinSlice_To_Fan_Sinogram implements PlugInFilter, DialogListener
 		str = numFlds.get(2).getText();
 		if(isNumeric(str)) 	fpSet.magnification =  Float.valueOf(str);
 
+		if(numFlds.size()>3)
+		{
+			str = numFlds.get(3).getText();
+			if(isNumeric(str)) 	nThreads =  (int)Double.parseDouble(str);
+		}
+
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		padImage = ckBoxes.get(0).getState();		
 		scale16 = ckBoxes.get(1).getState();
+		if(ckBoxes.size()>2) doStack = ckBoxes.get(2).getState();
 	}
 	public static boolean isNumeric(String str)
 	{ 
@@ -10,12 +10,14 @@ package CT_Tools;
 import ij.IJ;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.*;
 import ij.gui.*;
 import ij.measure.*;
 
 import java.awt.*;
+import java.io.IOException;
 import java.util.Vector;
 
 import jhd.Projection.*;
@@ -27,6 +29,9 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 	static final String myDialogTitle = "Parallel Beam CTscan";
 	boolean scale16,padImage;
 	int oldW,oldH;
+	//Stack mode, each slice is projected and written to a TIFF stack on disk
+	boolean doStack;
+	int nThreads = Runtime.getRuntime().availableProcessors();
 	
 	ParallelProjectors parPrj = new ParallelProjectors();
 	ParallelProjectors.ParallelParams mppSet = new ParallelProjectors.ParallelParams();
@@ -86,15 +91,24 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 		gd.addMessage("Detector Pixels = " + detPixCnt);
 		gd.addCheckbox("Pad Image", false);
 		gd.addCheckbox("Scale to 16-bit", false);
+		if(imp.getStackSize()>1)
+		{
+			gd.setInsets(10,0,0);
+			gd.addMessage("Stack______________________",myFont,Color.BLACK);
+			gd.addCheckbox("Project all slices to disk", false);
+			gd.addNumericField("Threads", nThreads,0);
+		}
 		gd.addDialogListener(this);
 		gd.addHelp("https://lazzyizzi.github.io/CTsimulator.html");
 		
 		Vector<TextField> numFlds = gd.getNumericFields();
 		numFlds.get(0).setName("numAng");
+		if(numFlds.size()>1) numFlds.get(1).setName("nThreads");
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		ckBoxes.get(0).setName("padImage");
 		ckBoxes.get(1).setName("scale16");
+		if(ckBoxes.size()>2) ckBoxes.get(2).setName("doStack");
 
 		gd.showDialog();
 
@@ -114,6 +128,11 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 
 	private boolean validateParams(ParallelProjectors.ParallelParams mppSet)
 	{
+		if(doStack && nThreads < 1)
+		{
+			IJ.error("Image To Sinogram Error", "Threads must be 1 or more");
+			return false;
+		}
 		if(mppSet.numAng> 1 && imp.getWidth()==imp.getHeight())
 		return true;
 		else
@@ -127,6 +146,11 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 
 	private void DoRoutine(ParallelProjectors.ParallelParams mppSet)
 	{
+		if(doStack)
+		{
+			DoStackRoutine(mppSet);
+			return;
+		}
 		ImageProcessor ip = imp.getProcessor();
 		Object image = ip.getPixels();
 
@@ -191,6 +215,55 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 	
 	//*******************************************************************************
 
+	/**Projects every slice in parallel and streams the sinograms to a TIFF stack*/
+	private void DoStackRoutine(final ParallelProjectors.ParallelParams mppSet)
+	{
+		String dir = IJ.getDirectory("Choose a Directory");
+		if(dir==null) return;
+
+		String title;
+		String name = imp.getTitle();
+		int dotIndex = name.lastIndexOf(".");
+		if(dotIndex != -1) title = name.substring(0, dotIndex);
+		else title  = name;
+		String path = dir + title + "_ParSino.tif";
+
+		ImageStack stk = imp.getStack();
+		Calibration  imgCal = imp.getCalibration();
+		double pixSize = imgCal.getX(1); //cm per pixel
+		//See DoRoutine for the 16-bit scaling
+		double scale = scale16 ? 6000*pixSize : pixSize;
+
+		try(TiffStackWriter writer = new TiffStackWriter(path, stk.getWidth(), mppSet.numAng, stk.getSize(),
+				scale16 ? 16 : 32, pixSize, 180.0/mppSet.numAng, imgCal.getUnit(), "Deg"))
+		{
+			SliceStackProjector.projectToTiff(stk, new SliceStackProjector.SliceProjectorFactory()
+			{
+				@Override
+				public SliceStackProjector.SliceProjector create()
+				{
+					final ParallelProjectors prj = new ParallelProjectors();
+					return new SliceStackProjector.SliceProjector()
+					{
+						@Override
+						public float[] project(float[] slice, int width, int height)
+						{
+							return prj.imageToParallelSinogram(slice,width,height,mppSet.numAng);
+						}
+					};
+				}
+			}, nThreads, writer, scale);
+		}
+		catch(IOException e)
+		{
+			IJ.error("Image To Sinogram Error", "Could not write " + path + "\n" + e.getMessage());
+			return;
+		}
+		IJ.showStatus("Saved " + path);
+	}
+
+	//*******************************************************************************
+
 	@SuppressWarnings("unchecked")
 	private void GetSelections(GenericDialog gd)
 	{
@@ -200,9 +273,16 @@ public class MuLinSlice_To_Parallel_Sinogram implements PlugInFilter, DialogList
 		str = numFlds.get(0).getText();
 		if(isNumeric(str)) 	mppSet.numAng =  Integer.valueOf(str);
 
+		if(numFlds.size()>1)
+		{
+			str = numFlds.get(1).getText();
+			if(isNumeric(str)) 	nThreads =  (int)Double.parseDouble(str);
+		}
+
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		padImage = ckBoxes.get(0).getState();		
 		scale16 = ckBoxes.get(1).getState();
+		if(ckBoxes.size()>2) doStack = ckBoxes.get(2).getState();
 	}
 	public static boolean isNumeric(String str)
 	{ 
@@ -0,0 +1,115 @@
+package CT_Tools;
+
+/*
+ * Projects every slice of an image stack to a sinogram and streams the sinograms
+ * to a TIFF stack on disk.
+ *
+ * The slices are projected in parallel.  Each worker thread gets its own projector
+ * from the supplied factory, so projectors need not be thread safe.  A sinogram
+ * is written to its place in the file as soon as it is done, so only one slice and
+ * one sinogram per thread are held in memory, whatever the size of the stack.
+ */
+
+import ij.IJ;
+import ij.ImageStack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SliceStackProjector
+{
+	/**Projects one 2D slice to a sinogram*/
+	public interface SliceProjector
+	{
+		/**@param slice The slice pixels
+		 * @param width The slice width
+		 * @param height The slice height
+		 * @return The sinogram in per pixel units
+		 */
+		float[] project(float[] slice, int width, int height);
+	}
+
+	/**Creates one projector for each worker thread*/
+	public interface SliceProjectorFactory
+	{
+		SliceProjector create();
+	}
+
+	//*******************************************************************************
+
+	/**Projects every slice of a 32-bit stack and writes the sinograms to a TIFF stack
+	 * @param stk The stack of linear attenuation slices
+	 * @param factory Supplies a projector to each worker thread
+	 * @param nThreads The number of slices projected at once
+	 * @param writer The TIFF stack, one sinogram per slice
+	 * @param scale The sinogram values are multiplied by scale before writing
+	 * @throws IOException If a sinogram could not be written
+	 */
+	public static void projectToTiff(final ImageStack stk, final SliceProjectorFactory factory, int nThreads,
+			final TiffStackWriter writer, final double scale) throws IOException
+	{
+		final int width = stk.getWidth();
+		final int height = stk.getHeight();
+		final int nSlices = stk.getSize();
+		final AtomicInteger slicesDone = new AtomicInteger();
+		final ThreadLocal<SliceProjector> projector = new ThreadLocal<SliceProjector>()
+		{
+			@Override
+			protected SliceProjector initialValue()
+			{
+				return factory.create();
+			}
+		};
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nSlices);
+		for(int i = 0; i < nSlices; i++)
+		{
+			final int slice = i;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call() throws IOException
+				{
+					float[] sino = projector.get().project((float[])stk.getPixels(slice + 1), width, height);
+					for(int j = 0; j < sino.length; j++)
+					{
+						sino[j] *= scale;
+					}
+					writer.writeSlice(slice, sino);
+					IJ.showProgress(slicesDone.incrementAndGet(), nSlices);
+					return null;
+				}
+			});
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nThreads));
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks))
+			{
+				f.get();
+			}
+		}
+		catch(ExecutionException e)
+		{
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("Slice projection was interrupted");
+		}
+		finally
+		{
+			pool.shutdown();
+			IJ.showProgress(1.0);
+		}
+	}
+}
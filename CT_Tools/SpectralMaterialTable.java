@@ -0,0 +1,174 @@
+package CT_Tools;
+
+/*
+ * A compiled spectral material table for projecting tagged images.
+ *
+ * The formula of each tagged material is parsed and looked up once per keV bin
+ * when the table is built.  After that the attenuation of a tag at a bin is a
+ * single array index, muLin[tag][bin].
+ *
+ * Tables are cached by their spectrum and materials, so runs that share a source,
+ * filter, detector and materials list, e.g. a sweep over scan geometry, reuse the
+ * table and never touch the formula parser again.
+ *
+ * The spectrum is sampled as in Scanner_Setup, from kv down to minKV in steps of
+ * (kv - minKV)/nBins with both ends included, so a scan with nBins has nBins + 1
+ * samples.  The weight of a sample is the Kramers source intensity, filtered and
+ * then absorbed by the detector, also as in Scanner_Setup.
+ */
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import jhd.MuMassCalculator.MuMassCalculator;
+import jhd.Projection.FanProjectors;
+import jhd.Projection.ParallelProjectors;
+
+public class SpectralMaterialTable
+{
+	/**The number of keV samples, the scan's nBins + 1*/
+	public final int nBins;
+	/**The sample energies in MeV, from kv down to minKV*/
+	public final double[] binMeV;
+	/**The detected intensity of the filtered source in each bin*/
+	public final double[] binWeight;
+	/**The sum of the bin weights*/
+	public final double weightSum;
+	/**[tag][bin] linear attenuation in cm-1, null for unknown tags*/
+	public final float[][] muLin;
+
+	//The most recently used tables
+	private static final int maxCached = 8;
+	private static final Map<String,SpectralMaterialTable> cache =
+			new LinkedHashMap<String,SpectralMaterialTable>(16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,SpectralMaterialTable> eldest)
+		{
+			return size() > maxCached;
+		}
+	};
+
+	//*******************************************************************************
+
+	private SpectralMaterialTable(double kv, double ma, String target, int nSteps, double minKV,
+			String filter, double filterCM, double filterGmPerCC,
+			String detFormula, double detCM, double detGmPerCC,
+			int[] matlTag, String[] matlFormula, double[] matlGmPerCC)
+	{
+		MuMassCalculator mmc = new MuMassCalculator();
+
+		nBins = nSteps + 1;
+		binMeV = new double[nBins];
+		binWeight = new double[nBins];
+
+		double kevInc = (kv - minKV)/nSteps;
+		double sum = 0;
+		for(int b = 0; b < nBins; b++)
+		{
+			double meV = (b == nSteps ? minKV : kv - b*kevInc)/1000;
+			double src = mmc.spectrumKramers(kv, ma, target, meV);
+			double filterTau = mmc.getMuMass(filter, meV, "TotAttn")*filterCM*filterGmPerCC;
+			double detTau = mmc.getMuMass(detFormula, meV, "TotAttn")*detCM*detGmPerCC;
+			binMeV[b] = meV;
+			binWeight[b] = src*Math.exp(-filterTau)*(1 - Math.exp(-detTau));
+			sum += binWeight[b];
+		}
+		weightSum = sum;
+
+		int maxTag = 0;
+		for(int i = 0; i < matlTag.length; i++)
+		{
+			if(matlTag[i] > maxTag) maxTag = matlTag[i];
+		}
+		muLin = new float[maxTag + 1][];
+
+		for(int i = 0; i < matlTag.length; i++)
+		{
+			if(matlTag[i] < 0 || matlFormula[i] == null || matlGmPerCC[i] <= 0) continue;
+			float[] mu = new float[nBins];
+			for(int b = 0; b < nBins; b++)
+			{
+				mu[b] = (float)(mmc.getMuMass(matlFormula[i], binMeV[b], "TotAttn")*matlGmPerCC[i]);
+			}
+			muLin[matlTag[i]] = mu;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**@param tag A material tag
+	 * @return true if the tag has an attenuation row in the table
+	 */
+	public boolean hasTag(int tag)
+	{
+		return tag >= 0 && tag < muLin.length && muLin[tag] != null;
+	}
+
+	//*******************************************************************************
+
+	/**@param bfp Fan beam scan parameters
+	 * @return The table for the scan's spectrum and materials, from the cache if possible
+	 */
+	public static SpectralMaterialTable get(FanProjectors.BremFanParams bfp)
+	{
+		return get(bfp.kv,bfp.ma,bfp.target,bfp.nBins,bfp.minKV,
+				bfp.filter,bfp.filterCM,bfp.filterGmPerCC,
+				bfp.detFormula,bfp.detCM,bfp.detGmPerCC,
+				bfp.matlTag,bfp.matlFormula,bfp.matlGmPerCC);
+	}
+
+	//*******************************************************************************
+
+	/**@param bpp Parallel beam scan parameters
+	 * @return The table for the scan's spectrum and materials, from the cache if possible
+	 */
+	public static SpectralMaterialTable get(ParallelProjectors.BremParallelParams bpp)
+	{
+		return get(bpp.kv,bpp.ma,bpp.target,bpp.nBins,bpp.minKV,
+				bpp.filter,bpp.filterCM,bpp.filterGmPerCC,
+				bpp.detFormula,bpp.detCM,bpp.detGmPerCC,
+				bpp.matlTag,bpp.matlFormula,bpp.matlGmPerCC);
+	}
+
+	//*******************************************************************************
+
+	/**@return The table for the spectrum and materials, from the cache if possible*/
+	public static SpectralMaterialTable get(double kv, double ma, String target, int nBins, double minKV,
+			String filter, double filterCM, double filterGmPerCC,
+			String detFormula, double detCM, double detGmPerCC,
+			int[] matlTag, String[] matlFormula, double[] matlGmPerCC)
+	{
+		String key = kv + "," + ma + "," + target + "," + nBins + "," + minKV + ","
+				+ filter + "," + filterCM + "," + filterGmPerCC + ","
+				+ detFormula + "," + detCM + "," + detGmPerCC + ","
+				+ Arrays.toString(matlTag) + Arrays.toString(matlFormula) + Arrays.toString(matlGmPerCC);
+
+		synchronized(cache)
+		{
+			SpectralMaterialTable table = cache.get(key);
+			if(table == null)
+			{
+				table = new SpectralMaterialTable(kv,ma,target,nBins,minKV,
+						filter,filterCM,filterGmPerCC,
+						detFormula,detCM,detGmPerCC,
+						matlTag,matlFormula,matlGmPerCC);
+				cache.put(key, table);
+			}
+			return table;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Releases the cached tables*/
+	public static void clearCache()
+	{
+		synchronized(cache)
+		{
+			cache.clear();
+		}
+	}
+}
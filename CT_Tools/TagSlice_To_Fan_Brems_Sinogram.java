@@ -82,7 +82,12 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 	String[] formula;
 	double[] gmPerCC;
 	//Checkboxes
-	boolean scale16,padImage;
+	boolean scale16,padImage,pathSinos;
+	//The multi-threaded angle or energy parallel projector
+	BremsSinogramEngine bremsEngine = new BremsSinogramEngine();
+	//Projector choices, not serialized
+	String projector = "Library";
+	int nThreads = Runtime.getRuntime().availableProcessors();
 	
 	GenericDialog gd = new GenericDialog(myDialogTitle);
 	ImagePlus imp;
@@ -90,6 +95,7 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 	//GLOBALS
 	String[] targetSymb = {"Ag","Au","Cr","Cu","Mo","Rh","W"};
 	String[] filterSymb = {"Ag","Al","Cu","Er","Mo","Nb","Rh","Ta"};
+	String[] projectorChoices = {"Library","Angle Parallel","Energy Parallel","Path Length"};
 	
 	static final String myDialogTitle = "Polychromatic Fan Beam CTscan";
 	static final String mySettingsTitle = "Polychromatic_FanBeam_Params";
@@ -255,14 +261,29 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 		gd.addStringField("Formula", bfpSet.detFormula);
 		gd.addNumericField("Thickness(cm)", bfpSet.detCM);
 		gd.addNumericField("Density(gm/cc)", bfpSet.detGmPerCC);
+
+		//Projector
+		gd.setInsets(10,0,0);
+		gd.addMessage("Projector__________________",myFont,Color.BLACK);
+		gd.addChoice("Engine",projectorChoices,projector);
+		gd.setInsets(0,0,0);
+		gd.addMessage("The engines other than Library are a different model,\n"
+				+ "with their own ray tracer and spectrum sampling.\n"
+				+ "Their sinograms differ from the Library's.\n"
+				+ "Energy Parallel splits the keV bins across threads and\n"
+				+ "keeps 8 bytes per ray per material, Path Length splits\n"
+				+ "the angles and forms the bins as each ray is traced.");
+		gd.addNumericField("Threads", nThreads,0);
 		gd.addCheckbox("Scale to 16-bit proj", scale16);
 		gd.addCheckbox("Pad Image", padImage);
+		gd.addCheckbox("Path Length Sinograms", pathSinos);
 		gd.addHelp("https://lazzyizzi.github.io/CTsimulator.html");
 		//gd.setOKLabel("Not OK");
      	 		
 		Vector<Choice> choices = gd.getChoices();
 		choices.get(0).setName("Target Choices");
 		choices.get(1).setName("Filter Choices");
+		choices.get(2).setName("Projector Choices");
 		
 		Vector<TextField> txtFlds = gd.getStringFields();
 		txtFlds.get(0).setName("Detector Formula");
@@ -278,10 +299,12 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 		numFlds.get(7).setName("magnification");
 		numFlds.get(8).setName("detCM");
 		numFlds.get(9).setName("detGmPerCC");
+		numFlds.get(10).setName("nThreads");
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		ckBoxes.get(0).setName("scale16");
 		ckBoxes.get(1).setName("padImage");
+		ckBoxes.get(2).setName("pathSinos");
 
 		gd.showDialog();
 
@@ -333,6 +356,7 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 		if(bfpSet.numAng < 1){IJ.error("Number of angles " + bfpSet.numAng + " Cannot be negative or zero"); return false;}
 		if(bfpSet.detCM <= 0){IJ.error("Detector Thickness " + bfpSet.detCM + " Cannot be negative"); return false;}
 		if(bfpSet.detGmPerCC <= 0){IJ.error("Detector Densith " + bfpSet.detCM + " Cannot be negative or zero"); return false;}
+		if(nThreads < 1){IJ.error("Threads " + nThreads + " Must be 1 or more"); return false;}
 		
 		return true;
 	}
@@ -351,7 +375,28 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 		{	
 			//Run the Fan Beam scan
 			//long startTime = System.nanoTime();
-			float[] sino = fanPrj.imageToBremsstrahlungFanBeamSinogram2(bfpSet,(float [])image,width,height);
+			float[] sino;
+			if(projector.equals("Angle Parallel"))
+			{
+				//View angles are split across nThreads, the result does not depend on nThreads
+				sino = bremsEngine.imageToBremsstrahlungFanBeamSinogram(bfpSet,(float [])image,width,height,nThreads);
+			}
+			else if(projector.equals("Energy Parallel"))
+			{
+				//keV bins are split across nThreads, use when nBins is large
+				sino = bremsEngine.imageToBremsstrahlungFanBeamSinogramByEnergy(bfpSet,(float [])image,width,height,nThreads);
+			}
+			else if(projector.equals("Path Length"))
+			{
+				//Each material is projected once, the keV bins are formed from the path lengths
+				bremsEngine.setKeepPathLengths(pathSinos);
+				sino = bremsEngine.imageToBremsstrahlungFanBeamSinogramByPathLength(bfpSet,(float [])image,width,height,nThreads);
+			}
+			else
+			{
+				sino = fanPrj.imageToBremsstrahlungFanBeamSinogram2(bfpSet,(float [])image,width,height);
+			}
+			if(sino == null) return;
 			//long endTime = System.nanoTime();
 			//long duration = (endTime - startTime);
 			//IJ.log("Execution time=" + duration + "nSec");
@@ -372,7 +417,7 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 			//Record the scan conditions in the image properties Info
 			//They get posted in strange order
 			//int propCnt = 22 + 4*bfpSet.matlGmPerCC.length;;		
-			String[] props = new String[28];
+			String[] props = new String[30];
 			props[0]="Geometry"; 
 			props[1]="Fan Beam"; 
 			props[2]="Source";
@@ -401,6 +446,8 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 			props[25]=Double.toString(bfpSet.detCM);
 			props[26]="Detector(gm/cc)";
 			props[27]=Double.toString(bfpSet.detGmPerCC);
+			props[28]="Projector";
+			props[29]=projector;
 			sinoImp.setProperties(props);
 			//these properties are preserved in the files tiff header
 			
@@ -433,6 +480,11 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
             sinoCal.pixelHeight = 360.0/bfpSet.numAng;
             
 			sinoImp.show();
+
+			if(pathSinos && projector.equals("Path Length"))
+			{
+				bremsEngine.showPathLengthSinograms(title,sinoImp.getWidth(),bfpSet.numAng,sinoCal,bfpSet.matlTag,bfpSet.matlName);
+			}
 			
 			if(scale16)
 			{
@@ -460,6 +512,7 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 		bfpSet.target = choices.get(0).getSelectedItem();
 		bfpSet.filter = choices.get(1).getSelectedItem();
 		bfpSet.filterGmPerCC = mmc.getAtomGmPerCC(bfpSet.filter);
+		projector = choices.get(2).getSelectedItem();
 		
 		Vector<TextField> txtFlds = gd.getStringFields();
 		bfpSet.detFormula = txtFlds.get(0).getText();
@@ -494,10 +547,14 @@ public class TagSlice_To_Fan_Brems_Sinogram implements PlugInFilter , DialogList
 
 		str = numFlds.get(9).getText();
 		if(isNumeric(str)) 	bfpSet.detGmPerCC =  Float.valueOf(str);
+
+		str = numFlds.get(10).getText();
+		if(isNumeric(str)) 	nThreads =  (int)Double.parseDouble(str);
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		scale16 = ckBoxes.get(0).getState();
-		padImage = ckBoxes.get(1).getState();		
+		padImage = ckBoxes.get(1).getState();
+		pathSinos = ckBoxes.get(2).getState();		
 	}
 
 	public static boolean isNumeric(String str)
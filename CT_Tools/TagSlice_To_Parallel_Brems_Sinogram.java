@@ -62,13 +62,19 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 	String[] matlArr;
 	String[] formula;
 	double[] gmPerCC;
-	boolean scale16,padImage;
+	boolean scale16,padImage,pathSinos;
+	//The multi-threaded angle or energy parallel projector
+	BremsSinogramEngine bremsEngine = new BremsSinogramEngine();
+	//Projector choices, not serialized
+	String projector = "Library";
+	int nThreads = Runtime.getRuntime().availableProcessors();
 
 	GenericDialog gd = new GenericDialog(myDialogTitle);
 	ImagePlus imp;
 	
 	String[] targetSymb = {"Ag","Au","Cr","Cu","Mo","Rh","W"};
 	String[] filterSymb = {"Ag","Al","Cu","Er","Mo","Nb","Rh","Ta"};
+	String[] projectorChoices = {"Library","Angle Parallel","Energy Parallel","Path Length"};
 	
 	static final String myDialogTitle = "Polychromatic Parallel Beam CTscan";
 	static final String mySettingsTitle = "Polychromatic_ParallelBeam_Params";
@@ -223,8 +229,22 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		gd.addStringField("Formula", bppSet.detFormula);
 		gd.addNumericField("Thickness(cm)", bppSet.detCM);
 		gd.addNumericField("Density(gm/cc)", bppSet.detGmPerCC);
+
+		//Projector
+		gd.setInsets(10,0,0);
+		gd.addMessage("Projector__________________",myFont,Color.BLACK);
+		gd.addChoice("Engine",projectorChoices,projector);
+		gd.setInsets(0,0,0);
+		gd.addMessage("The engines other than Library are a different model,\n"
+				+ "with their own ray tracer and spectrum sampling.\n"
+				+ "Their sinograms differ from the Library's.\n"
+				+ "Energy Parallel splits the keV bins across threads and\n"
+				+ "keeps 8 bytes per ray per material, Path Length splits\n"
+				+ "the angles and forms the bins as each ray is traced.");
+		gd.addNumericField("Threads", nThreads,0);
 		gd.addCheckbox("Scale to 16-bit proj", false);
 		gd.addCheckbox("Pad Image", false);
+		gd.addCheckbox("Path Length Sinograms", pathSinos);
 		gd.addHelp("https://lazzyizzi.github.io/CTsimulator.html");
      	
 		//Lock the names of the dialog components
@@ -234,6 +254,7 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		Vector<Choice> choices = gd.getChoices();
 		choices.get(0).setName("Target Choices");
 		choices.get(1).setName("Filter Choices");
+		choices.get(2).setName("Projector Choices");
 		
 		Vector<TextField> txtFlds = gd.getStringFields();
 		txtFlds.get(0).setName("Detector Formula");
@@ -247,10 +268,12 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		numFlds.get(5).setName("numAng");
 		numFlds.get(6).setName("detCM");
 		numFlds.get(7).setName("detGmPerCC");
+		numFlds.get(8).setName("nThreads");
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		ckBoxes.get(0).setName("scale16");
 		ckBoxes.get(1).setName("padImage");
+		ckBoxes.get(2).setName("pathSinos");
 		
 		gd.showDialog();
 
@@ -305,6 +328,7 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		if(bppSet.numAng < 1){IJ.error("Number of angles " + bppSet.numAng + " Cannot be negative or zero"); return false;}
 		if(bppSet.detCM <= 0){IJ.error("Detector Thickness " + bppSet.detCM + " Cannot be negative"); return false;}
 		if(bppSet.detGmPerCC <= 0){IJ.error("Detector Densith " + bppSet.detCM + " Cannot be negative or zero"); return false;}
+		if(nThreads < 1){IJ.error("Threads " + nThreads + " Must be 1 or more"); return false;}
 		
 		return true;
 	}
@@ -323,7 +347,28 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		{	
 			//Call the MuMassCalculator Projector library function
 			//long startTime = System.nanoTime();
-			float[] sino = parPrj.imageToBremsstrahlungParallelSinogram2(bppSet, (float [])image, width, height);
+			float[] sino;
+			if(projector.equals("Angle Parallel"))
+			{
+				//View angles are split across nThreads, the result does not depend on nThreads
+				sino = bremsEngine.imageToBremsstrahlungParallelSinogram(bppSet, (float [])image, width, height, nThreads);
+			}
+			else if(projector.equals("Energy Parallel"))
+			{
+				//keV bins are split across nThreads, use when nBins is large
+				sino = bremsEngine.imageToBremsstrahlungParallelSinogramByEnergy(bppSet, (float [])image, width, height, nThreads);
+			}
+			else if(projector.equals("Path Length"))
+			{
+				//Each material is projected once, the keV bins are formed from the path lengths
+				bremsEngine.setKeepPathLengths(pathSinos);
+				sino = bremsEngine.imageToBremsstrahlungParallelSinogramByPathLength(bppSet, (float [])image, width, height, nThreads);
+			}
+			else
+			{
+				sino = parPrj.imageToBremsstrahlungParallelSinogram2(bppSet, (float [])image, width, height);
+			}
+			if(sino == null) return;
 			//long endTime = System.nanoTime();
 			//long duration = (endTime - startTime);
 			//IJ.log("Execution time=" + duration + "nSec");
@@ -343,7 +388,7 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 			//Record the scan conditions in the image properties Info
 			//They get posted in strange order
 			//int propCnt = 18 + 4*bppSet.matlGmPerCC.length;;		
-			String[] props = new String[24];
+			String[] props = new String[26];
 			props[0]="Geometry"; 
 			props[1]="Parallel";
 			props[2]="Source";
@@ -368,6 +413,8 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 			props[21]=Double.toString(bppSet.detCM);
 			props[22]="Detector(gm/cc)";
 			props[23]=Double.toString(bppSet.detGmPerCC);
+			props[24]="Projector";
+			props[25]=projector;
 			sinoImp.setProperties(props);
 			//these properties are preserved in the images tiff file header
 						
@@ -387,6 +434,11 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
             sinoCal.pixelHeight = 180.0/bppSet.numAng;
             
 			sinoImp.show();
+
+			if(pathSinos && projector.equals("Path Length"))
+			{
+				bremsEngine.showPathLengthSinograms(title,sinoImp.getWidth(),bppSet.numAng,sinoCal,bppSet.matlTag,bppSet.matlName);
+			}
 			
 			if(scale16)
 			{
@@ -412,6 +464,7 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 		bppSet.target = choices.get(0).getSelectedItem();
 		bppSet.filter = choices.get(1).getSelectedItem();
 		bppSet.filterGmPerCC = mmc.getAtomGmPerCC(bppSet.filter);
+		projector = choices.get(2).getSelectedItem();
 		
 		Vector<TextField> txtFlds = gd.getStringFields();
 		bppSet.detFormula = txtFlds.get(0).getText();
@@ -440,10 +493,14 @@ public class TagSlice_To_Parallel_Brems_Sinogram implements PlugInFilter , Dialo
 
 		str = numFlds.get(7).getText();
 		if(isNumeric(str)) 	bppSet.detGmPerCC =  Float.valueOf(str);
+
+		str = numFlds.get(8).getText();
+		if(isNumeric(str)) 	nThreads =  (int)Double.parseDouble(str);
 		
 		Vector<Checkbox> ckBoxes = gd.getCheckboxes();
 		scale16 = ckBoxes.get(0).getState();
 		padImage = ckBoxes.get(1).getState();
+		pathSinos = ckBoxes.get(2).getState();
 		
 	}
 
@@ -0,0 +1,220 @@
+package CT_Tools;
+
+/*
+ * Writes a 16 or 32-bit TIFF stack to disk one slice at a time.
+ *
+ * The slice count is known when the file is created, so every slice has a fixed
+ * place in the file and slices may be written in any order from any thread.
+ * Only the slice being written needs to be in memory.
+ *
+ * The layout follows ImageJ's own TIFF stacks, big endian, the header, the first
+ * image file directory (IFD) with an ImageJ description, the contiguous image data
+ * and then the remaining IFDs.  Standard TIFF offsets are 32-bit, so for files
+ * larger than 4GB only the first IFD is written and ImageJ finds the other slices
+ * from the "images=" entry in the description, as it does for its own large stacks.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+public class TiffStackWriter implements Closeable
+{
+	//TIFF field types
+	static final int SHORT = 3;
+	static final int LONG = 4;
+	static final int ASCII = 2;
+	static final int RATIONAL = 5;
+
+	RandomAccessFile raf;
+	FileChannel channel;
+	int width,height,nSlices,bitDepth;
+	long sliceBytes;
+	long dataStart;
+	long descriptionOffset;
+	long resolutionOffset;
+	byte[] description;
+	double pixelWidth,pixelHeight;
+
+	//*******************************************************************************
+
+	/**Creates a TIFF stack file and reserves space for all of its slices
+	 * @param path The file path
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param nSlices The number of slices
+	 * @param bitDepth 16 for unsigned short or 32 for float pixels
+	 * @param pixelWidth The calibrated pixel width
+	 * @param pixelHeight The calibrated pixel height
+	 * @param xUnit The X calibration unit
+	 * @param yUnit The Y calibration unit
+	 * @throws IOException If the file cannot be created
+	 */
+	public TiffStackWriter(String path, int width, int height, int nSlices, int bitDepth,
+			double pixelWidth, double pixelHeight, String xUnit, String yUnit) throws IOException
+	{
+		if(bitDepth != 16 && bitDepth != 32) throw new IllegalArgumentException("bitDepth must be 16 or 32");
+		this.width = width;
+		this.height = height;
+		this.nSlices = nSlices;
+		this.bitDepth = bitDepth;
+		this.pixelWidth = pixelWidth;
+		this.pixelHeight = pixelHeight;
+		sliceBytes = (long)width*height*(bitDepth/8);
+
+		String desc = "ImageJ=1.53k\nimages=" + nSlices + "\nslices=" + nSlices + "\n";
+		if(xUnit != null) desc += "unit=" + xUnit + "\n";
+		if(yUnit != null && !yUnit.equals(xUnit)) desc += "yunit=" + yUnit + "\n";
+		desc += "loop=false\n\0";
+		description = desc.getBytes(StandardCharsets.US_ASCII);
+
+		//header, first IFD, description, two rationals then the image data
+		descriptionOffset = 8 + ifdSize(true);
+		resolutionOffset = descriptionOffset + description.length + (description.length & 1);
+		dataStart = resolutionOffset + 16;
+
+		raf = new RandomAccessFile(path, "rw");
+		raf.setLength(0);
+		channel = raf.getChannel();
+	}
+
+	//*******************************************************************************
+
+	/**Writes a float slice, may be called from several threads at once
+	 * @param slice The zero based slice index
+	 * @param pixels The slice pixels, for 16-bit files the values are clamped to 0-65535
+	 * @throws IOException If the write fails
+	 */
+	public void writeSlice(int slice, float[] pixels) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate((int)sliceBytes).order(ByteOrder.BIG_ENDIAN);
+		if(bitDepth == 32)
+		{
+			buf.asFloatBuffer().put(pixels, 0, width*height);
+		}
+		else
+		{
+			for(int i = 0; i < width*height; i++)
+			{
+				int val = Math.round(pixels[i]);
+				buf.putShort((short)Math.max(0, Math.min(65535, val)));
+			}
+			buf.flip();
+		}
+		writeFully(buf, dataStart + slice*sliceBytes);
+	}
+
+	//*******************************************************************************
+
+	/**Writes the header and image file directories and closes the file
+	 * @throws IOException If the write fails
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if(channel == null) return;
+		try
+		{
+			long dataEnd = dataStart + nSlices*sliceBytes;
+			long ifdStart = dataEnd + (dataEnd & 1);
+			long laterIfd = ifdSize(false);
+			boolean allIfds = nSlices > 1 && ifdStart + (nSlices - 1)*laterIfd < 0xFFFFFFFFL;
+
+			ByteBuffer buf = ByteBuffer.allocate((int)dataStart).order(ByteOrder.BIG_ENDIAN);
+			buf.put((byte)'M').put((byte)'M').putShort((short)42).putInt(8);
+			putIfd(buf, true, dataStart, allIfds ? ifdStart : 0);
+			buf.put(description);
+			if((description.length & 1) != 0) buf.put((byte)0);
+			putRational(buf, 1/pixelWidth);
+			putRational(buf, 1/pixelHeight);
+			buf.flip();
+			writeFully(buf, 0);
+
+			if(allIfds)
+			{
+				buf = ByteBuffer.allocate((int)(laterIfd*(nSlices - 1))).order(ByteOrder.BIG_ENDIAN);
+				for(int i = 1; i < nSlices; i++)
+				{
+					long next = i < nSlices - 1 ? ifdStart + i*laterIfd : 0;
+					putIfd(buf, false, dataStart + i*sliceBytes, next);
+				}
+				buf.flip();
+				writeFully(buf, ifdStart);
+			}
+		}
+		finally
+		{
+			channel.close();
+			raf.close();
+			channel = null;
+		}
+	}
+
+	//*******************************************************************************
+
+	private long ifdSize(boolean first)
+	{
+		return 2 + 12*(first ? 14 : 13) + 4;
+	}
+
+	//*******************************************************************************
+
+	private void putIfd(ByteBuffer buf, boolean first, long stripOffset, long nextIfd)
+	{
+		buf.putShort((short)(first ? 14 : 13));
+		putEntry(buf, 254, LONG, 1, 0);
+		putEntry(buf, 256, LONG, 1, width);
+		putEntry(buf, 257, LONG, 1, height);
+		putEntry(buf, 258, SHORT, 1, bitDepth);
+		putEntry(buf, 262, SHORT, 1, 1);
+		if(first) putEntry(buf, 270, ASCII, description.length, descriptionOffset);
+		putEntry(buf, 273, LONG, 1, stripOffset);
+		putEntry(buf, 277, SHORT, 1, 1);
+		putEntry(buf, 278, SHORT, 1, height);
+		putEntry(buf, 279, LONG, 1, sliceBytes);
+		putEntry(buf, 282, RATIONAL, 1, resolutionOffset);
+		putEntry(buf, 283, RATIONAL, 1, resolutionOffset + 8);
+		putEntry(buf, 296, SHORT, 1, 1);
+		putEntry(buf, 339, SHORT, 1, bitDepth == 32 ? 3 : 1);
+		buf.putInt((int)nextIfd);
+	}
+
+	//*******************************************************************************
+
+	private void putEntry(ByteBuffer buf, int tag, int type, int count, long value)
+	{
+		buf.putShort((short)tag);
+		buf.putShort((short)type);
+		buf.putInt(count);
+		if(type == SHORT)
+		{
+			buf.putShort((short)value);
+			buf.putShort((short)0);
+		}
+		else buf.putInt((int)value);
+	}
+
+	//*******************************************************************************
+
+	/**Scales the same way as ImageJ's TiffEncoder*/
+	private void putRational(ByteBuffer buf, double value)
+	{
+		double scale = value > 1000 ? 1000 : 1000000;
+		buf.putInt((int)(value*scale));
+		buf.putInt((int)scale);
+	}
+
+	//*******************************************************************************
+
+	private void writeFully(ByteBuffer buf, long position) throws IOException
+	{
+		while(buf.hasRemaining())
+		{
+			position += channel.write(buf, position);
+		}
+	}
+}
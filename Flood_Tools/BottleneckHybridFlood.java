@@ -0,0 +1,209 @@
+package Flood_Tools;
+
+/*
+ * The breakthrough radius of a hybrid map in one pass.
+ *
+ * A flood at radius t from the top slice reaches a voxel if some path to it keeps
+ * every voxel at or above t, so the largest radius that reaches the voxel is the
+ * best path's smallest value, its bottleneck.  The bottlenecks are propagated from
+ * the top slice with a max priority queue, as in Dijkstra's algorithm with min
+ * in place of +.  Voxels leave the queue in decreasing bottleneck order, so the
+ * first bottom slice voxel to leave it gives the breakthrough radius exactly,
+ * with no search increment and no repeated floods.  Because the keys leave the
+ * queue in decreasing order, the first time a voxel is queued is already at its
+ * best bottleneck, so each voxel is queued once and is marked in a bitset.
+ *
+ * Run to completion the pass gives the max admissible radius map: each pore voxel
+ * holds the largest flood radius that reaches it, 0 if none does.  The flood at
+ * any radius t is the set of voxels with map values >= t.  The map is only made
+ * when it is asked for, the breakthrough search needs just the bitset.
+ */
+
+import ij.IJ;
+
+import java.util.Arrays;
+
+public class BottleneckHybridFlood
+{
+	int width,height,depth,sliceSize;
+	int[] dx,dy,dz;
+	float breakthroughRadius;
+	Object[] radiusMap;
+
+	//the max heap of voxels keyed by their bottleneck, stale entries are skipped
+	float[] heapKey;
+	long[] heapVox;
+	int heapSize;
+
+	//*******************************************************************************
+
+	/**Finds the breakthrough radius, stopping as soon as the bottom slice is reached
+	 * @param oHybridArr The hybrid map float[] slices, it is not modified
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @return The largest flood radius that reaches the bottom slice, 0 if the map is not connected
+	 */
+	public float breakthroughRadius(Object[] oHybridArr, int width, int height, int depth, int neighbors)
+	{
+		propagate(oHybridArr, width, height, depth, neighbors, true);
+		radiusMap = null;
+		return breakthroughRadius;
+	}
+
+	//*******************************************************************************
+
+	/**Computes the max admissible radius map and the breakthrough radius
+	 * @param oHybridArr The hybrid map float[] slices, it is not modified
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @return The map's float[] slices, each voxel holds the largest flood radius that reaches it
+	 */
+	public Object[] maxRadiusMap(Object[] oHybridArr, int width, int height, int depth, int neighbors)
+	{
+		propagate(oHybridArr, width, height, depth, neighbors, false);
+		Object[] map = radiusMap;
+		radiusMap = null;
+		return map;
+	}
+
+	//*******************************************************************************
+
+	/**@return The breakthrough radius found by the last call, 0 if the map is not connected*/
+	public float getBreakthroughRadius()
+	{
+		return breakthroughRadius;
+	}
+
+	//*******************************************************************************
+
+	private void propagate(Object[] hybrid, int width, int height, int depth, int neighbors, boolean stopAtBottom)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		sliceSize = width*height;
+		int[][] offsets = FloodConnectivity.offsets(neighbors);
+		dx = offsets[0];
+		dy = offsets[1];
+		dz = offsets[2];
+
+		radiusMap = null;
+		if(!stopAtBottom)
+		{
+			radiusMap = new Object[depth];
+			for(int z = 0; z < depth; z++) radiusMap[z] = new float[sliceSize];
+		}
+		long[][] queued = new long[depth][(sliceSize + 63)/64];
+		heapKey = new float[1024];
+		heapVox = new long[1024];
+		heapSize = 0;
+		breakthroughRadius = 0;
+
+		//the top slice voxels are reached at their own values
+		float[] top = (float[])hybrid[0];
+		float[] topMap = radiusMap != null ? (float[])radiusMap[0] : null;
+		long[] topQueued = queued[0];
+		for(int i = 0; i < sliceSize; i++)
+		{
+			if(top[i] > 0)
+			{
+				if(topMap != null) topMap[i] = top[i];
+				topQueued[i >>> 6] |= 1L << i;
+				push(top[i], i);
+			}
+		}
+
+		long bottom = (long)(depth-1)*sliceSize;
+		long total = (long)sliceSize*depth;
+		long finished = 0;
+		IJ.showStatus("Propagating bottleneck radii");
+		while(heapSize > 0)
+		{
+			float key = heapKey[0];
+			long v = pop();
+			int z = (int)(v / sliceSize);
+			int i = (int)(v % sliceSize);
+
+			if(v >= bottom && breakthroughRadius == 0)
+			{
+				breakthroughRadius = key;
+				if(stopAtBottom) break;
+			}
+			if((++finished & 0xFFFFF) == 0) IJ.showProgress((double)finished/total);
+
+			int x = i % width;
+			int y = i / width;
+			for(int n = 0; n < dx.length; n++)
+			{
+				int nx = x + dx[n];
+				int ny = y + dy[n];
+				int nz = z + dz[n];
+				if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+				int j = ny*width + nx;
+				long[] nQueued = queued[nz];
+				if((nQueued[j >>> 6] & (1L << j)) != 0) continue;
+				float val = ((float[])hybrid[nz])[j];
+				if(val <= 0) continue;
+				//no later key can beat this one, so the voxel is queued once
+				float r = Math.min(key, val);
+				nQueued[j >>> 6] |= 1L << j;
+				if(radiusMap != null) ((float[])radiusMap[nz])[j] = r;
+				push(r, (long)nz*sliceSize + j);
+			}
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+		heapKey = null;
+		heapVox = null;
+	}
+
+	//*******************************************************************************
+
+	private void push(float key, long vox)
+	{
+		if(heapSize == heapKey.length)
+		{
+			heapKey = Arrays.copyOf(heapKey, heapSize*2);
+			heapVox = Arrays.copyOf(heapVox, heapSize*2);
+		}
+		int c = heapSize++;
+		while(c > 0)
+		{
+			int p = (c - 1) >>> 1;
+			if(heapKey[p] >= key) break;
+			heapKey[c] = heapKey[p];
+			heapVox[c] = heapVox[p];
+			c = p;
+		}
+		heapKey[c] = key;
+		heapVox[c] = vox;
+	}
+
+	//*******************************************************************************
+
+	private long pop()
+	{
+		long top = heapVox[0];
+		heapSize--;
+		float key = heapKey[heapSize];
+		long vox = heapVox[heapSize];
+		int p = 0;
+		while(true)
+		{
+			int c = 2*p + 1;
+			if(c >= heapSize) break;
+			if(c + 1 < heapSize && heapKey[c+1] > heapKey[c]) c++;
+			if(heapKey[c] <= key) break;
+			heapKey[p] = heapKey[c];
+			heapVox[p] = heapVox[c];
+			p = c;
+		}
+		heapKey[p] = key;
+		heapVox[p] = vox;
+		return top;
+	}
+}
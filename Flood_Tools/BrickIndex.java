@@ -0,0 +1,249 @@
+package Flood_Tools;
+
+/*
+ * An occupancy index of a stack in cubic bricks of voxels.
+ *
+ * Each brick is flagged EMPTY if all of its voxels are zero, solid in hybrid and
+ * porosity maps and background in binary images, FULL if none of them are, and
+ * MIXED otherwise.  Whole volume passes can step over EMPTY bricks, which are most
+ * of a low porosity sample.  The index
+ * is built in one slab parallel pass and kept as an image property, so the
+ * plugins that work on the same stack share it.
+ *
+ * Flooding and clearing only set nonzero voxels to zero, so an EMPTY brick
+ * stays EMPTY and the index stays safe to skip with after a flood in place.
+ * A FULL brick may become MIXED, so FULL is only a hint.  Other in-place edits can
+ * write nonzero voxels, so the index is registered with ImageCaches and is dropped
+ * when the stack is changed.
+ *
+ * The users are the sweeps whose work in an EMPTY brick is known in advance:
+ * FrontierHybridFlood's measuring, clearing and copying passes, the row, column and
+ * depth lines of ParallelEuclideanMap's "Map !0" EDM that cross only EMPTY bricks,
+ * DialGeodesicMap's setup and unreached passes when it maps the nonzero voxels, and
+ * ComponentLabeler's scan when zero is outside the labeled range.  The floods
+ * themselves only visit the frontier and the library floods and EDM cannot use it.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+
+public class BrickIndex
+{
+	public static final byte EMPTY = 0;
+	public static final byte MIXED = 1;
+	public static final byte FULL = 2;
+
+	static final String PROPERTY = "Flood_Tools.BrickIndex";
+
+	static
+	{
+		ImageCaches.register(PROPERTY);
+	}
+
+	int width,height,depth;
+	int brickSize,shift;
+	int bricksX,bricksY,bricksZ;
+	byte[] state;				//[bz][by][bx]
+	Object[] source;			//the indexed stack's image array
+	long emptyCount;
+
+	//*******************************************************************************
+
+	/**Gets the image's brick index, building it if the image has none or its stack has changed
+	 * @param imp A stack of byte, short or float slices
+	 * @param brickSize The brick edge, 8 or 16
+	 * @return The index
+	 */
+	public static BrickIndex get(ImagePlus imp, int brickSize)
+	{
+		Object[] oImageArr = imp.getStack().getImageArray();
+		Object cached = imp.getProperty(PROPERTY);
+		if(cached instanceof BrickIndex)
+		{
+			BrickIndex index = (BrickIndex)cached;
+			if(index.source == oImageArr && index.brickSize == brickSize) return index;
+		}
+		BrickIndex index = new BrickIndex(oImageArr, imp.getWidth(), imp.getHeight(), imp.getStack().getSize(),
+				brickSize, Runtime.getRuntime().availableProcessors());
+		imp.setProperty(PROPERTY, index);
+		return index;
+	}
+
+	//*******************************************************************************
+
+	/**Builds the index
+	 * @param oImageArr The byte[], short[] or float[] slices
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param brickSize The brick edge, 8 or 16
+	 * @param nThreads The number of brick layers indexed at once
+	 */
+	public BrickIndex(final Object[] oImageArr, int width, int height, int depth, int brickSize, int nThreads)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.brickSize = brickSize == 16 ? 16 : 8;
+		shift = this.brickSize == 16 ? 4 : 3;
+		source = oImageArr;
+		bricksX = (width + this.brickSize - 1) >> shift;
+		bricksY = (height + this.brickSize - 1) >> shift;
+		bricksZ = (depth + this.brickSize - 1) >> shift;
+		state = new byte[bricksX*bricksY*bricksZ];
+
+		//count the nonzero voxels of each brick, one task per layer of bricks
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(bricksZ);
+		for(int b = 0; b < bricksZ; b++)
+		{
+			final int bz = b;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					indexLayer(oImageArr, bz);
+					return null;
+				}
+			});
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nThreads));
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Brick indexing was interrupted");
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		for(byte s : state)
+		{
+			if(s == EMPTY) emptyCount++;
+		}
+	}
+
+	//*******************************************************************************
+
+	private void indexLayer(Object[] oImageArr, int bz)
+	{
+		int[] setCounts = new int[bricksX*bricksY];
+		int z0 = bz << shift;
+		int z1 = Math.min(depth, z0 + brickSize);
+		for(int z = z0; z < z1; z++)
+		{
+			Object pixels = oImageArr[z];
+			for(int y = 0, i = 0; y < height; y++)
+			{
+				int row = (y >> shift)*bricksX;
+				for(int x = 0; x < width; x++, i++)
+				{
+					if(isSet(pixels, i)) setCounts[row + (x >> shift)]++;
+				}
+			}
+		}
+		for(int by = 0; by < bricksY; by++)
+		{
+			for(int bx = 0; bx < bricksX; bx++)
+			{
+				int voxels = (Math.min(width, (bx+1) << shift) - (bx << shift))
+						* (Math.min(height, (by+1) << shift) - (by << shift)) * (z1 - z0);
+				int count = setCounts[by*bricksX + bx];
+				state[(bz*bricksY + by)*bricksX + bx] = count == 0 ? EMPTY : count == voxels ? FULL : MIXED;
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	private static boolean isSet(Object pixels, int i)
+	{
+		if(pixels instanceof float[]) return ((float[])pixels)[i] != 0;
+		if(pixels instanceof byte[]) return ((byte[])pixels)[i] != 0;
+		return ((short[])pixels)[i] != 0;
+	}
+
+	//*******************************************************************************
+
+	/**@return true if the index was built from this image array*/
+	public boolean matches(Object[] oImageArr)
+	{
+		return source == oImageArr;
+	}
+
+	/**@return The brick edge in voxels*/
+	public int getBrickSize()
+	{
+		return brickSize;
+	}
+
+	/**@param x The voxel column
+	 * @param y The voxel row
+	 * @param z The zero based slice index
+	 * @return EMPTY, MIXED or FULL for the brick holding the voxel
+	 */
+	public byte getState(int x, int y, int z)
+	{
+		return state[((z >> shift)*bricksY + (y >> shift))*bricksX + (x >> shift)];
+	}
+
+	/**@param x The voxel column
+	 * @param y The voxel row
+	 * @param z The zero based slice index
+	 * @return The column just past the run of EMPTY bricks starting at x, x if its brick is not EMPTY
+	 */
+	public int skipEmpty(int x, int y, int z)
+	{
+		int row = ((z >> shift)*bricksY + (y >> shift))*bricksX;
+		int bx = x >> shift;
+		while(bx < bricksX && state[row + bx] == EMPTY) bx++;
+		return bx == (x >> shift) ? x : Math.min(width, bx << shift);
+	}
+
+	/**@return true if every brick along row y of slice z is EMPTY*/
+	public boolean rowEmpty(int y, int z)
+	{
+		return skipEmpty(0, y, z) == width;
+	}
+
+	/**@return true if every brick along column x of slice z is EMPTY*/
+	public boolean columnEmpty(int x, int z)
+	{
+		for(int by = 0; by < bricksY; by++)
+		{
+			if(state[((z >> shift)*bricksY + by)*bricksX + (x >> shift)] != EMPTY) return false;
+		}
+		return true;
+	}
+
+	/**@return true if every brick along the depth line through column x and row y is EMPTY*/
+	public boolean depthLineEmpty(int x, int y)
+	{
+		for(int bz = 0; bz < bricksZ; bz++)
+		{
+			if(state[(bz*bricksY + (y >> shift))*bricksX + (x >> shift)] != EMPTY) return false;
+		}
+		return true;
+	}
+
+	/**@return The fraction of the bricks that are EMPTY*/
+	public double getEmptyFraction()
+	{
+		return (double)emptyCount/state.length;
+	}
+}
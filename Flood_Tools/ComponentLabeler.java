@@ -0,0 +1,397 @@
+package Flood_Tools;
+
+/*
+ * Labels every connected component of the voxels between floodMin and floodMax.
+ *
+ * The stack is cut into slabs of slices that are labeled at the same time.  Each
+ * slab scans its voxels in order, gives a voxel the label of its already scanned
+ * neighbors, and joins the labels of neighbors that meet in a union-find forest.
+ * A boundary pass then joins the labels that meet across the slab boundaries, and
+ * a last slab parallel pass replaces each provisional label with its component's
+ * final label, 1 to componentCount in scan order.
+ *
+ * A flood from any seed is then the component of the seed's label, and the voxel
+ * count of each component comes for free.
+ *
+ * When zero lies outside floodMin to floodMax the scan steps over the EMPTY bricks
+ * of a BrickIndex of the stack, if one is given, as none of their voxels are labeled.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+
+public class ComponentLabeler
+{
+	int width,height,depth,sliceSize;
+	int[] dx,dy,dz;				//the already scanned neighbor offsets
+	double floodMin,floodMax;
+	int neighbors;
+	int[][] labels;				//[slice][voxel] 0 for background
+	long[] componentSizes;		//[label] voxel counts, [0] is unused
+	Object[] source;			//the labeled stack's image array
+	BrickIndex bricks;
+	int brickMask = -1;			//brick size - 1 while the scan skips EMPTY bricks, else -1
+
+	//*******************************************************************************
+
+	/**@param bricks A brick index of the stack to be labeled, or null*/
+	public void setBrickIndex(BrickIndex bricks)
+	{
+		this.bricks = bricks;
+	}
+
+	//*******************************************************************************
+
+	/**Labels the components of a stack
+	 * @param oImageArr The byte[], short[] or float[] slices
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param floodMin The smallest value of a component voxel
+	 * @param floodMax The largest value of a component voxel
+	 * @param nThreads The number of slabs labeled at once
+	 */
+	public void label(final Object[] oImageArr, int width, int height, int depth, int neighbors,
+			double floodMin, double floodMax, int nThreads)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.neighbors = neighbors;
+		this.floodMin = floodMin;
+		this.floodMax = floodMax;
+		source = oImageArr;
+		sliceSize = width*height;
+		setBackwardOffsets(neighbors);
+		boolean zeroLabeled = floodMin <= 0 && floodMax >= 0;
+		brickMask = bricks != null && bricks.source == oImageArr && !zeroLabeled ? bricks.getBrickSize() - 1 : -1;
+		labels = new int[depth][];
+
+		//the slabs
+		final int nSlabs = Math.max(1, Math.min(nThreads, depth));
+		final int[] slabStart = new int[nSlabs+1];
+		for(int s = 0; s <= nSlabs; s++) slabStart[s] = (int)((long)depth*s/nSlabs);
+
+		//provisional labels in each slab
+		IJ.showStatus("Labeling components");
+		final IntList[] slabParents = new IntList[nSlabs];
+		final IntList[] slabCounts = new IntList[nSlabs];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(nSlabs);
+		for(int s = 0; s < nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					slabParents[slab] = new IntList();
+					slabCounts[slab] = new IntList();
+					labelSlab(oImageArr, slabStart[slab], slabStart[slab+1], slabParents[slab], slabCounts[slab]);
+					return null;
+				}
+			});
+		}
+		runAll(tasks, nSlabs);
+
+		//one union-find forest over all of the provisional labels, label 0 is background
+		final int[] offsets = new int[nSlabs+1];
+		offsets[0] = 1;
+		for(int s = 0; s < nSlabs; s++) offsets[s+1] = offsets[s] + slabParents[s].size;
+		int[] parent = new int[offsets[nSlabs]];
+		for(int s = 0; s < nSlabs; s++)
+		{
+			for(int i = 0; i < slabParents[s].size; i++) parent[offsets[s]+i] = offsets[s] + slabParents[s].data[i];
+		}
+
+		//join the labels that meet across the slab boundaries
+		for(int s = 1; s < nSlabs; s++)
+		{
+			int z = slabStart[s];
+			int[] slice = labels[z];
+			int[] above = labels[z-1];
+			for(int i = 0; i < sliceSize; i++)
+			{
+				if(slice[i] == 0) continue;
+				int x = i % width;
+				int y = i / width;
+				for(int n = 0; n < dx.length; n++)
+				{
+					if(dz[n] != -1) continue;
+					int nx = x + dx[n];
+					int ny = y + dy[n];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height) continue;
+					int j = ny*width + nx;
+					if(above[j] == 0) continue;
+					union(parent, offsets[s] + slice[i] - 1, offsets[s-1] + above[j] - 1);
+				}
+			}
+		}
+
+		//final labels in order of their first provisional label
+		final int[] finalLabel = new int[parent.length];
+		int nComponents = 0;
+		for(int p = 1; p < parent.length; p++)
+		{
+			int root = find(parent, p);
+			if(root == p) finalLabel[p] = ++nComponents;
+		}
+		componentSizes = new long[nComponents+1];
+		for(int s = 0; s < nSlabs; s++)
+		{
+			for(int i = 0; i < slabParents[s].size; i++)
+			{
+				int p = offsets[s] + i;
+				finalLabel[p] = finalLabel[find(parent, p)];
+				componentSizes[finalLabel[p]] += slabCounts[s].data[i];
+			}
+		}
+
+		//relabel
+		tasks.clear();
+		for(int s = 0; s < nSlabs; s++)
+		{
+			final int slab = s;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					int offset = offsets[slab] - 1;
+					for(int z = slabStart[slab]; z < slabStart[slab+1]; z++)
+					{
+						int[] slice = labels[z];
+						for(int i = 0; i < sliceSize; i++)
+						{
+							if(slice[i] != 0) slice[i] = finalLabel[offset + slice[i]];
+						}
+					}
+					return null;
+				}
+			});
+		}
+		runAll(tasks, nSlabs);
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**@return true if the labels were made from this image array with these settings*/
+	public boolean matches(Object[] oImageArr, int neighbors, double floodMin, double floodMax)
+	{
+		return labels != null && source == oImageArr && this.neighbors == neighbors
+				&& this.floodMin == floodMin && this.floodMax == floodMax;
+	}
+
+	//*******************************************************************************
+
+	/**@param x The voxel column
+	 * @param y The voxel row
+	 * @param z The zero based slice index
+	 * @return The voxel's component label, 0 for background or out of bounds
+	 */
+	public int getLabel(int x, int y, int z)
+	{
+		if(x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= depth) return 0;
+		return labels[z][y*width + x];
+	}
+
+	/**@return [slice][voxel] The component labels, 0 for background*/
+	public int[][] getLabels()
+	{
+		return labels;
+	}
+
+	/**@return The number of components*/
+	public int getComponentCount()
+	{
+		return componentSizes.length - 1;
+	}
+
+	/**@return [label] The voxel count of each component, [0] is unused*/
+	public long[] getComponentSizes()
+	{
+		return componentSizes;
+	}
+
+	//*******************************************************************************
+
+	/**Sets the voxels of the chosen components to a value and removes them from the labels,
+	 * the value is expected to lie outside floodMin to floodMax
+	 * @param oImageArr The labeled byte[], short[] or float[] slices
+	 * @param chosen [label] true for the components to fill
+	 * @param fillVal The fill value
+	 * @return The number of voxels filled
+	 */
+	public long fill(Object[] oImageArr, boolean[] chosen, double fillVal)
+	{
+		long count = 0;
+		for(int z = 0; z < depth; z++)
+		{
+			int[] slice = labels[z];
+			Object pixels = oImageArr[z];
+			for(int i = 0; i < sliceSize; i++)
+			{
+				int label = slice[i];
+				if(label == 0 || !chosen[label]) continue;
+				if(pixels instanceof byte[]) ((byte[])pixels)[i] = (byte)fillVal;
+				else if(pixels instanceof short[]) ((short[])pixels)[i] = (short)fillVal;
+				else ((float[])pixels)[i] = (float)fillVal;
+				slice[i] = 0;
+				count++;
+			}
+		}
+		for(int label = 1; label < chosen.length; label++)
+		{
+			if(chosen[label]) componentSizes[label] = 0;
+		}
+		return count;
+	}
+
+	//*******************************************************************************
+
+	/**Scans slices [z0,z1), labels are 1 based within the slab*/
+	private void labelSlab(Object[] oImageArr, int z0, int z1, IntList parent, IntList counts)
+	{
+		for(int z = z0; z < z1; z++)
+		{
+			int[] slice = labels[z] = new int[sliceSize];
+			Object pixels = oImageArr[z];
+			for(int y = 0; y < height; y++)
+			{
+				for(int x = 0; x < width; x++)
+				{
+					if(brickMask >= 0 && (x & brickMask) == 0 && (x = bricks.skipEmpty(x, y, z)) == width) break;
+					int i = y*width + x;
+					double val = getValue(pixels, i);
+					if(val < floodMin || val > floodMax) continue;
+					int label = 0;
+					for(int n = 0; n < dx.length; n++)
+					{
+						int nx = x + dx[n];
+						int ny = y + dy[n];
+						int nz = z + dz[n];
+						if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < z0) continue;
+						int nLabel = labels[nz][ny*width + nx];
+						if(nLabel == 0) continue;
+						if(label == 0) label = nLabel;
+						else if(nLabel != label) union(parent.data, label - 1, nLabel - 1);
+					}
+					if(label == 0)
+					{
+						parent.add(parent.size);
+						counts.add(0);
+						label = parent.size;
+					}
+					slice[i] = label;
+					counts.data[label-1]++;
+				}
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	private static double getValue(Object pixels, int i)
+	{
+		if(pixels instanceof byte[]) return ((byte[])pixels)[i] & 0xff;
+		if(pixels instanceof short[]) return ((short[])pixels)[i] & 0xffff;
+		return ((float[])pixels)[i];
+	}
+
+	//*******************************************************************************
+
+	private static int find(int[] parent, int p)
+	{
+		int root = p;
+		while(parent[root] != root) root = parent[root];
+		while(parent[p] != root)
+		{
+			int next = parent[p];
+			parent[p] = root;
+			p = next;
+		}
+		return root;
+	}
+
+	/**Joins two trees, the smaller root becomes the parent so roots are each tree's first label*/
+	private static void union(int[] parent, int a, int b)
+	{
+		int ra = find(parent, a);
+		int rb = find(parent, b);
+		if(ra < rb) parent[rb] = ra;
+		else if(rb < ra) parent[ra] = rb;
+	}
+
+	//*******************************************************************************
+
+	/**The neighbors already scanned when a voxel is reached in x, y, z order*/
+	private void setBackwardOffsets(int neighbors)
+	{
+		int[][] all = FloodConnectivity.offsets(neighbors);
+		int n = 0;
+		dx = new int[all[0].length];
+		dy = new int[all[0].length];
+		dz = new int[all[0].length];
+		for(int k = 0; k < all[0].length; k++)
+		{
+			if(all[2][k] < 0 || (all[2][k] == 0 && (all[1][k] < 0 || (all[1][k] == 0 && all[0][k] < 0))))
+			{
+				dx[n] = all[0][k];
+				dy[n] = all[1][k];
+				dz[n] = all[2][k];
+				n++;
+			}
+		}
+		dx = Arrays.copyOf(dx, n);
+		dy = Arrays.copyOf(dy, n);
+		dz = Arrays.copyOf(dz, n);
+	}
+
+	//*******************************************************************************
+
+	private static void runAll(List<Callable<Void>> tasks, int nThreads)
+	{
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nThreads));
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Labeling was interrupted");
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+	//*******************************************************************************
+
+	/**A growable int array*/
+	static class IntList
+	{
+		int[] data = new int[1024];
+		int size;
+
+		void add(int v)
+		{
+			if(size == data.length) data = Arrays.copyOf(data, size*2);
+			data[size++] = v;
+		}
+	}
+}
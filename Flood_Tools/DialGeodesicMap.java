@@ -0,0 +1,736 @@
+package Flood_Tools;
+
+/*
+ * A 3D geodesic distance and tortuosity map computed with a bucket queue.
+ *
+ * The geodesic distance of a mapped voxel is the length of the shortest 26
+ * connected path to a seed through mapped voxels.  A step costs the length of
+ * its offset in calibrated units, so there are at most seven different costs.
+ * Instead of a binary heap the voxels waiting to be finished are kept in buckets
+ * of distance one shortest step wide, Dial's algorithm.  A step from a voxel
+ * always lands in a later bucket, so every voxel in the lowest bucket is already
+ * final and the buckets are emptied in order without comparisons.  Only
+ * maxStep/minStep + 2 buckets are live at a time and they are reused in a ring.
+ * The buckets hold primitive voxel indices, so there is nothing to allocate
+ * per voxel.  A distance map alone needs the stack itself plus about a bit per
+ * voxel, a tortuosity map from seed points adds 4 bytes a voxel for the seed
+ * indices, and a parent map or Voronoi labels add their own stacks.
+ *
+ * As in GDT3D, voxels that are not mapped are set to -2 and mapped voxels the
+ * seeds cannot reach are set to -1.  The tortuosity is the geodesic distance
+ * over the straight line distance to the seed face or to the seed point the
+ * voxel's path starts from, seed voxels have a tortuosity of 1.  GDT3D divides
+ * by the distance to the nearest seed point instead, so with several seed
+ * points the two maps can differ where those are not the same seed.  It is written
+ * as each voxel is finished, with seed points the index of each voxel's seed is
+ * carried along the search, 4 bytes a voxel, so there is no second pass and no
+ * search over the seeds.
+ *
+ * When the nonzero voxels are mapped and a BrickIndex of the stack is given, the
+ * setup and the last pass over the unfinished voxels step over its EMPTY bricks,
+ * which hold no mapped voxels.
+ *
+ * In sparse mode the mapped voxels are first compacted into a PoreGraph and the
+ * buckets are emptied over its nodes and their stored neighbors, so the search
+ * touches memory in proportion to the mapped volume rather than the whole stack.
+ * This is not a memory saving.  The dense search works in the stack itself and
+ * adds about a bit per voxel for a distance map, while the graph and a float distance per node add
+ * about 60 to 110 bytes per mapped voxel, and the stack is still written at the
+ * end.  On 200^3 random stacks, 26 connected and seeded from a face, the sparse
+ * search itself was up to twice as fast as the dense one, but building the graph
+ * made the whole run 1.1 to 3 times slower from 1% to 30% mapped voxels.
+ *
+ * The search can also stop early, at a maximum geodesic distance or as soon as
+ * target points or a target face are reached.  Voxels are finished in order of
+ * distance, so every voxel finished before the stop holds its exact distance and
+ * the voxels not finished are set to -1 as if they were unreachable.
+ *
+ * If asked, the step that last lowered each voxel's distance is kept in a
+ * GeodesicParentMap, so paths back to the seeds can be read without a search.
+ *
+ * With several seed points each voxel can also be labeled with the seed it is
+ * nearest to, its label is copied from the voxel that last lowered its distance,
+ * so the geodesic Voronoi regions of all the seeds come from the one search.
+ *
+ * The histogram of the distances, one bucket wide bins, and the value range of
+ * the map are counted as the voxels are finished, so no second pass over the
+ * map is needed to display it.  gdtTort3D writes the tortuosity to a second
+ * stack from the same search.  tort3D writes it over the distances, a finished
+ * voxel is never stepped to again, so its distance is no longer needed.
+ */
+
+import java.util.Arrays;
+
+import ij.IJ;
+
+public class DialGeodesicMap
+{
+	static final float NOT_MAPPED = -2;
+	static final float UNREACHED = -1;
+
+	static final String[] FACES = {"LeftSlice","RightSlice","TopSlice","BottomSlice","FrontSlice","BackSlice"};
+
+	int width,height,depth,sliceSize;
+	float pixWidth,pixHeight,pixDepth;
+	int face;		//the index of the seed face in FACES, -1 for seed points
+	boolean sparse;
+	double maxDistance;		//0 for no limit
+	int targetFace = -1;
+	int[] targetCols,targetRows,targetSlices;
+	long[] targets;			//the mapped target voxels, sorted
+	int targetsLeft;
+	boolean recordParents;
+	GeodesicParentMap parentMap;
+	double[] distanceRange;		//{min,max} of the last distance map, min is -2 or -1 if there are such voxels
+	double[] tortuosityRange;	//the same for the last tortuosity map
+	long[] histogram;			//[bin] the finished voxels with distances in [bin*histWidth,(bin+1)*histWidth)
+	int histBins;
+	double histWidth;
+	double maxFinished;		//the largest distance finished
+	boolean recordLabels;
+	short[][] labels;		//[slice][voxel] 1 + the index of the nearest seed point, 1 for a seed face, 0 if not reached
+	Object[] tortArr;		//the float[] slices the tortuosity is written to, null for none
+	int[][] seedOf;			//[slice][voxel] the index of the seed point a voxel was reached from, for the tortuosity
+	int[] seedCols,seedRows,seedSlices;
+	double tortMin,tortMax;
+	BrickIndex bricks;
+	int brickMask = -1;		//brick size - 1 while the dense passes skip EMPTY bricks, else -1
+
+	//*******************************************************************************
+
+	/**@param sparse true to search a compact graph of the mapped voxels, see the class notes on its cost*/
+	public void setSparse(boolean sparse)
+	{
+		this.sparse = sparse;
+	}
+
+	//*******************************************************************************
+
+	/**@param bricks A brick index of the stack to be mapped, used with "Map !0", or null*/
+	public void setBrickIndex(BrickIndex bricks)
+	{
+		this.bricks = bricks;
+	}
+
+	//*******************************************************************************
+
+	/**@param recordParents true to keep the parent of each voxel, see getParentMap*/
+	public void setRecordParents(boolean recordParents)
+	{
+		this.recordParents = recordParents;
+	}
+
+	/**@return The parents recorded by the last gdt3D, null if they were not recorded*/
+	public GeodesicParentMap getParentMap()
+	{
+		return parentMap;
+	}
+
+	//*******************************************************************************
+
+	/**@param recordLabels true to label each voxel with its nearest seed, see getLabels*/
+	public void setRecordLabels(boolean recordLabels)
+	{
+		this.recordLabels = recordLabels;
+	}
+
+	/**@return The short[] slices of the seed labels from the last gdt3D, 1 + the index of the nearest seed point
+	 * or 1 for a seed face, 0 for voxels that were not reached, null if they were not recorded
+	 */
+	public Object[] getLabels()
+	{
+		return labels;
+	}
+
+	//*******************************************************************************
+
+	/**@return {min,max} of the last distance map, min is -2 if there are unmapped voxels, -1 if there are unreached voxels*/
+	public double[] getDistanceRange()
+	{
+		return distanceRange;
+	}
+
+	/**@return {min,max} of the last tortuosity map, as for getDistanceRange, null if none was made*/
+	public double[] getTortuosityRange()
+	{
+		return tortuosityRange;
+	}
+
+	/**@return [bin] The number of reached voxels of the last distance map in each bin, see getHistogramBinWidth*/
+	public long[] getDistanceHistogram()
+	{
+		return Arrays.copyOf(histogram, histBins);
+	}
+
+	/**@return The width of the distance histogram bins, the shortest step*/
+	public double getHistogramBinWidth()
+	{
+		return histWidth;
+	}
+
+	//*******************************************************************************
+
+	/**@param maxDistance The geodesic distance the search stops at, 0 for no limit*/
+	public void setMaxDistance(double maxDistance)
+	{
+		this.maxDistance = Math.max(0, maxDistance);
+	}
+
+	//*******************************************************************************
+
+	/**Stops the search once all of the target points that can be reached are reached
+	 * @param cols The target columns, null for no target points
+	 * @param rows The target rows
+	 * @param slices The zero based target slices
+	 */
+	public void setTargetPoints(int[] cols, int[] rows, int[] slices)
+	{
+		targetCols = cols;
+		targetRows = rows;
+		targetSlices = slices;
+	}
+
+	//*******************************************************************************
+
+	/**Stops the search at the first voxel of a face
+	 * @param faceChoice "LeftSlice","RightSlice","TopSlice","BottomSlice","FrontSlice","BackSlice", anything else for no target face
+	 */
+	public void setTargetFace(String faceChoice)
+	{
+		targetFace = Arrays.asList(FACES).indexOf(faceChoice);
+	}
+
+	//*******************************************************************************
+
+	/**Replaces a stack with its geodesic distance map
+	 * @param oImageArr The float[] slices of a binary image
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param pixWidth The voxel width
+	 * @param pixHeight The voxel height
+	 * @param pixDepth The voxel depth
+	 * @param mapChoice "Map 0" maps the zero voxels, any other choice the nonzero voxels
+	 * @param seedChoice "LeftSlice","RightSlice","TopSlice","BottomSlice","FrontSlice","BackSlice" or "Point(s)"
+	 * @param colPts The seed point columns for "Point(s)"
+	 * @param rowPts The seed point rows for "Point(s)"
+	 * @param slicePts The zero based seed point slices for "Point(s)"
+	 * @throws IllegalArgumentException if labels are recorded for more than 65535 seed points
+	 */
+	public void gdt3D(Object[] oImageArr, int width, int height, int depth, float pixWidth, float pixHeight, float pixDepth,
+			String mapChoice, String seedChoice, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		search(oImageArr, null, width, height, depth, pixWidth, pixHeight, pixDepth, mapChoice, seedChoice, colPts, rowPts, slicePts);
+	}
+
+	//*******************************************************************************
+
+	/**Replaces a stack with its tortuosity map, the arguments are those of gdt3D*/
+	public void tort3D(Object[] oImageArr, int width, int height, int depth, float pixWidth, float pixHeight, float pixDepth,
+			String mapChoice, String seedChoice, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		search(oImageArr, oImageArr, width, height, depth, pixWidth, pixHeight, pixDepth, mapChoice, seedChoice, colPts, rowPts, slicePts);
+	}
+
+	//*******************************************************************************
+
+	/**Replaces a stack with its geodesic distance map and writes its tortuosity map to a second stack
+	 * from the same search, the other arguments are those of gdt3D
+	 * @param oTortArr The float[] slices for the tortuosity map, the same size as oImageArr
+	 */
+	public void gdtTort3D(Object[] oImageArr, Object[] oTortArr, int width, int height, int depth, float pixWidth, float pixHeight, float pixDepth,
+			String mapChoice, String seedChoice, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		search(oImageArr, oTortArr, width, height, depth, pixWidth, pixHeight, pixDepth, mapChoice, seedChoice, colPts, rowPts, slicePts);
+	}
+
+	//*******************************************************************************
+
+	/**The distance search, writing the tortuosity to oTortArr if it is not null, oTortArr may be oImageArr*/
+	private void search(Object[] oImageArr, Object[] oTortArr, int width, int height, int depth, float pixWidth, float pixHeight, float pixDepth,
+			String mapChoice, String seedChoice, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.pixWidth = pixWidth;
+		this.pixHeight = pixHeight;
+		this.pixDepth = pixDepth;
+		sliceSize = width*height;
+		face = Arrays.asList(FACES).indexOf(seedChoice);
+		tortuosityRange = null;
+		tortArr = oTortArr;
+		seedCols = colPts;
+		seedRows = rowPts;
+		seedSlices = slicePts;
+		tortMin = Double.MAX_VALUE;
+		tortMax = 0;
+		parentMap = recordParents ? new GeodesicParentMap(width, height, depth) : null;
+		labels = null;
+		if(recordLabels && face < 0 && colPts != null && colPts.length > 65535)
+		{
+			throw new IllegalArgumentException("Too many seed points to label");
+		}
+		propagate(oImageArr, mapChoice, colPts, rowPts, slicePts);
+		seedOf = null;
+		if(tortArr != null)
+		{
+			double min = tortMin;
+			if(distanceRange[0] < 0 || min == Double.MAX_VALUE) min = Math.min(distanceRange[0], 0);
+			tortuosityRange = new double[] {min, tortMax};
+		}
+		tortArr = null;
+	}
+
+	//*******************************************************************************
+
+	//*******************************************************************************
+
+	private void propagate(Object[] oImageArr, String mapChoice, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		//the step lengths, the bucket width is the shortest step
+		int[][] offsets = FloodConnectivity.offsets(26);
+		int[] dx = offsets[0], dy = offsets[1], dz = offsets[2];
+		double[] cost = new double[dx.length];
+		double minCost = Double.MAX_VALUE, maxCost = 0;
+		for(int n = 0; n < dx.length; n++)
+		{
+			double sx = dx[n]*pixWidth, sy = dy[n]*pixHeight, sz = dz[n]*pixDepth;
+			cost[n] = Math.sqrt(sx*sx + sy*sy + sz*sz);
+			minCost = Math.min(minCost, cost[n]);
+			maxCost = Math.max(maxCost, cost[n]);
+		}
+		double delta = minCost;
+		int nBuckets = (int)(maxCost/delta) + 2;
+		histogram = new long[64];
+		histBins = 0;
+		histWidth = delta;
+		maxFinished = 0;
+		boolean mapZero = mapChoice.equals("Map 0");
+		brickMask = bricks != null && bricks.source == oImageArr && !mapZero ? bricks.getBrickSize() - 1 : -1;
+		if(sparse)
+		{
+			propagateGraph(oImageArr, mapZero, cost, delta, nBuckets, colPts, rowPts, slicePts);
+			return;
+		}
+		FrontierFlood.LongQueue[] buckets = new FrontierFlood.LongQueue[nBuckets];
+		for(int b = 0; b < nBuckets; b++) buckets[b] = new FrontierFlood.LongQueue();
+		if(recordLabels) labels = new short[depth][sliceSize];
+		if(tortArr != null && face < 0) seedOf = new int[depth][sliceSize];
+
+		//mapped voxels start unreached, the others are set aside
+		long mapped = 0;
+		for(int z = 0; z < depth; z++)
+		{
+			float[] slice = (float[])oImageArr[z];
+			float[] tort = tortArr != null ? (float[])tortArr[z] : null;
+			for(int y = 0; y < height; y++)
+			{
+				int row = y*width;
+				for(int x = 0; x < width; x++)
+				{
+					if(brickMask >= 0 && (x & brickMask) == 0)
+					{
+						int end = bricks.skipEmpty(x, y, z);
+						Arrays.fill(slice, row + x, row + end, NOT_MAPPED);
+						if(tort != null) Arrays.fill(tort, row + x, row + end, NOT_MAPPED);
+						if((x = end) == width) break;
+					}
+					int i = row + x;
+					if((slice[i] == 0) == mapZero)
+					{
+						slice[i] = Float.MAX_VALUE;
+						mapped++;
+					}
+					else
+					{
+						slice[i] = NOT_MAPPED;
+						if(tort != null) tort[i] = NOT_MAPPED;
+					}
+				}
+			}
+		}
+
+		//the seeds start at zero in bucket 0
+		long pending = 0;
+		if(face < 0)
+		{
+			if(colPts != null)
+			{
+				for(int p = 0; p < colPts.length; p++)
+				{
+					pending += seed(oImageArr, colPts[p], rowPts[p], slicePts[p], p + 1, buckets[0]);
+				}
+			}
+		}
+		else
+		{
+			for(int z = 0; z < depth; z++)
+			{
+				for(int y = 0; y < height; y++)
+				{
+					for(int x = 0; x < width; x++)
+					{
+						if(faceDistance(face, x, y, z) == 0) pending += seed(oImageArr, x, y, z, 1, buckets[0]);
+					}
+				}
+			}
+		}
+
+		final Object[] map = oImageArr;
+		prepareTargets(new FrontierFlood.VoxelTest()
+		{
+			@Override
+			public boolean floodable(int z, int i)
+			{
+				return ((float[])map[z])[i] != NOT_MAPPED;
+			}
+		});
+
+		//empty the buckets in order
+		long[][] done = new long[depth][(sliceSize + 63)/64];
+		long finished = 0;
+		boolean stop = false;
+		IJ.showStatus("Geodesic distance");
+		for(long k = 0; pending > 0 && !stop && !pastMaxDistance(k, delta); k++)
+		{
+			FrontierFlood.LongQueue bucket = buckets[(int)(k % nBuckets)];
+			for(int q = 0; q < bucket.size; q++)
+			{
+				long v = bucket.data[q];
+				int z = (int)(v / sliceSize);
+				int i = (int)(v % sliceSize);
+				long[] zDone = done[z];
+				if((zDone[i >>> 6] & (1L << i)) != 0) continue;
+				double dist = ((float[])oImageArr[z])[i];
+				if(maxDistance > 0 && dist > maxDistance) continue;
+				zDone[i >>> 6] |= 1L << i;
+				count(dist);
+				if((++finished & 0xFFFFF) == 0) IJ.showProgress((double)finished/mapped);
+				int x = i % width;
+				int y = i / width;
+				if(tortArr != null) ((float[])tortArr[z])[i] = tortuosity(dist, x, y, z, seedOf != null ? seedOf[z][i] : 0);
+				if(reachedTargets(v))
+				{
+					stop = true;
+					break;
+				}
+
+				for(int n = 0; n < dx.length; n++)
+				{
+					int nx = x + dx[n];
+					int ny = y + dy[n];
+					int nz = z + dz[n];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+					int j = ny*width + nx;
+					//a finished voxel may hold its tortuosity
+					if((done[nz][j >>> 6] & (1L << j)) != 0) continue;
+					float[] nSlice = (float[])oImageArr[nz];
+					float nd = (float)(dist + cost[n]);
+					if(nd >= nSlice[j]) continue;
+					nSlice[j] = nd;
+					if(parentMap != null) parentMap.setReachedBy(nz, j, n);
+					if(labels != null) labels[nz][j] = labels[z][i];
+					if(seedOf != null) seedOf[nz][j] = seedOf[z][i];
+					//a step is at least delta, the max guards against rounding
+					long b = Math.max(k + 1, (long)(nd/delta));
+					buckets[(int)(b % nBuckets)].add((long)nz*sliceSize + j);
+					pending++;
+				}
+			}
+			pending -= bucket.size;
+			bucket.size = 0;
+		}
+
+		//mapped voxels the search did not finish
+		for(int z = 0; z < depth; z++)
+		{
+			float[] slice = (float[])oImageArr[z];
+			float[] tort = tortArr != null ? (float[])tortArr[z] : null;
+			long[] zDone = done[z];
+			for(int y = 0; y < height; y++)
+			{
+				for(int x = 0; x < width; x++)
+				{
+					if(brickMask >= 0 && (x & brickMask) == 0 && (x = bricks.skipEmpty(x, y, z)) == width) break;
+					int i = y*width + x;
+					if(slice[i] != NOT_MAPPED && (zDone[i >>> 6] & (1L << i)) == 0)
+					{
+						slice[i] = UNREACHED;
+						if(tort != null) tort[i] = UNREACHED;
+						if(labels != null) labels[z][i] = 0;
+					}
+				}
+			}
+		}
+		setDistanceRange(mapped, finished);
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**The bucket search over a PoreGraph of the mapped voxels*/
+	private void propagateGraph(final Object[] oImageArr, final boolean mapZero, double[] cost, double delta, int nBuckets,
+			int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		FrontierFlood.VoxelTest mapped = new FrontierFlood.VoxelTest()
+		{
+			@Override
+			public boolean floodable(int z, int i)
+			{
+				return (((float[])oImageArr[z])[i] == 0) == mapZero;
+			}
+		};
+		PoreGraph graph = new PoreGraph(width, height, depth, 26, mapped);
+		prepareTargets(mapped);
+		int nodeCount = graph.nodeCount;
+		int[] adj = graph.adj, adjStart = graph.adjStart, nodeMask = graph.mask;
+		float[] dist = new float[nodeCount];
+		Arrays.fill(dist, Float.MAX_VALUE);
+		//the labels are kept per node and only expanded to the stack for the output
+		short[] nodeLabels = recordLabels ? new short[nodeCount] : null;
+		int[] nodeSeeds = tortArr != null && face < 0 ? new int[nodeCount] : null;
+		ComponentLabeler.IntList[] buckets = new ComponentLabeler.IntList[nBuckets];
+		for(int b = 0; b < nBuckets; b++) buckets[b] = new ComponentLabeler.IntList();
+
+		//the seeds start at zero in bucket 0
+		if(face < 0)
+		{
+			if(colPts != null)
+			{
+				for(int p = 0; p < colPts.length; p++)
+				{
+					int n = graph.node(colPts[p], rowPts[p], slicePts[p]);
+					if(n < 0 || dist[n] == 0) continue;
+					dist[n] = 0;
+					if(nodeLabels != null) nodeLabels[n] = (short)(p + 1);
+					if(nodeSeeds != null) nodeSeeds[n] = p;
+					buckets[0].add(n);
+				}
+			}
+		}
+		else
+		{
+			for(int n = 0; n < nodeCount; n++)
+			{
+				long v = graph.voxel[n];
+				int i = (int)(v % sliceSize);
+				if(faceDistance(face, i % width, i / width, (int)(v / sliceSize)) != 0) continue;
+				dist[n] = 0;
+				if(nodeLabels != null) nodeLabels[n] = 1;
+				buckets[0].add(n);
+			}
+		}
+		long pending = buckets[0].size;
+
+		//empty the buckets in order
+		long[] done = new long[(nodeCount + 63)/64];
+		long finished = 0;
+		boolean stop = false;
+		IJ.showStatus("Geodesic distance");
+		for(long k = 0; pending > 0 && !stop && !pastMaxDistance(k, delta); k++)
+		{
+			ComponentLabeler.IntList bucket = buckets[(int)(k % nBuckets)];
+			for(int q = 0; q < bucket.size; q++)
+			{
+				int n = bucket.data[q];
+				if((done[n >>> 6] & (1L << n)) != 0) continue;
+				double d = dist[n];
+				if(maxDistance > 0 && d > maxDistance) continue;
+				done[n >>> 6] |= 1L << n;
+				count(d);
+				if((++finished & 0xFFFFF) == 0) IJ.showProgress((double)finished/nodeCount);
+				long v = graph.voxel[n];
+				if(reachedTargets(v))
+				{
+					stop = true;
+					break;
+				}
+
+				//the set bits of the mask are the offsets of the stored neighbors, in order
+				int bits = nodeMask[n];
+				for(int a = adjStart[n]; bits != 0; a++, bits &= bits - 1)
+				{
+					int e = Integer.numberOfTrailingZeros(bits);
+					int m = adj[a];
+					if((done[m >>> 6] & (1L << m)) != 0) continue;
+					float nd = (float)(d + cost[e]);
+					if(nd >= dist[m]) continue;
+					dist[m] = nd;
+					if(parentMap != null)
+					{
+						long w = graph.voxel[m];
+						parentMap.setReachedBy((int)(w / sliceSize), (int)(w % sliceSize), e);
+					}
+					if(nodeLabels != null) nodeLabels[m] = nodeLabels[n];
+					if(nodeSeeds != null) nodeSeeds[m] = nodeSeeds[n];
+					long b = Math.max(k + 1, (long)(nd/delta));
+					buckets[(int)(b % nBuckets)].add(m);
+					pending++;
+				}
+			}
+			pending -= bucket.size;
+			bucket.size = 0;
+		}
+
+		//write the map
+		if(nodeLabels != null) labels = new short[depth][sliceSize];
+		for(int z = 0; z < depth; z++) Arrays.fill((float[])oImageArr[z], NOT_MAPPED);
+		if(tortArr != null && tortArr != oImageArr)
+		{
+			for(int z = 0; z < depth; z++) Arrays.fill((float[])tortArr[z], NOT_MAPPED);
+		}
+		for(int n = 0; n < nodeCount; n++)
+		{
+			long v = graph.voxel[n];
+			int z = (int)(v / sliceSize);
+			int i = (int)(v % sliceSize);
+			boolean reached = (done[n >>> 6] & (1L << n)) != 0;
+			((float[])oImageArr[z])[i] = reached ? dist[n] : UNREACHED;
+			if(tortArr != null)
+			{
+				((float[])tortArr[z])[i] = reached ? tortuosity(dist[n], i % width, i / width, z, nodeSeeds != null ? nodeSeeds[n] : 0) : UNREACHED;
+			}
+			if(nodeLabels != null && reached) labels[z][i] = nodeLabels[n];
+		}
+		setDistanceRange(nodeCount, finished);
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**Adds a finished voxel to the distance histogram and range*/
+	private void count(double dist)
+	{
+		int bin = (int)(dist/histWidth);
+		if(bin >= histogram.length) histogram = Arrays.copyOf(histogram, Math.max(bin + 1, 2*histogram.length));
+		histogram[bin]++;
+		histBins = Math.max(histBins, bin + 1);
+		maxFinished = Math.max(maxFinished, dist);
+	}
+
+	/**Sets the distance range from the voxel counts and the largest distance finished*/
+	private void setDistanceRange(long mapped, long finished)
+	{
+		double min = mapped < (long)depth*sliceSize ? NOT_MAPPED : finished < mapped ? UNREACHED : 0;
+		distanceRange = new double[] {min, maxFinished};
+	}
+
+	//*******************************************************************************
+
+	/**Keeps the target points that are mapped voxels*/
+	private void prepareTargets(FrontierFlood.VoxelTest mapped)
+	{
+		targets = null;
+		targetsLeft = 0;
+		if(targetCols == null) return;
+		long[] voxels = new long[targetCols.length];
+		int n = 0;
+		for(int p = 0; p < targetCols.length; p++)
+		{
+			int x = targetCols[p], y = targetRows[p], z = targetSlices[p];
+			if(x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= depth) continue;
+			if(!mapped.floodable(z, y*width + x)) continue;
+			voxels[n++] = (long)z*sliceSize + y*width + x;
+		}
+		if(n == 0) return;
+		Arrays.sort(voxels, 0, n);
+		int distinct = 1;
+		for(int p = 1; p < n; p++)
+		{
+			if(voxels[p] != voxels[distinct-1]) voxels[distinct++] = voxels[p];
+		}
+		targets = Arrays.copyOf(voxels, distinct);
+		targetsLeft = distinct;
+	}
+
+	//*******************************************************************************
+
+	/**Called as each voxel is finished
+	 * @return true if the search can stop
+	 */
+	private boolean reachedTargets(long v)
+	{
+		if(targetFace >= 0)
+		{
+			int i = (int)(v % sliceSize);
+			if(faceDistance(targetFace, i % width, i / width, (int)(v / sliceSize)) == 0) return true;
+		}
+		if(targets != null && Arrays.binarySearch(targets, v) >= 0)
+		{
+			return --targetsLeft == 0;
+		}
+		return false;
+	}
+
+	//*******************************************************************************
+
+	/**@return true if bucket k and all later buckets are beyond the max distance,
+	 * a voxel can be put one bucket late by rounding
+	 */
+	private boolean pastMaxDistance(long k, double delta)
+	{
+		return maxDistance > 0 && (k - 1)*delta > maxDistance;
+	}
+
+	//*******************************************************************************
+
+	/**Starts a mapped voxel at zero
+	 * @param label The seed's label if labels are recorded
+	 * @return 1 if the voxel was seeded, 0 if it is out of bounds, not mapped or already seeded
+	 */
+	private int seed(Object[] oImageArr, int x, int y, int z, int label, FrontierFlood.LongQueue bucket)
+	{
+		if(x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= depth) return 0;
+		float[] slice = (float[])oImageArr[z];
+		int i = y*width + x;
+		if(slice[i] != Float.MAX_VALUE) return 0;
+		slice[i] = 0;
+		if(labels != null) labels[z][i] = (short)label;
+		if(seedOf != null) seedOf[z][i] = label - 1;
+		bucket.add((long)z*sliceSize + i);
+		return 1;
+	}
+
+	//*******************************************************************************
+
+	/**@return The straight line distance from face f of FACES to the voxel*/
+	private double faceDistance(int f, int x, int y, int z)
+	{
+		switch(f)
+		{
+		case 0: return x*pixWidth;
+		case 1: return (width - 1 - x)*pixWidth;
+		case 2: return y*pixHeight;
+		case 3: return (height - 1 - y)*pixHeight;
+		case 4: return z*pixDepth;
+		case 5: return (depth - 1 - z)*pixDepth;
+		default: return -1;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Adds a finished voxel to the tortuosity range
+	 * @param seed The index of the seed point the voxel was reached from, unused for a seed face
+	 * @return The geodesic distance over the straight line distance to the seed face or point
+	 */
+	private float tortuosity(double dist, int x, int y, int z, int seed)
+	{
+		double straight;
+		if(face >= 0) straight = faceDistance(face, x, y, z);
+		else
+		{
+			double sx = (x - seedCols[seed])*pixWidth;
+			double sy = (y - seedRows[seed])*pixHeight;
+			double sz = (z - seedSlices[seed])*pixDepth;
+			straight = Math.sqrt(sx*sx + sy*sy + sz*sz);
+		}
+		float tort = straight > 0 ? (float)(dist/straight) : 1;
+		tortMin = Math.min(tortMin, tort);
+		tortMax = Math.max(tortMax, tort);
+		return tort;
+	}
+}
@@ -62,6 +62,7 @@ public class Draw_Overlapping_Spheres implements PlugInFilter {
 			return;
 		}
 		int pixcount = myES.DrawRandomSpheres(data,imgWidth,imgHeight,imgDepth, rsp);
+		ImageCaches.invalidate(imp);
 		IJ.showStatus("Voxels filled="+pixcount);		
 	}
 }
@@ -63,6 +63,7 @@ public class Draw_Sphere implements PlugInFilter {
 		Object[] data = stack.getImageArray();
 		
 		int pixcount = myES.DrawSphere(data, imgWidth, imgHeight, imgDepth,sp);
+		ImageCaches.invalidate(imp);
 		IJ.showStatus("Voxels filled="+pixcount);		
 	}
 }
@@ -33,6 +33,7 @@ public class Exact_Euclidean implements PlugInFilter
 		public String floodChoice;
 		public String destChoice;
 		public boolean useSize;
+		public boolean parallel;
 	}
 
 	//*********************************************************************************************
@@ -53,7 +54,6 @@ public class Exact_Euclidean implements PlugInFilter
 		int width = imp.getWidth();
 		int height = imp.getHeight();
 		int depth = inStack.getSize();
-		int i;
 		
 		float pixWidth=1,pixHeight=1,pixDepth=1;
 	
@@ -82,7 +82,7 @@ public class Exact_Euclidean implements PlugInFilter
 					imgConvert = new ImageConverter(myImp);				
 					ImageConverter.setDoScaling(false);			
 					imgConvert.convertToGray32();
-					myEDM.edm3D(myImp.getStack().getImageArray(), width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, true);
+					edm3D(dp, myImp.getStack().getImageArray(), width, height, depth, pixWidth, pixHeight, pixDepth);
 					myImp.setTitle(title + "_3D");
 					myImp.show();
 					break;
@@ -91,7 +91,8 @@ public class Exact_Euclidean implements PlugInFilter
 					imgConvert = new ImageConverter(imp);				
 					ImageConverter.setDoScaling(false);			
 					imgConvert.convertToGray32();					
-					myEDM.edm3D(imp.getStack().getImageArray(), width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, true);
+					edm3D(dp, imp.getStack().getImageArray(), width, height, depth, pixWidth, pixHeight, pixDepth);
+					ImageCaches.invalidate(imp);
 					imp.setTitle(title + "_3D");
 					imp.show();
 					break;
@@ -103,10 +104,7 @@ public class Exact_Euclidean implements PlugInFilter
 					imgConvert.convertToGray32();
 
 					IJ.showStatus("Run 2D EDM " + dp.destChoice + " " + dp.floodChoice);		
-					for(i=1;i<=myImp.getNSlices();i++)
-					{
-						myEDM.edm2D(myImp.getStack().getPixels(i), width, height, pixWidth, pixHeight, dp.floodChoice);
-					}					
+					edm2DAllSlices(dp, myImp.getStack(), width, height, pixWidth, pixHeight);
 					myImp.setTitle(title + "_2D");
 					myImp.show();
 					break;
@@ -117,10 +115,8 @@ public class Exact_Euclidean implements PlugInFilter
 					imgConvert.convertToGray32();
 
 					IJ.showStatus("Run 2D EDM " + dp.destChoice + " " + dp.floodChoice);		
-					for(i=1;i<=imp.getNSlices();i++)
-					{
-						myEDM.edm2D(imp.getStack().getPixels(i), width, height, pixWidth, pixHeight, dp.floodChoice);
-					}
+					edm2DAllSlices(dp, imp.getStack(), width, height, pixWidth, pixHeight);
+					ImageCaches.invalidate(imp);
 					imp.setTitle(title + "_2D");
 					imp.show();
 					break;
@@ -145,6 +141,61 @@ public class Exact_Euclidean implements PlugInFilter
 	}
 
 
+	//*********************************************************************************************
+
+	/**Runs the 3D EDM on all processors or with the library's single threaded map*/
+	private void edm3D(DialogParams dp, Object[] oImageArr, int width, int height, int depth,
+			float pixWidth, float pixHeight, float pixDepth)
+	{
+		if(dp.parallel)
+		{
+			int nThreads = Runtime.getRuntime().availableProcessors();
+			ParallelEuclideanMap parEDM = new ParallelEuclideanMap(nThreads);
+			//the map replaces the stack, so its index is not kept on the image
+			if(dp.floodChoice.equals("Map !0")) parEDM.setBrickIndex(new BrickIndex(oImageArr, width, height, depth, 8, nThreads));
+			parEDM.edm3D(oImageArr, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice);
+		}
+		else
+		{
+			myEDM.edm3D(oImageArr, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, true);
+		}
+	}
+
+	//*********************************************************************************************
+
+	/**Runs the 2D EDM on every slice, several slices at once if asked*/
+	private void edm2DAllSlices(final DialogParams dp, final ImageStack stack, final int width, final int height,
+			final float pixWidth, final float pixHeight)
+	{
+		if(dp.parallel)
+		{
+			//each thread has its own map, this assumes the library instances share no state
+			final ThreadLocal<ExactEuclideanMap> sliceEDM = new ThreadLocal<ExactEuclideanMap>()
+			{
+				@Override
+				protected ExactEuclideanMap initialValue()
+				{
+					return new ExactEuclideanMap();
+				}
+			};
+			SliceParallel.forEach(stack.getSize(), Runtime.getRuntime().availableProcessors(), new SliceParallel.SliceTask()
+			{
+				@Override
+				public void run(int n)
+				{
+					sliceEDM.get().edm2D(stack.getPixels(n+1), width, height, pixWidth, pixHeight, dp.floodChoice);
+				}
+			});
+		}
+		else
+		{
+			for(int i=1;i<=stack.getSize();i++)
+			{
+				myEDM.edm2D(stack.getPixels(i), width, height, pixWidth, pixHeight, dp.floodChoice);
+			}
+		}
+	}
+
 	//*********************************************************************************************
 
 	private DialogParams DoMyDialog() {
@@ -167,6 +218,7 @@ public class Exact_Euclidean implements PlugInFilter
 		gd.addRadioButtonGroup("Value to process", floodChoices, 1, 2, floodChoices[0]);
 		gd.addChoice("Output",destChoices,destChoices[0]);
 		gd.addCheckbox("Use Pixel Sizes", false);
+		gd.addCheckbox("Use all processors", false);
 		gd.addMessage("Notes:\nIn-place calculation converts the binary image to 32-Bit.",myFont,Color.BLACK);
 		gd.addHelp("https://lazzyizzi.github.io/ExactEuclidean.html");
 		gd.showDialog();
@@ -176,6 +228,7 @@ public class Exact_Euclidean implements PlugInFilter
 		dp.floodChoice = gd.getNextRadioButton();
 		dp.destChoice = gd.getNextChoice();
 		dp.useSize = gd.getNextBoolean();
+		dp.parallel = gd.getNextBoolean();
 
 		return dp;
 	}
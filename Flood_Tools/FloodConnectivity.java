@@ -0,0 +1,36 @@
+package Flood_Tools;
+
+import java.util.Arrays;
+
+/**
+ * Neighbor offsets for the 6, 18 and 26 connected floods.
+ */
+class FloodConnectivity
+{
+	/**@param neighbors 6 face, 18 face and edge, or 26 face, edge and corner neighbors
+	 * @return {dx[],dy[],dz[]} the offsets of the neighbors
+	 */
+	static int[][] offsets(int neighbors)
+	{
+		int n = 0;
+		int[][] d = new int[3][26];
+		for(int k = -1; k <= 1; k++)
+		{
+			for(int j = -1; j <= 1; j++)
+			{
+				for(int i = -1; i <= 1; i++)
+				{
+					int taxi = Math.abs(i) + Math.abs(j) + Math.abs(k);
+					if(taxi == 0) continue;
+					if(neighbors == 6 && taxi > 1) continue;
+					if(neighbors == 18 && taxi > 2) continue;
+					d[0][n] = i;
+					d[1][n] = j;
+					d[2][n] = k;
+					n++;
+				}
+			}
+		}
+		return new int[][] {Arrays.copyOf(d[0], n), Arrays.copyOf(d[1], n), Arrays.copyOf(d[2], n)};
+	}
+}
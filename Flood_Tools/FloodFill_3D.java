@@ -2,6 +2,7 @@ package Flood_Tools;
 
 import java.awt.Polygon;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import ij.IJ;
@@ -29,9 +30,23 @@ public class FloodFill_3D implements PlugInFilter {
 		double floodMax;
 		double fillVal;
 		boolean showVoxCnt;
+		boolean parallel;
+		boolean useLabels;
+		boolean keepLabels;
+		boolean showSizes;
+	}
+
+	//the component labels of the last labeled stack may be kept as an image property,
+	//they are dropped with the other image caches when the stack is changed
+	static final String LABELS_PROPERTY = "FloodFill_3D.ComponentLabels";
+
+	static
+	{
+		ImageCaches.register(LABELS_PROPERTY);
 	}
 
 	ImagePlus imp;
+	ComponentLabeler labeler;	//the labels used by the last label flood
 
 	@Override
 	public int setup(String arg, ImagePlus imp) {
@@ -70,7 +85,7 @@ public class FloodFill_3D implements PlugInFilter {
 			{
 				seeds.add(new PointDesc(p.xpoints[i],p.ypoints[i],pRoi.getPointPosition(i)-1));
 			}
-			voxelsFlooded = floodFill.grayFloodFill3D(oImageArr, imgWidth, imgHeight, imgDepth,  dp.neighbors,  dp.floodMin,  dp.floodMax, dp.fillVal, seeds);		
+			voxelsFlooded = floodSeeds(floodFill, oImageArr, imgWidth, imgHeight, imgDepth, dp, seeds);
 			break;
 		case Roi.FREELINE:
 			int slice = imp.getSlice();
@@ -79,15 +94,19 @@ public class FloodFill_3D implements PlugInFilter {
 			{
 				seeds.add(new PointDesc(p.xpoints[i],p.ypoints[i],slice));
 			}
-			voxelsFlooded = floodFill.grayFloodFill3D(oImageArr, imgWidth, imgHeight, imgDepth,  dp.neighbors,  dp.floodMin,  dp.floodMax, dp.fillVal, seeds);
+			voxelsFlooded = floodSeeds(floodFill, oImageArr, imgWidth, imgHeight, imgDepth, dp, seeds);
 			break;
 		default:
 			IJ.error("FloodFill_Test", "Please use a Point or Freeline roi tool to make a selection");
 			break;
 		}
 
+		//the stack was flooded in place, only labels that were updated with it are kept
+		ImageCaches.invalidate(imp);
 		imp.updateAndDraw();
 		IJ.run(imp, "Enhance Contrast", "saturated=0.35");
+		if(dp.keepLabels && labeler != null) imp.setProperty(LABELS_PROPERTY, labeler);
+		labeler = null;
 		
 		if(dp.showVoxCnt)
 		{
@@ -106,6 +125,118 @@ public class FloodFill_3D implements PlugInFilter {
 
 	//***********************************************************************************************
 
+	private int floodSeeds(FloodFill floodFill, Object[] oImageArr, int width, int height, int depth, DialogParams dp, List<PointDesc> seeds)
+	{
+		if(dp.useLabels || dp.showSizes) return labelFloodFill3D(oImageArr, width, height, depth, dp, seeds);
+		if(dp.parallel) return parallelFloodFill3D(oImageArr, width, height, depth, dp, seeds);
+		return floodFill.grayFloodFill3D(oImageArr, width, height, depth,  dp.neighbors,  dp.floodMin,  dp.floodMax, dp.fillVal, seeds);
+	}
+
+	//***********************************************************************************************
+
+	/**Labels every component between floodMin and floodMax once and fills the components
+	 * of the seeds.  If asked the labels are kept with the image, 4 bytes a voxel, so later
+	 * floods with the same settings only look up their seeds' labels.  The filled components
+	 * are removed from the labels as their voxels no longer lie between floodMin and floodMax.
+	 * @return The number of flooded voxels
+	 */
+	private int labelFloodFill3D(Object[] oImageArr, int width, int height, int depth, DialogParams dp, List<PointDesc> seeds)
+	{
+		Object cached = imp.getProperty(LABELS_PROPERTY);
+		if(cached instanceof ComponentLabeler && ((ComponentLabeler)cached).matches(oImageArr, dp.neighbors, dp.floodMin, dp.floodMax))
+		{
+			labeler = (ComponentLabeler)cached;
+		}
+		else
+		{
+			labeler = new ComponentLabeler();
+			if(dp.floodMin > 0 || dp.floodMax < 0) labeler.setBrickIndex(BrickIndex.get(imp, 8));
+			labeler.label(oImageArr, width, height, depth, dp.neighbors, dp.floodMin, dp.floodMax,
+					dp.parallel ? Runtime.getRuntime().availableProcessors() : 1);
+		}
+
+		if(dp.showSizes) showComponentSizes(labeler);
+
+		boolean[] chosen = new boolean[labeler.getComponentCount()+1];
+		for(PointDesc pd : seeds)
+		{
+			chosen[labeler.getLabel(pd.x, pd.y, pd.z)] = true;
+		}
+		chosen[0] = false;
+		return (int)labeler.fill(oImageArr, chosen, dp.fillVal);
+	}
+
+	//***********************************************************************************************
+
+	private void showComponentSizes(ComponentLabeler labeler)
+	{
+		long[] sizes = labeler.getComponentSizes();
+		ResultsTable rt = new ResultsTable();
+		for(int label = 1; label < sizes.length; label++)
+		{
+			if(sizes[label] == 0) continue;
+			rt.incrementCounter();
+			rt.addValue("Label", label);
+			rt.addValue("Voxel Count", sizes[label]);
+		}
+		rt.show("Component Sizes " + imp.getTitle());
+	}
+
+	//***********************************************************************************************
+
+	/**Floods the voxels between floodMin and floodMax connected to the seeds on all processors
+	 * and sets them to the fill value
+	 * @return The number of flooded voxels
+	 */
+	private int parallelFloodFill3D(final Object[] oImageArr, int width, int height, int depth, DialogParams dp, List<PointDesc> seeds)
+	{
+		final double floodMin = dp.floodMin;
+		final double floodMax = dp.floodMax;
+		int sliceSize = width*height;
+		long[] seedIndex = new long[seeds.size()];
+		int nSeeds = 0;
+		for(PointDesc pd : seeds)
+		{
+			if(pd.x < 0 || pd.x >= width || pd.y < 0 || pd.y >= height || pd.z < 0 || pd.z >= depth) continue;
+			seedIndex[nSeeds++] = (long)pd.z*sliceSize + pd.y*width + pd.x;
+		}
+
+		FrontierFlood flood = new FrontierFlood(width, height, depth, dp.neighbors, Runtime.getRuntime().availableProcessors());
+		long count = flood.flood(Arrays.copyOf(seedIndex, nSeeds), new FrontierFlood.VoxelTest()
+		{
+			@Override
+			public boolean floodable(int z, int i)
+			{
+				double val = getValue(oImageArr[z], i);
+				return val >= floodMin && val <= floodMax;
+			}
+		});
+
+		for(int z = 0; z < depth; z++)
+		{
+			Object slice = oImageArr[z];
+			for(int i = 0; i < sliceSize; i++)
+			{
+				if(!flood.isFlooded(z, i)) continue;
+				if(slice instanceof byte[]) ((byte[])slice)[i] = (byte)dp.fillVal;
+				else if(slice instanceof short[]) ((short[])slice)[i] = (short)dp.fillVal;
+				else ((float[])slice)[i] = (float)dp.fillVal;
+			}
+		}
+		return (int)count;
+	}
+
+	//***********************************************************************************************
+
+	private static double getValue(Object slice, int i)
+	{
+		if(slice instanceof byte[]) return ((byte[])slice)[i] & 0xff;
+		if(slice instanceof short[]) return ((short[])slice)[i] & 0xffff;
+		return ((float[])slice)[i];
+	}
+
+	//***********************************************************************************************
+
 	private DialogParams doMyDialog()
 	{
 		Roi roi = imp.getRoi();
@@ -141,6 +272,10 @@ public class FloodFill_3D implements PlugInFilter {
 				+ "and not lie between Flood Min and Flood Max");
 		gd.addNumericField("Flood Fill Voxel value", 255);
 		gd.addCheckbox("Show Flooded Count", true);
+		gd.addCheckbox("Parallel flood", false);
+		gd.addCheckbox("Use component labels", false);
+		gd.addCheckbox("Keep the labels for later floods (4 bytes/voxel)", false);
+		gd.addCheckbox("Show component sizes", false);
 		gd.addHelp("https://lazzyizzi.github.io/FloodFill.html");
 
 		gd.showDialog();
@@ -152,6 +287,10 @@ public class FloodFill_3D implements PlugInFilter {
 		dp.floodMax = gd.getNextNumber();
 		dp.fillVal = gd.getNextNumber();
 		dp.showVoxCnt = gd.getNextBoolean();
+		dp.parallel = gd.getNextBoolean();
+		dp.useLabels = gd.getNextBoolean();
+		dp.keepLabels = gd.getNextBoolean();
+		dp.showSizes = gd.getNextBoolean();
 
 		return dp;
 	}
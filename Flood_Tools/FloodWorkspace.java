@@ -0,0 +1,70 @@
+package Flood_Tools;
+
+/*
+ * A reusable scratch copy of a stack for repeated in-place floods.
+ *
+ * The flood functions overwrite their input, so scans used to duplicate the
+ * pristine hybrid map before every flood.  A workspace allocates the scratch copy
+ * once and restores it from the pristine map with a System.arraycopy per slice,
+ * so a scan holds two volumes however many floods it runs and nothing is left
+ * for the garbage collector.
+ */
+
+import java.lang.reflect.Array;
+
+import ij.ImagePlus;
+
+public class FloodWorkspace
+{
+	ImagePlus scratchImp;
+	Object[] pristine;
+	Object[] scratch;
+	int depth;
+
+	//*******************************************************************************
+
+	/**Allocates a scratch copy of a stack
+	 * @param pristineImp The stack to restore from, it is never modified by the workspace
+	 */
+	public FloodWorkspace(ImagePlus pristineImp)
+	{
+		depth = pristineImp.getStack().getSize();
+		pristine = pristineImp.getStack().getImageArray();
+		scratchImp = pristineImp.duplicate();
+		scratch = scratchImp.getStack().getImageArray();
+	}
+
+	//*******************************************************************************
+
+	/**Restores the scratch copy from the pristine stack, dropping anything kept with it, see ImageCaches
+	 * @return The scratch stack's image array, ready to be flooded
+	 */
+	public Object[] restore()
+	{
+		for(int i = 0; i < depth; i++)
+		{
+			System.arraycopy(pristine[i], 0, scratch[i], 0, Array.getLength(pristine[i]));
+		}
+		ImageCaches.invalidate(scratchImp);
+		return scratch;
+	}
+
+	//*******************************************************************************
+
+	/**@return The scratch ImagePlus, e.g. to save or show the last flood*/
+	public ImagePlus getImagePlus()
+	{
+		return scratchImp;
+	}
+
+	//*******************************************************************************
+
+	/**Releases the scratch copy*/
+	public void close()
+	{
+		scratchImp.changes = false;
+		scratchImp.close();
+		scratch = null;
+		pristine = null;
+	}
+}
@@ -34,6 +34,7 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		public boolean	showResults;//Display statistics of the flood
 		public boolean	doEDM;
 		public boolean	doGDT;
+		public String	engine;		//"Library", "Frontier Queue" or "Parallel Frontier"
 	}
 
 	//**********************************************************************************************
@@ -52,6 +53,7 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		dp.floodVal=255;
 		dp.conChoice = "Face, Edge &Corners";
 		dp.neighbors = 26;
+		dp.engine = "Library";
 		return dp;
 	}
 
@@ -64,25 +66,12 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		//dir= dir.replace("\\","/");
 		//myURL = "file:///"+dir + "FloodFill/FloodFillHelp/FloodFill_FromTopSlice_3D.htm";
 
-		//Get the maximum voxel value and minimum non-zero voxel value
-		ImageStack stack = imp.getStack();
-		Object[] oImageArr = stack.getImageArray();
-		//dp.floodMax = Float.MIN_VALUE;
-		dp.floodMin = Float.MAX_VALUE;
-		float[] slice;
-		int d = stack.getSize();
-		for(int i = 0; i< d;i++)
-		{
-			slice= (float[]) oImageArr[i];
-			for(int k = 0; k< slice.length;k++)
-			{
-				//if(slice[k] > dp.floodMax) dp.floodMax = slice[k];
-				if(slice[k] < dp.floodMin && slice[k] > 0) dp.floodMin = slice[k];
-			}
-		}
+		//Get the minimum non-zero voxel value, kept with the image by VolumeStats
+		dp.floodMin = (float)VolumeStats.get(imp).getMinPositive();
 
 		HybridFloodFill hff = new HybridFloodFill();
 		String[] conChoices = hff.GetConnectivityChoices();
+		String[] engineChoices = {"Library","Frontier Queue","Parallel Frontier"};
 		Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);		
 		String msg = "This plugin requires a Porosity Image.\n"
 				+ "resolved open pores = 1 \n"
@@ -94,6 +83,7 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		gd.setInsets(0,0,0);
 		gd.addMessage(msg,myFont,Color.BLACK);
 		gd.addChoice("Connectivity",conChoices,dp.conChoice);
+		gd.addChoice("Flood Engine",engineChoices,dp.engine);
 		gd.addNumericField("Flood Minimum radius ", dp.floodMin, 3);
 		//gd.addCheckbox("Characterize Image", true);
 		gd.addCheckbox("Convert to hybrid map:", true);
@@ -113,6 +103,7 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		case 1: dp.neighbors = 18; break;
 		case 2: dp.neighbors = 26; break;
 		}
+		dp.engine = engineChoices[gd.getNextChoiceIndex()];
 		dp.floodMin= (float)gd.getNextNumber();
 		dp.doEDM = gd.getNextBoolean();
 		dp.doGDT = gd.getNextBoolean();
@@ -164,22 +155,33 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 
 				Object[] oImageArr = imp.getStack().getImageArray();
 				
-				FloodReport fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors,dp.doEDM,dp.doGDT);
-
-				//Re-scale the display between the min and max distance of the entire stack
-				float fmin=Float.MAX_VALUE,fmax=Float.MIN_VALUE;
-				float val;				
-				for(int k=0;k<d;k++)
+				HybridFloodReport fldRpt;
+				if(dp.engine.equals("Frontier Queue") || dp.engine.equals("Parallel Frontier"))
 				{
-					float[] fData= (float[])oImageArr[k];
-					for(int j=0;j<fData.length;j++)
+					//The frontier engines flood a hybrid map, the tortuosity is measured from the flood's mask
+					if(dp.doEDM)
 					{
-						val = fData[j];
-						if(val< fmin) fmin=val;
-						else if(val>fmax) fmax=val;								
+						//the map is converted in place, so an index kept with it is stale
+						hff.phiMapToHybridMap(oImageArr,w,h,d,pw,ph,pd);
+						ImageCaches.invalidate(imp);
 					}
-				}				
-				imp.setDisplayRange(fmin, fmax);
+					FrontierHybridFlood fhf = new FrontierHybridFlood();
+					if(dp.engine.equals("Parallel Frontier")) fhf.setThreads(Runtime.getRuntime().availableProcessors());
+					fhf.setBrickIndex(BrickIndex.get(imp, 8));
+					fldRpt = fhf.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,dp.floodMin, dp.neighbors);
+					if(dp.doGDT) fhf.measureTortuosity(fldRpt, pw, ph, pd);
+				}
+				else
+				{
+					FloodReport libRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors,dp.doEDM,dp.doGDT);
+					fldRpt = HybridFloodReport.from(libRpt);
+				}
+
+				//Re-scale the display between the min and max distance of the entire stack
+				//the stack was flooded in place, so its statistics are made again
+				ImageCaches.invalidate(imp);
+				VolumeStats stats = VolumeStats.get(imp);
+				imp.setDisplayRange(stats.getMin(), stats.getMax());
 				IJ.run("Fire");
 
 				ShowResults(dp,fldRpt,dp.floodMin);
@@ -189,7 +191,7 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 		}
 	}
 	
-	private void ShowResults(DialogParams dp, FloodReport fldRpt, double testMin)
+	private void ShowResults(DialogParams dp, HybridFloodReport fldRpt, double testMin)
 	{		
 		ResultsTable rt;
 
@@ -221,13 +223,23 @@ public class Flood_Connectivity_V3_Toggle implements PlugInFilter
 
 		rt.addValue("Flood Cycles", fldRpt.floodStatistics.totalCycles);
 		rt.addValue("Contact Cycles", fldRpt.floodStatistics.contactCycles);
-		if(dp.doGDT)
+		//the frontier engines always find the contact
+		if(dp.doGDT || !dp.engine.equals("Library"))
 		{
 			if(fldRpt.floodStatistics.contact) rt.addValue("Contact", "True");
 			else  rt.addValue("Contact", "False");
+		}
+		if(dp.doGDT)
+		{
 			rt.addValue("Mean Tort", fldRpt.floodStatistics.meanTort);
 			rt.addValue("Tort stdDev", fldRpt.floodStatistics.stdDevTort);
 		}
+		if(!Double.isNaN(fldRpt.floodStatistics.meanCycleTort))
+		{
+			//the frontier engines count cycles, not geodesic distances
+			rt.addValue("Mean Cycle Tort", fldRpt.floodStatistics.meanCycleTort);
+			rt.addValue("Cycle Tort stdDev", fldRpt.floodStatistics.stdDevCycleTort);
+		}
 		rt.show("Flood Results");
 	}
 
@@ -0,0 +1,279 @@
+package Flood_Tools;
+
+/*
+ * A level synchronous flood fill over a stack, optionally expanded by several threads.
+ *
+ * Each cycle floods the floodable neighbors of the voxels flooded by the previous
+ * cycle, the frontier.  With more than one thread the frontier is cut into chunks
+ * that are expanded at the same time, each into its own next frontier buffer.
+ * Voxels are claimed in a lock free AtomicLongArray bitset, so a voxel joins
+ * exactly one buffer, and the buffers are joined to make the next frontier.
+ *
+ * A voxel's cycle is its distance in neighbor steps from the seeds whatever order
+ * the threads claim voxels in, so the flooded set and the cycle counts are the
+ * same for any number of threads.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import ij.IJ;
+
+public class FrontierFlood
+{
+	/**Decides which voxels may be flooded*/
+	public interface VoxelTest
+	{
+		/**@param z The zero based slice index
+		 * @param i The index of the voxel in the slice
+		 * @return true if the voxel may be flooded
+		 */
+		boolean floodable(int z, int i);
+	}
+
+	//frontiers smaller than this are expanded by the calling thread
+	static final int MIN_PARALLEL = 4096;
+
+	int width,height,depth,sliceSize;
+	int[] dx,dy,dz;
+	int nThreads;
+	AtomicLongArray[] flooded;	//[slice] the flood state, one bit per voxel
+	long floodedCount;
+	int totalCycles;
+	long[] bottomCounts;		//[cycle] the voxels flooded in the bottom slice
+
+	//*******************************************************************************
+
+	/**@param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param nThreads The threads used to expand each cycle, 1 for a serial flood
+	 */
+	public FrontierFlood(int width, int height, int depth, int neighbors, int nThreads)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.nThreads = Math.max(1, nThreads);
+		sliceSize = width*height;
+		int[][] offsets = FloodConnectivity.offsets(neighbors);
+		dx = offsets[0];
+		dy = offsets[1];
+		dz = offsets[2];
+	}
+
+	//*******************************************************************************
+
+	/**Floods from the seeds
+	 * @param seeds The seed voxels as z*width*height + y*width + x, seeds that fail the test are skipped
+	 * @param test The floodable voxel test
+	 * @return The number of flooded voxels
+	 */
+	public long flood(long[] seeds, final VoxelTest test)
+	{
+		flooded = new AtomicLongArray[depth];
+		int words = (sliceSize + 63)/64;
+		for(int z = 0; z < depth; z++) flooded[z] = new AtomicLongArray(words);
+		long bottom = (long)(depth-1)*sliceSize;
+		ArrayList<Long> bottomList = new ArrayList<Long>();
+
+		//cycle 0 floods the seeds
+		LongQueue frontier = new LongQueue();
+		long bottomCnt = 0;
+		for(long v : seeds)
+		{
+			int z = (int)(v / sliceSize);
+			int i = (int)(v % sliceSize);
+			if(z < 0 || z >= depth || !test.floodable(z, i) || !claim(z, i)) continue;
+			frontier.add(v);
+			if(v >= bottom) bottomCnt++;
+		}
+		bottomList.add(bottomCnt);
+		floodedCount = frontier.size;
+		totalCycles = 0;
+
+		ForkJoinPool pool = nThreads > 1 ? new ForkJoinPool(nThreads) : null;
+		try
+		{
+			int cycle = 0;
+			while(frontier.size > 0)
+			{
+				cycle++;
+				IJ.showStatus("Flood cycle " + cycle);
+				LongQueue[] parts;
+				if(pool == null || frontier.size < MIN_PARALLEL)
+				{
+					parts = new LongQueue[] {expand(frontier, 0, frontier.size, test)};
+				}
+				else
+				{
+					parts = expandParallel(pool, frontier, test);
+				}
+
+				LongQueue next = new LongQueue();
+				bottomCnt = 0;
+				for(LongQueue part : parts)
+				{
+					next.addAll(part);
+					bottomCnt += part.bottomCount;
+				}
+				bottomList.add(bottomCnt);
+				if(next.size > 0)
+				{
+					totalCycles = cycle;
+					floodedCount += next.size;
+				}
+				frontier = next;
+			}
+		}
+		finally
+		{
+			if(pool != null) pool.shutdown();
+		}
+
+		bottomCounts = new long[totalCycles+1];
+		for(int c = 0; c <= totalCycles; c++) bottomCounts[c] = bottomList.get(c);
+		IJ.showStatus("");
+		return floodedCount;
+	}
+
+	//*******************************************************************************
+
+	/**@return The last cycle that flooded voxels*/
+	public int getTotalCycles()
+	{
+		return totalCycles;
+	}
+
+	/**@return [cycle] The number of bottom slice voxels flooded in each cycle*/
+	public long[] getBottomCounts()
+	{
+		return bottomCounts;
+	}
+
+	/**@param z The zero based slice index
+	 * @param i The index of the voxel in the slice
+	 * @return true if the voxel was flooded
+	 */
+	public boolean isFlooded(int z, int i)
+	{
+		return (flooded[z].get(i >>> 6) & (1L << i)) != 0;
+	}
+
+	//*******************************************************************************
+
+	private LongQueue[] expandParallel(ForkJoinPool pool, final LongQueue frontier, final VoxelTest test)
+	{
+		int nChunks = Math.min(nThreads*4, frontier.size/(MIN_PARALLEL/4));
+		List<Callable<LongQueue>> tasks = new ArrayList<Callable<LongQueue>>(nChunks);
+		for(int c = 0; c < nChunks; c++)
+		{
+			final int from = (int)((long)frontier.size*c/nChunks);
+			final int to = (int)((long)frontier.size*(c+1)/nChunks);
+			tasks.add(new Callable<LongQueue>()
+			{
+				@Override
+				public LongQueue call()
+				{
+					return expand(frontier, from, to, test);
+				}
+			});
+		}
+
+		LongQueue[] parts = new LongQueue[nChunks];
+		try
+		{
+			List<Future<LongQueue>> results = pool.invokeAll(tasks);
+			for(int c = 0; c < nChunks; c++) parts[c] = results.get(c).get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The flood was interrupted");
+		}
+		return parts;
+	}
+
+	//*******************************************************************************
+
+	/**Floods the unflooded floodable neighbors of frontier[from,to) into a new buffer*/
+	private LongQueue expand(LongQueue frontier, int from, int to, VoxelTest test)
+	{
+		LongQueue next = new LongQueue();
+		long bottom = (long)(depth-1)*sliceSize;
+		for(int q = from; q < to; q++)
+		{
+			long v = frontier.data[q];
+			int z = (int)(v / sliceSize);
+			int i = (int)(v % sliceSize);
+			int x = i % width;
+			int y = i / width;
+			for(int n = 0; n < dx.length; n++)
+			{
+				int nx = x + dx[n];
+				int ny = y + dy[n];
+				int nz = z + dz[n];
+				if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+				int j = ny*width + nx;
+				if((flooded[nz].get(j >>> 6) & (1L << j)) != 0) continue;
+				if(!test.floodable(nz, j) || !claim(nz, j)) continue;
+				long u = (long)nz*sliceSize + j;
+				next.add(u);
+				if(u >= bottom) next.bottomCount++;
+			}
+		}
+		return next;
+	}
+
+	//*******************************************************************************
+
+	/**Sets a voxel's flooded bit
+	 * @return true if this call set it, false if it was already set
+	 */
+	private boolean claim(int z, int i)
+	{
+		AtomicLongArray bits = flooded[z];
+		int word = i >>> 6;
+		long bit = 1L << i;
+		while(true)
+		{
+			long old = bits.get(word);
+			if((old & bit) != 0) return false;
+			if(bits.compareAndSet(word, old, old | bit)) return true;
+		}
+	}
+
+	//*******************************************************************************
+
+	/**A growable queue of voxel indices*/
+	static class LongQueue
+	{
+		long[] data = new long[1024];
+		int size;
+		long bottomCount;
+
+		void add(long v)
+		{
+			if(size == data.length) data = Arrays.copyOf(data, size*2);
+			data[size++] = v;
+		}
+
+		void addAll(LongQueue q)
+		{
+			if(size + q.size > data.length) data = Arrays.copyOf(data, Math.max(size + q.size, size*2));
+			System.arraycopy(q.data, 0, data, size, q.size);
+			size += q.size;
+		}
+	}
+}
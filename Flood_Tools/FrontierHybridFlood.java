@@ -0,0 +1,292 @@
+package Flood_Tools;
+
+/*
+ * A hybrid flood fill driven by an explicit frontier.
+ *
+ * A voxel is floodable if its hybrid map value is at least floodMin.  The flood
+ * starts from the floodable voxels of the top slice and each cycle floods the
+ * floodable neighbors of the voxels flooded by the previous cycle.  Only the
+ * frontier is visited, held as a primitive queue of voxel indices, so a flood
+ * costs one visit per flooded voxel however many cycles it takes.  The cycles are
+ * run by FrontierFlood, on several threads if asked.
+ *
+ * The cycles are counted as in HybridFloodFill: contactCycles is the cycle that
+ * first reached the bottom slice and totalCycles the cycle that flooded the last
+ * voxel.  The cycle tortuosity of each flooded bottom slice voxel is the cycle that
+ * reached it over the depth-1 cycles of a straight path.  It counts connectivity
+ * steps, not distances, so it is reported as meanCycleTort and is not comparable
+ * with the library's geodesic tortuosity.
+ *
+ * measureTortuosity fills in meanTort and stdDevTort the geodesic way.  The flooded
+ * voxels are copied to a float stack, 4 bytes a voxel, and one DialGeodesicMap
+ * search from the top slice gives each flooded bottom slice voxel its geodesic
+ * distance, which over the straight distance down the stack is its tortuosity.
+ * The search steps to all 26 neighbors whatever the flood's connectivity.
+ *
+ * hybridFloodFill floods the map in place, voxels not reached by the flood are set
+ * to zero.  floodMask leaves the map alone and keeps the flood as a one bit per
+ * voxel mask, 1/32 the size of the map, so several floods can share one read-only
+ * map and a float copy is only made when getFloodedMap is asked for one.
+ */
+
+import ij.IJ;
+
+public class FrontierHybridFlood
+{
+	int width,height,depth,sliceSize;
+	int nThreads = 1;
+	FrontierFlood flood;	//the mask of the last flood
+	BrickIndex bricks;		//solid bricks the whole map passes can step over
+	int brickMask = -1;
+
+	//*******************************************************************************
+
+	/**@param nThreads The threads used to expand each flood cycle, 1 for a serial flood*/
+	public void setThreads(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	//*******************************************************************************
+
+	/**@param bricks The map's brick index, null to visit every voxel.  Its EMPTY bricks
+	 * are skipped by the passes over the whole map.
+	 */
+	public void setBrickIndex(BrickIndex bricks)
+	{
+		this.bricks = bricks;
+		brickMask = bricks == null ? -1 : bricks.getBrickSize() - 1;
+	}
+
+	//*******************************************************************************
+
+	/**Floods a hybrid map from its top slice in place
+	 * @param oImageArr The hybrid map float[] slices, voxels the flood does not reach are set to zero
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param floodMin Voxels with values at least floodMin are floodable
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @return The flood report
+	 */
+	public HybridFloodReport hybridFloodFill(Object[] oImageArr, int width, int height, int depth,
+			double pw, double ph, double pd, float floodMin, int neighbors)
+	{
+		HybridFloodReport rpt = floodMask(oImageArr, width, height, depth, pw, ph, pd, floodMin, neighbors);
+		for(int z = 0; z < depth; z++)
+		{
+			float[] slice = (float[])oImageArr[z];
+			for(int y = 0; y < height; y++)
+			{
+				for(int x = 0; x < width; x++)
+				{
+					if(brickMask >= 0 && (x & brickMask) == 0 && (x = bricks.skipEmpty(x, y, z)) == width) break;
+					int i = y*width + x;
+					if(!flood.isFlooded(z, i)) slice[i] = 0;
+				}
+			}
+		}
+		return rpt;
+	}
+
+	//*******************************************************************************
+
+	/**Floods a hybrid map from its top slice into a one bit per voxel mask
+	 * @param oImageArr The hybrid map float[] slices, it is not modified
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param floodMin Voxels with values at least floodMin are floodable
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @return The flood report
+	 */
+	public HybridFloodReport floodMask(Object[] oImageArr, int width, int height, int depth,
+			double pw, double ph, double pd, float floodMin, int neighbors)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		sliceSize = width*height;
+
+		HybridFloodReport rpt = new HybridFloodReport();
+		rpt.floodStatistics = new HybridFloodReport.FloodStatistics();
+		IJ.showStatus("Measuring the pore space");
+		rpt.beforeFlood = measure(oImageArr, null, pw, ph, pd, floodMin);
+
+		//cycle 0 floods the top slice
+		final Object[] hybrid = oImageArr;
+		final float min = floodMin;
+		long[] seeds = new long[sliceSize];
+		for(int i = 0; i < sliceSize; i++) seeds[i] = i;
+		flood = new FrontierFlood(width, height, depth, neighbors, nThreads);
+		flood.flood(seeds, new FrontierFlood.VoxelTest()
+		{
+			@Override
+			public boolean floodable(int z, int i)
+			{
+				float val = ((float[])hybrid[z])[i];
+				return val > 0 && val >= min;
+			}
+		});
+
+		rpt.floodStatistics.totalCycles = flood.getTotalCycles();
+		long[] bottomCounts = flood.getBottomCounts();
+		double tortSum = 0, tortSum2 = 0;
+		long tortCnt = 0;
+		for(int c = 0; c < bottomCounts.length; c++)
+		{
+			if(bottomCounts[c] == 0) continue;
+			if(!rpt.floodStatistics.contact)
+			{
+				rpt.floodStatistics.contact = true;
+				rpt.floodStatistics.contactCycles = c;
+			}
+			if(depth > 1)
+			{
+				double tort = (double)c/(depth-1);
+				tortSum += tort*bottomCounts[c];
+				tortSum2 += tort*tort*bottomCounts[c];
+				tortCnt += bottomCounts[c];
+			}
+		}
+		if(tortCnt > 0)
+		{
+			double mean = tortSum/tortCnt;
+			rpt.floodStatistics.meanCycleTort = mean;
+			rpt.floodStatistics.stdDevCycleTort = Math.sqrt(Math.max(0, tortSum2/tortCnt - mean*mean));
+		}
+
+		IJ.showStatus("Measuring the flooded space");
+		rpt.afterFlood = measure(oImageArr, flood, pw, ph, pd, floodMin);
+		IJ.showStatus("");
+		return rpt;
+	}
+
+	//*******************************************************************************
+
+	/**Measures the geodesic tortuosity of the last flood from the top slice to the bottom slice
+	 * @param rpt The last flood's report, its meanTort and stdDevTort are filled in
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 */
+	public void measureTortuosity(HybridFloodReport rpt, double pw, double ph, double pd)
+	{
+		if(depth < 2 || !rpt.floodStatistics.contact) return;
+		final Object[] map = new Object[depth];
+		SliceParallel.forEach(depth, nThreads, new SliceParallel.SliceTask()
+		{
+			@Override
+			public void run(int z)
+			{
+				float[] slice = new float[sliceSize];
+				for(int i = 0; i < sliceSize; i++)
+				{
+					if(flood.isFlooded(z, i)) slice[i] = 1;
+				}
+				map[z] = slice;
+			}
+		});
+		IJ.showStatus("Measuring the tortuosity");
+		DialGeodesicMap gdt = new DialGeodesicMap();
+		gdt.gdt3D(map, width, height, depth, (float)pw, (float)ph, (float)pd, "Map !0", "FrontSlice", null, null, null);
+
+		float[] bottom = (float[])map[depth-1];
+		double straight = (depth - 1)*pd;
+		double tortSum = 0, tortSum2 = 0;
+		long tortCnt = 0;
+		for(int i = 0; i < sliceSize; i++)
+		{
+			if(bottom[i] < 0) continue;
+			double tort = bottom[i]/straight;
+			tortSum += tort;
+			tortSum2 += tort*tort;
+			tortCnt++;
+		}
+		if(tortCnt > 0)
+		{
+			double mean = tortSum/tortCnt;
+			rpt.floodStatistics.meanTort = mean;
+			rpt.floodStatistics.stdDevTort = Math.sqrt(Math.max(0, tortSum2/tortCnt - mean*mean));
+		}
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**@param z The zero based slice index
+	 * @param i The index of the voxel in the slice
+	 * @return true if the last flood reached the voxel
+	 */
+	public boolean isFlooded(int z, int i)
+	{
+		return flood.isFlooded(z, i);
+	}
+
+	//*******************************************************************************
+
+	/**Copies the voxels reached by the last flood
+	 * @param oImageArr The flooded hybrid map float[] slices
+	 * @param oOutArr The output float[] slices, null to allocate them
+	 * @return The output slices, voxels the flood did not reach are zero
+	 */
+	public Object[] getFloodedMap(Object[] oImageArr, Object[] oOutArr)
+	{
+		//new slices are already zero so EMPTY bricks can be skipped
+		boolean skip = oOutArr == null && brickMask >= 0;
+		if(oOutArr == null)
+		{
+			oOutArr = new Object[depth];
+			for(int z = 0; z < depth; z++) oOutArr[z] = new float[sliceSize];
+		}
+		for(int z = 0; z < depth; z++)
+		{
+			float[] slice = (float[])oImageArr[z];
+			float[] out = (float[])oOutArr[z];
+			for(int y = 0; y < height; y++)
+			{
+				for(int x = 0; x < width; x++)
+				{
+					if(skip && (x & brickMask) == 0 && (x = bricks.skipEmpty(x, y, z)) == width) break;
+					int i = y*width + x;
+					out[i] = flood.isFlooded(z, i) ? slice[i] : 0;
+				}
+			}
+		}
+		return oOutArr;
+	}
+
+	//*******************************************************************************
+
+	/**Measures the pore space of the whole map or of the flooded voxels*/
+	private HybridFloodReport.PorosityReport measure(Object[] oImageArr, FrontierFlood flooded,
+			double pw, double ph, double pd, float floodMin)
+	{
+		HybridFloodReport.PorosityTally tally = new HybridFloodReport.PorosityTally(floodMin);
+		//solid voxels are only floodable when floodMin <= 0
+		int mask = floodMin > 0 ? brickMask : -1;
+		for(int z = 0; z < depth; z++)
+		{
+			float[] slice = (float[])oImageArr[z];
+			for(int y = 0; y < height; y++)
+			{
+				for(int x = 0; x < width; x++)
+				{
+					if(mask >= 0 && (x & mask) == 0 && (x = bricks.skipEmpty(x, y, z)) == width) break;
+					int i = y*width + x;
+					if(flooded != null && !flooded.isFlooded(z, i)) continue;
+					tally.add(slice[i]);
+				}
+			}
+			IJ.showProgress(z, depth);
+		}
+		IJ.showProgress(1.0);
+		return tally.finish(pw*ph*pd, sliceSize*(double)depth);
+	}
+}
@@ -0,0 +1,269 @@
+package Flood_Tools;
+
+/*
+ * The parent of every voxel of a geodesic distance map, one byte per voxel.
+ *
+ * Each mapped voxel stores the neighbor offset to the voxel it was reached from,
+ * so the shortest path from any voxel back to the seeds is found by following
+ * the offsets, with no search of the distance map.  The map is recorded by
+ * DialGeodesicMap as it propagates, or made in one parallel pass over an existing
+ * distance map by giving each voxel the neighbor that best explains its
+ * distance.  It is kept as an image property so later path requests on the same
+ * distance image reuse it, and is dropped with the other ImageCaches when the image
+ * is changed.  A map made from a distance map uses the step lengths the transform
+ * used, which Geodesic_Transform records in the GeodesicUnits image property.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.measure.Calibration;
+
+public class GeodesicParentMap
+{
+	static final String PROPERTY = "Flood_Tools.GeodesicParents";
+	static final String UNITS_PROP = "GeodesicUnits";	//"pixel" or the calibration unit of the transform
+	static final byte NONE = -1;
+	static final int BAND = 64;		//rows per task when a map is made from a distance map
+
+	static
+	{
+		ImageCaches.register(PROPERTY);
+	}
+
+	int width,height,depth,sliceSize;
+	int[] dx,dy,dz;
+	byte[] opposite;		//[k] the index of the offset -offset[k]
+	byte[][] parents;		//[slice][voxel] the offset to the parent, NONE for seeds and voxels that are not mapped
+	Object[] source;		//the distance map's image array
+
+	//*******************************************************************************
+
+	/**An empty map, every voxel without a parent
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 */
+	public GeodesicParentMap(int width, int height, int depth)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		sliceSize = width*height;
+		int[][] offsets = FloodConnectivity.offsets(26);
+		dx = offsets[0];
+		dy = offsets[1];
+		dz = offsets[2];
+		opposite = new byte[dx.length];
+		for(int k = 0; k < dx.length; k++)
+		{
+			for(int m = 0; m < dx.length; m++)
+			{
+				if(dx[m] == -dx[k] && dy[m] == -dy[k] && dz[m] == -dz[k]) opposite[k] = (byte)m;
+			}
+		}
+		parents = new byte[depth][sliceSize];
+		for(byte[] slice : parents) Arrays.fill(slice, NONE);
+	}
+
+	//*******************************************************************************
+
+	/**Makes the parent map of an existing geodesic distance map
+	 * @param oGdtArr The distance map float[] slices, -1 and -2 for voxels that were not reached or not mapped
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices, 1 for an 8 connected 2D map
+	 * @param pixWidth The voxel width
+	 * @param pixHeight The voxel height
+	 * @param pixDepth The voxel depth
+	 * @param nThreads The number of row bands done at once
+	 * @return The map
+	 */
+	public static GeodesicParentMap fromDistanceMap(final Object[] oGdtArr, int width, int height, int depth,
+			double pixWidth, double pixHeight, double pixDepth, int nThreads)
+	{
+		final GeodesicParentMap map = new GeodesicParentMap(width, height, depth);
+		final double[] cost = new double[map.dx.length];
+		for(int k = 0; k < cost.length; k++)
+		{
+			double sx = map.dx[k]*pixWidth, sy = map.dy[k]*pixHeight, sz = map.dz[k]*pixDepth;
+			cost[k] = Math.sqrt(sx*sx + sy*sy + sz*sz);
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int z = 0; z < depth; z++)
+		{
+			for(int y = 0; y < height; y += BAND)
+			{
+				final int slice = z, y0 = y, y1 = Math.min(height, y + BAND);
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						map.descend(oGdtArr, slice, y0, y1, cost);
+						return null;
+					}
+				});
+			}
+		}
+		IJ.showStatus("Making the parent map");
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, nThreads));
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The parent map was interrupted");
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		IJ.showStatus("");
+		map.source = oGdtArr;
+		return map;
+	}
+
+	//*******************************************************************************
+
+	/**@param imp A distance image
+	 * @return {width,height,depth} of a step, the calibrated sizes if the transform used them,
+	 * 1 if it used pixels or did not record its units
+	 */
+	public static double[] stepSizes(ImagePlus imp)
+	{
+		String units = imp.getProp(UNITS_PROP);
+		if(units == null || units.equals("pixel")) return new double[] {1, 1, 1};
+		Calibration cal = imp.getCalibration();
+		return new double[] {cal.pixelWidth, cal.pixelHeight, cal.pixelDepth};
+	}
+
+	//*******************************************************************************
+
+	/**Gives each reached voxel of rows [y0,y1) the closer neighbor with the smallest distance plus step*/
+	private void descend(Object[] oGdtArr, int z, int y0, int y1, double[] cost)
+	{
+		float[] slice = (float[])oGdtArr[z];
+		byte[] zParents = parents[z];
+		for(int y = y0; y < y1; y++)
+		{
+			for(int x = 0, i = y*width; x < width; x++, i++)
+			{
+				float d = slice[i];
+				if(d <= 0) continue;
+				double best = Double.MAX_VALUE;
+				for(int k = 0; k < dx.length; k++)
+				{
+					int nx = x + dx[k];
+					int ny = y + dy[k];
+					int nz = z + dz[k];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+					float nd = ((float[])oGdtArr[nz])[ny*width + nx];
+					if(nd < 0 || nd >= d) continue;
+					if(nd + cost[k] < best)
+					{
+						best = nd + cost[k];
+						zParents[i] = (byte)k;
+					}
+				}
+			}
+		}
+	}
+
+	//*******************************************************************************
+
+	/**Records that a voxel was reached by a step of offset k from its parent*/
+	void setReachedBy(int z, int i, int k)
+	{
+		parents[z][i] = opposite[k];
+	}
+
+	//*******************************************************************************
+
+	/**Keeps the map as a property of its distance image
+	 * @param imp The distance image
+	 */
+	public void attach(ImagePlus imp)
+	{
+		source = imp.getStack().getImageArray();
+		imp.setProperty(PROPERTY, this);
+	}
+
+	//*******************************************************************************
+
+	/**@param imp A distance image
+	 * @return The image's parent map, null if it has none or its stack has changed
+	 */
+	public static GeodesicParentMap get(ImagePlus imp)
+	{
+		Object cached = imp.getProperty(PROPERTY);
+		if(!(cached instanceof GeodesicParentMap)) return null;
+		GeodesicParentMap map = (GeodesicParentMap)cached;
+		return map.source == imp.getStack().getImageArray() ? map : null;
+	}
+
+	//*******************************************************************************
+
+	/**@param voxel The path's first voxel as z*width*height + y*width + x
+	 * @return The path's voxels from the voxel back to a seed
+	 */
+	public long[] path(long voxel)
+	{
+		int z = (int)(voxel / sliceSize);
+		int i = (int)(voxel % sliceSize);
+		int count = 1;
+		for(int k = parents[z][i]; k != NONE; count++)
+		{
+			z += dz[k];
+			i += dy[k]*width + dx[k];
+			k = parents[z][i];
+		}
+		long[] path = new long[count];
+		z = (int)(voxel / sliceSize);
+		i = (int)(voxel % sliceSize);
+		path[0] = voxel;
+		for(int n = 1; n < count; n++)
+		{
+			int k = parents[z][i];
+			z += dz[k];
+			i += dy[k]*width + dx[k];
+			path[n] = (long)z*sliceSize + i;
+		}
+		return path;
+	}
+
+	//*******************************************************************************
+
+	/**Follows the paths of many voxels at once
+	 * @param voxels The paths' first voxels as z*width*height + y*width + x
+	 * @param nThreads The number of threads
+	 * @return [voxel] The paths' voxels back to a seed
+	 */
+	public long[][] paths(final long[] voxels, int nThreads)
+	{
+		final long[][] paths = new long[voxels.length][];
+		SliceParallel.forEach(voxels.length, nThreads, new SliceParallel.SliceTask()
+		{
+			@Override
+			public void run(int n)
+			{
+				paths[n] = path(voxels[n]);
+			}
+		});
+		return paths;
+	}
+}
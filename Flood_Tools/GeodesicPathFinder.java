@@ -0,0 +1,386 @@
+package Flood_Tools;
+
+/*
+ * The shortest path between two voxels of the pore space, without a geodesic
+ * distance map.
+ *
+ * Two A* searches run toward each other, one from the start guided by the
+ * straight line distance to the goal and one from the goal guided by the
+ * straight line distance to the start, each time growing the search with the
+ * fewer open voxels.  A step costs its calibrated length, so the straight line
+ * distance never overestimates and each voxel is closed at its exact distance.
+ * Whenever a step joins the two searches the path through it is a candidate,
+ * and the search stops once either side's smallest estimate reaches the best
+ * candidate, which is then the shortest path.
+ *
+ * Only the voxels the searches touch are stored, in hash tables keyed by voxel
+ * index, so a path across a large stack costs a small fraction of a full
+ * geodesic transform and no float volume is made.
+ */
+
+import java.util.Arrays;
+
+import ij.IJ;
+
+public class GeodesicPathFinder
+{
+	static final int FORWARD = 0;
+	static final int BACKWARD = 1;
+
+	int width,height,depth,sliceSize;
+	double pixWidth,pixHeight,pixDepth;
+	int[] dx,dy,dz;
+	double[] cost;
+	double pathLength;
+
+	//the touched voxels, numbered as they are found
+	VoxelTable table;
+	long[] vox;
+	double[][] g;			//[direction][node] the best known distance from the start or the goal
+	int[][] parent;			//[direction][node] the previous node on that path
+	byte[] closed;			//[node] 1 closed forward, 2 closed backward
+	int nodeCount;
+	Heap[] open;
+
+	//*******************************************************************************
+
+	/**@param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices, 1 for an 8 connected 2D search
+	 * @param pixWidth The voxel width
+	 * @param pixHeight The voxel height
+	 * @param pixDepth The voxel depth
+	 */
+	public GeodesicPathFinder(int width, int height, int depth, double pixWidth, double pixHeight, double pixDepth)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.pixWidth = pixWidth;
+		this.pixHeight = pixHeight;
+		this.pixDepth = pixDepth;
+		sliceSize = width*height;
+
+		//26 neighbors, or the 8 in plane neighbors of a single slice
+		int[][] offsets = FloodConnectivity.offsets(26);
+		int n = 0;
+		dx = new int[26];
+		dy = new int[26];
+		dz = new int[26];
+		cost = new double[26];
+		for(int k = 0; k < offsets[0].length; k++)
+		{
+			if(depth == 1 && offsets[2][k] != 0) continue;
+			dx[n] = offsets[0][k];
+			dy[n] = offsets[1][k];
+			dz[n] = offsets[2][k];
+			double sx = dx[n]*pixWidth, sy = dy[n]*pixHeight, sz = dz[n]*pixDepth;
+			cost[n] = Math.sqrt(sx*sx + sy*sy + sz*sz);
+			n++;
+		}
+		dx = Arrays.copyOf(dx, n);
+		dy = Arrays.copyOf(dy, n);
+		dz = Arrays.copyOf(dz, n);
+		cost = Arrays.copyOf(cost, n);
+	}
+
+	//*******************************************************************************
+
+	/**A pore test for the voxels equal to a value
+	 * @param oImageArr The byte[], short[] or float[] slices
+	 * @param value The pore value
+	 * @return The test
+	 */
+	public static FrontierFlood.VoxelTest sameValue(final Object[] oImageArr, final double value)
+	{
+		return new FrontierFlood.VoxelTest()
+		{
+			@Override
+			public boolean floodable(int z, int i)
+			{
+				return getValue(oImageArr[z], i) == value;
+			}
+		};
+	}
+
+	//*******************************************************************************
+
+	/**Finds the shortest pore space path between two voxels
+	 * @param pore The pore voxel test
+	 * @param start The start voxel as z*width*height + y*width + x
+	 * @param goal The goal voxel as z*width*height + y*width + x
+	 * @return The path's voxels from start to goal, null if the goal cannot be reached
+	 */
+	public long[] findPath(FrontierFlood.VoxelTest pore, long start, long goal)
+	{
+		pathLength = 0;
+		if(!pore.floodable((int)(start / sliceSize), (int)(start % sliceSize))) return null;
+		if(!pore.floodable((int)(goal / sliceSize), (int)(goal % sliceSize))) return null;
+		if(start == goal) return new long[] {start};
+
+		table = new VoxelTable();
+		vox = new long[1024];
+		g = new double[2][1024];
+		parent = new int[2][1024];
+		closed = new byte[1024];
+		nodeCount = 0;
+		open = new Heap[] {new Heap(), new Heap()};
+		long[] ends = {goal, start};	//the target of each search
+
+		int s = node(start);
+		g[FORWARD][s] = 0;
+		open[FORWARD].push(heuristic(start, goal), s);
+		int t = node(goal);
+		g[BACKWARD][t] = 0;
+		open[BACKWARD].push(heuristic(goal, start), t);
+
+		double best = Double.MAX_VALUE;
+		int meetF = -1, meetB = -1;
+		IJ.showStatus("Searching for the path");
+		while(true)
+		{
+			double keyF = topKey(FORWARD);
+			double keyB = topKey(BACKWARD);
+			if(keyF >= best || keyB >= best) break;
+
+			int dir = open[FORWARD].size <= open[BACKWARD].size ? FORWARD : BACKWARD;
+			int other = 1 - dir;
+			int u = open[dir].pop();
+			closed[u] |= 1 << dir;
+
+			long v = vox[u];
+			int z = (int)(v / sliceSize);
+			int i = (int)(v % sliceSize);
+			int x = i % width;
+			int y = i / width;
+			double gu = g[dir][u];
+			for(int n = 0; n < dx.length; n++)
+			{
+				int nx = x + dx[n];
+				int ny = y + dy[n];
+				int nz = z + dz[n];
+				if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+				int j = ny*width + nx;
+				if(!pore.floodable(nz, j)) continue;
+				long w = (long)nz*sliceSize + j;
+				int m = node(w);
+				double gm = gu + cost[n];
+				if(gm < g[dir][m] && (closed[m] & (1 << dir)) == 0)
+				{
+					g[dir][m] = gm;
+					parent[dir][m] = u;
+					open[dir].push(gm + heuristic(w, ends[dir]), m);
+				}
+				if(g[other][m] < Double.MAX_VALUE && gu + cost[n] + g[other][m] < best)
+				{
+					best = gu + cost[n] + g[other][m];
+					meetF = dir == FORWARD ? u : m;
+					meetB = dir == FORWARD ? m : u;
+				}
+			}
+		}
+		IJ.showStatus("");
+		if(meetF < 0)
+		{
+			release();
+			return null;
+		}
+
+		//the forward half back to the start, then the backward half on to the goal
+		int half = 0, count = 0;
+		for(int p = meetF; p >= 0; p = parent[FORWARD][p]) half++;
+		for(int p = meetB; p >= 0; p = parent[BACKWARD][p]) count++;
+		long[] path = new long[half + count];
+		for(int p = meetF, q = half - 1; p >= 0; p = parent[FORWARD][p], q--) path[q] = vox[p];
+		for(int p = meetB, q = half; p >= 0; p = parent[BACKWARD][p], q++) path[q] = vox[p];
+		for(int q = 1; q < path.length; q++) pathLength += straightDistance(path[q-1], path[q]);
+		release();
+		return path;
+	}
+
+	//*******************************************************************************
+
+	/**@return The calibrated length of the last path found, 0 if there was none*/
+	public double getPathLength()
+	{
+		return pathLength;
+	}
+
+	/**@param a A voxel as z*width*height + y*width + x
+	 * @param b Another voxel
+	 * @return The calibrated straight line distance between them
+	 */
+	public double straightDistance(long a, long b)
+	{
+		int ia = (int)(a % sliceSize), ib = (int)(b % sliceSize);
+		double sx = (ib % width - ia % width)*pixWidth;
+		double sy = (ib / width - ia / width)*pixHeight;
+		double sz = (b / sliceSize - a / sliceSize)*pixDepth;
+		return Math.sqrt(sx*sx + sy*sy + sz*sz);
+	}
+
+	//*******************************************************************************
+
+	private double heuristic(long a, long b)
+	{
+		return straightDistance(a, b);
+	}
+
+	/**@return The smallest estimate of a direction's open voxels, skipping the closed ones*/
+	private double topKey(int dir)
+	{
+		Heap heap = open[dir];
+		while(heap.size > 0 && (closed[heap.node[0]] & (1 << dir)) != 0) heap.pop();
+		return heap.size > 0 ? heap.key[0] : Double.MAX_VALUE;
+	}
+
+	/**@return The voxel's node, numbering it if it is new*/
+	private int node(long v)
+	{
+		int n = table.get(v);
+		if(n >= 0) return n;
+		if(nodeCount == vox.length)
+		{
+			int size = nodeCount*2;
+			vox = Arrays.copyOf(vox, size);
+			g[FORWARD] = Arrays.copyOf(g[FORWARD], size);
+			g[BACKWARD] = Arrays.copyOf(g[BACKWARD], size);
+			parent[FORWARD] = Arrays.copyOf(parent[FORWARD], size);
+			parent[BACKWARD] = Arrays.copyOf(parent[BACKWARD], size);
+			closed = Arrays.copyOf(closed, size);
+		}
+		n = nodeCount++;
+		vox[n] = v;
+		g[FORWARD][n] = g[BACKWARD][n] = Double.MAX_VALUE;
+		parent[FORWARD][n] = parent[BACKWARD][n] = -1;
+		table.put(v, n);
+		return n;
+	}
+
+	private void release()
+	{
+		table = null;
+		vox = null;
+		g = null;
+		parent = null;
+		closed = null;
+		open = null;
+	}
+
+	//*******************************************************************************
+
+	private static double getValue(Object pixels, int i)
+	{
+		if(pixels instanceof byte[]) return ((byte[])pixels)[i] & 0xff;
+		if(pixels instanceof short[]) return ((short[])pixels)[i] & 0xffff;
+		return ((float[])pixels)[i];
+	}
+
+	//*******************************************************************************
+
+	/**An open addressing table from voxel index to node*/
+	static class VoxelTable
+	{
+		long[] keys = new long[2048];
+		int[] values = new int[2048];
+		int size;
+
+		VoxelTable()
+		{
+			Arrays.fill(keys, -1);
+		}
+
+		int get(long v)
+		{
+			int mask = keys.length - 1;
+			for(int h = hash(v) & mask; keys[h] != -1; h = (h + 1) & mask)
+			{
+				if(keys[h] == v) return values[h];
+			}
+			return -1;
+		}
+
+		void put(long v, int n)
+		{
+			if(2*(size + 1) > keys.length) grow();
+			int mask = keys.length - 1;
+			int h = hash(v) & mask;
+			while(keys[h] != -1 && keys[h] != v) h = (h + 1) & mask;
+			if(keys[h] == -1) size++;
+			keys[h] = v;
+			values[h] = n;
+		}
+
+		private void grow()
+		{
+			long[] oldKeys = keys;
+			int[] oldValues = values;
+			keys = new long[oldKeys.length*2];
+			values = new int[oldKeys.length*2];
+			Arrays.fill(keys, -1);
+			size = 0;
+			for(int h = 0; h < oldKeys.length; h++)
+			{
+				if(oldKeys[h] != -1) put(oldKeys[h], oldValues[h]);
+			}
+		}
+
+		private static int hash(long v)
+		{
+			long h = v*0x9E3779B97F4A7C15L;
+			return (int)(h ^ (h >>> 32));
+		}
+	}
+
+	//*******************************************************************************
+
+	/**A min heap of nodes, stale entries are skipped by the caller*/
+	static class Heap
+	{
+		double[] key = new double[1024];
+		int[] node = new int[1024];
+		int size;
+
+		void push(double k, int n)
+		{
+			if(size == key.length)
+			{
+				key = Arrays.copyOf(key, size*2);
+				node = Arrays.copyOf(node, size*2);
+			}
+			int c = size++;
+			while(c > 0)
+			{
+				int p = (c - 1) >>> 1;
+				if(key[p] <= k) break;
+				key[c] = key[p];
+				node[c] = node[p];
+				c = p;
+			}
+			key[c] = k;
+			node[c] = n;
+		}
+
+		int pop()
+		{
+			int top = node[0];
+			size--;
+			double k = key[size];
+			int n = node[size];
+			int p = 0;
+			while(true)
+			{
+				int c = 2*p + 1;
+				if(c >= size) break;
+				if(c + 1 < size && key[c+1] < key[c]) c++;
+				if(key[c] >= k) break;
+				key[p] = key[c];
+				node[p] = node[c];
+				p = c;
+			}
+			key[p] = k;
+			node[p] = n;
+			return top;
+		}
+	}
+}
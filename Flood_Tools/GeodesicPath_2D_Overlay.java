@@ -11,6 +11,10 @@ Note:	The paths drawn are not necessarily the same as those a human would draw.
 	only 45 and 90 degree turns to either side. 
 	Increase the iteration count (see code) to draw long paths.
 JHD 12/22/19
+Batch mode: the paths of all the points are followed at once through a parent map made from each probed slice,
+	see GeodesicParentMap, and are added to the Roi Manager in one update.
+Point to point mode: on any image, the shortest path from the first point to each of the other points in its slice
+	through the pixels with the first point's value is found directly, with no geodesic transform, see GeodesicPathFinder.
 */
 
 
@@ -20,8 +24,11 @@ import ij.gui.*;
 import java.awt.*;
 import ij.plugin.filter.*;
 import ij.plugin.frame.RoiManager;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 //import jhd.DistanceMaps.libJ8.Offsets.PointDesc;
@@ -46,7 +53,7 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 	public int setup(String arg, ImagePlus imp)
 	{
 		this.imp = imp;
-		return DOES_32+NO_UNDO;
+		return DOES_8G+DOES_16+DOES_32+NO_UNDO;
 	}
 
 	//***********************************************************************************************
@@ -62,9 +69,26 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 		Polygon p;
 		PointRoi pRoi;
 
+		Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
+		GenericDialog gd = new GenericDialog("Geodesic Path 2D Overlay");
+		gd.addMessage("Find the shortest path from a point\n"
+				+ "in a 2D GDT image to the GDT origin.",myFont,Color.BLACK);
+		gd.addCheckbox("Batch paths from a parent map", false);
+		gd.addCheckbox("Point to point, first point to the others in its slice (no GDT image needed)", false);
+		gd.addCheckbox("Use Pixel Sizes (point to point)", false);
+		gd.showDialog();
+		if(gd.wasCanceled()) return;
+		boolean batch = gd.getNextBoolean();
+		boolean pointToPoint = gd.getNextBoolean();
+		boolean useSize = gd.getNextBoolean();
+		if(pointToPoint)
+		{
+			pointToPointPaths(useSize);
+			return;
+		}
 
 		Properties props = imp.getImageProperties();
-		if(props==null)
+		if(props==null || imp.getBitDepth()!=32)
 		{
 			IJ.showMessage("Missing Image Properties","Please select a 2D Geodesic Transform Image");
 			return;
@@ -130,12 +154,19 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 				ArrayList<PointDesc>[] geoPaths2D = new ArrayList[probePts.size()];
 
 				//Get the 2D paths for each probePoint
-				int pathCnt=0;
-				for(PointDesc pd : probePts)
+				if(batch)
 				{
-					data=stk.getPixels(pd.z+1);									
-					geoPaths2D[pathCnt] = myGdt.getGeoPath2D(data,width,height, pd);
-					pathCnt++;
+					geoPaths2D = parentMapPaths(stk, width, height, probePts);
+				}
+				else
+				{
+					int pathCnt=0;
+					for(PointDesc pd : probePts)
+					{
+						data=stk.getPixels(pd.z+1);									
+						geoPaths2D[pathCnt] = myGdt.getGeoPath2D(data,width,height, pd);
+						pathCnt++;
+					}
 				}
 
 				//Display the results
@@ -153,6 +184,7 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 					int i=roiMgr.getCount();
 
 					PolygonRoi pathRoi=null;
+					List<Roi> pathRois = new ArrayList<Roi>();
 					Prefs.useNamesAsLabels=true;
 					Prefs.showAllSliceOnly=true;
 
@@ -173,8 +205,16 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 						//get a new PolygonRoi using the point arrays
 						pathRoi = new PolygonRoi(xPoints,yPoints,nPoints,Roi.FREELINE );
 						pathRoi.setPosition(pl.get(0).z+1);
-						roiMgr.addRoi(pathRoi);
-						roiMgr.rename(i, "Path_" + (i+1) + "Slice_" + (pl.get(0).z+1));
+						if(batch)
+						{
+							pathRoi.setName("Path_" + (i+1) + "Slice_" + (pl.get(0).z+1));
+							pathRois.add(pathRoi);
+						}
+						else
+						{
+							roiMgr.addRoi(pathRoi);
+							roiMgr.rename(i, "Path_" + (i+1) + "Slice_" + (pl.get(0).z+1));
+						}
 						i++;
 
 						// add the points to the overlay
@@ -182,6 +222,7 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 
 						//Add the overlay to the image
 					}
+					if(batch) PathRois.addAll(roiMgr, pathRois);
 					roiMgr.addRoi(pRoi);
 					roiMgr.rename(i, "ProbePoints");
 					pathOverlay.add(roiMgr.getRoi(0));
@@ -216,12 +257,19 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 				ArrayList<PointDesc>[] geoPaths2D = new ArrayList[probePts.size()];
 
 				//Get the 2D paths for each probePoint
-				int pathCnt=0;
-				for(PointDesc pd : probePts)
+				if(batch)
 				{
-					data=ip.getPixels();									
-					geoPaths2D[pathCnt] = myGdt.getGeoPath2D(data,width,height, pd);
-					pathCnt++;
+					geoPaths2D = parentMapPaths(imp.getStack(), width, height, probePts);
+				}
+				else
+				{
+					int pathCnt=0;
+					for(PointDesc pd : probePts)
+					{
+						data=ip.getPixels();									
+						geoPaths2D[pathCnt] = myGdt.getGeoPath2D(data,width,height, pd);
+						pathCnt++;
+					}
 				}
 
 				//Display the results
@@ -239,6 +287,7 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 					int i=roiMgr.getCount();
 
 					PolygonRoi pathRoi=null;
+					List<Roi> pathRois = new ArrayList<Roi>();
 					Prefs.useNamesAsLabels=true;
 					Prefs.showAllSliceOnly=true;
 
@@ -256,8 +305,16 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 						}
 						//get a new PolygonRoi using the point arrays
 						pathRoi = new PolygonRoi(xPoints,yPoints,nPoints,Roi.FREELINE );
-						roiMgr.addRoi(pathRoi);
-						roiMgr.rename(i, "Path_" + (i+1));						
+						if(batch)
+						{
+							pathRoi.setName("Path_" + (i+1));
+							pathRois.add(pathRoi);
+						}
+						else
+						{
+							roiMgr.addRoi(pathRoi);
+							roiMgr.rename(i, "Path_" + (i+1));						
+						}
 						i++;
 
 						// add the points to the overlay
@@ -265,6 +322,7 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 
 						//Add the overlay to the image
 					}
+					if(batch) PathRois.addAll(roiMgr, pathRois);
 					roiMgr.addRoi(pRoi);
 					roiMgr.rename(i, "2D_ProbePoints");
 					pathOverlay.add(roiMgr.getRoi(0));
@@ -275,4 +333,131 @@ public class GeodesicPath_2D_Overlay implements PlugInFilter
 		}
 
 	}
+
+	//***********************************************************************************************
+
+	/**Follows the paths of the probe points back to the GDT seeds, one 8 connected parent map
+	 * is made for each slice with probe points and the paths in it are followed at once
+	 * @return The paths, each point holding the GDT distance at its pixel
+	 */
+	private ArrayList<PointDesc>[] parentMapPaths(ImageStack stk, int width, int height, ArrayList<PointDesc> probePts)
+	{
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		double[] step = GeodesicParentMap.stepSizes(imp);
+		@SuppressWarnings("unchecked")
+		ArrayList<PointDesc>[] pathArr = new ArrayList[probePts.size()];
+		boolean[] done = new boolean[probePts.size()];
+		for(int j=0;j<probePts.size();j++)
+		{
+			if(done[j]) continue;
+			int z = probePts.get(j).z;
+			float[] pixels = (float[])stk.getPixels(z+1);
+			GeodesicParentMap parentMap = GeodesicParentMap.fromDistanceMap(new Object[] {pixels}, width, height, 1,
+					step[0], step[1], 1, nThreads);
+
+			//all the probe points in this slice
+			ArrayList<Integer> members = new ArrayList<Integer>();
+			for(int k=j;k<probePts.size();k++)
+			{
+				if(probePts.get(k).z==z)
+				{
+					members.add(k);
+					done[k] = true;
+				}
+			}
+			long[] voxels = new long[members.size()];
+			for(int k=0;k<voxels.length;k++)
+			{
+				PointDesc pt = probePts.get(members.get(k));
+				voxels[k] = (long)pt.y*width + pt.x;
+			}
+			long[][] paths = parentMap.paths(voxels, nThreads);
+			for(int k=0;k<paths.length;k++)
+			{
+				ArrayList<PointDesc> pathPts = new ArrayList<PointDesc>(paths[k].length);
+				for(long v : paths[k])
+				{
+					int i = (int)v;
+					pathPts.add(new PointDesc(i % width, i / width, z, pixels[i]));
+				}
+				pathArr[members.get(k)] = pathPts;
+			}
+		}
+		return pathArr;
+	}
+
+	//***********************************************************************************************
+
+	/**Finds the shortest paths from the first point to each of the others in its slice through the pixels with the
+	 * first point's value, adds them to the Roi Manager and lists their lengths in the "Geodesic Path Lengths" table
+	 */
+	private void pointToPointPaths(boolean useSize)
+	{
+		Roi roi = imp.getRoi();
+		if(roi==null || roi.getType() != Roi.POINT || roi.getPolygon().npoints < 2)
+		{
+			IJ.showMessage("Select a start point and one or more end points using the multi-Point ROI tool");
+			return;
+		}
+		Polygon p = roi.getPolygon();
+		PointRoi pRoi = (PointRoi)roi;
+		int width = imp.getWidth();
+		int height = imp.getHeight();
+		int x0 = p.xpoints[0], y0 = p.ypoints[0];
+		int slice = imp.getNSlices()>1 ? pRoi.getPointPosition(0) : 1;
+		if(slice<1) slice = imp.getCurrentSlice();
+
+		double pixWidth=1,pixHeight=1;
+		if(useSize)
+		{
+			Calibration cal = imp.getCalibration();
+			pixWidth = cal.pixelWidth;
+			pixHeight = cal.pixelHeight;
+		}
+		Object[] data = new Object[] {imp.getStack().getPixels(slice)};
+		double poreVal = imp.getStack().getVoxel(x0, y0, slice-1);
+		GeodesicPathFinder finder = new GeodesicPathFinder(width, height, 1, pixWidth, pixHeight, 1);
+		FrontierFlood.VoxelTest pore = GeodesicPathFinder.sameValue(data, poreVal);
+
+		RoiManager roiMgr = RoiManager.getRoiManager();
+		if(roiMgr==null) roiMgr = new RoiManager();
+		ResultsTable rt = ResultsTable.getResultsTable("Geodesic Path Lengths");
+		if(rt==null) rt = new ResultsTable();
+		Prefs.useNamesAsLabels=true;
+		Prefs.showAllSliceOnly=true;
+		int i=roiMgr.getCount();
+		long start = (long)y0*width + x0;
+		for(int j=1;j<p.npoints;j++)
+		{
+			if(imp.getNSlices()>1 && pRoi.getPointPosition(j)!=slice) continue;
+			int x = p.xpoints[j], y = p.ypoints[j];
+			long[] path = finder.findPath(pore, start, (long)y*width + x);
+
+			rt.incrementCounter();
+			rt.addValue("Image", imp.getTitle());
+			rt.addValue("Slice", slice);
+			rt.addValue("Start X", x0);
+			rt.addValue("Start Y", y0);
+			rt.addValue("End X", x);
+			rt.addValue("End Y", y);
+			rt.addValue("Path Length", path==null ? Double.NaN : finder.getPathLength());
+			rt.addValue("Straight Length", finder.straightDistance(start, (long)y*width + x));
+			rt.addValue("Path Pixels", path==null ? 0 : path.length);
+			if(path==null) continue;
+
+			int[] xPoints = new int[path.length];
+			int[] yPoints = new int[path.length];
+			for(int k=0;k<path.length;k++)
+			{
+				xPoints[k] = (int)(path[k] % width);
+				yPoints[k] = (int)(path[k] / width);
+			}
+			PolygonRoi pathRoi = new PolygonRoi(xPoints,yPoints,path.length,Roi.FREELINE);
+			if(imp.getNSlices()>1) pathRoi.setPosition(slice);
+			roiMgr.addRoi(pathRoi);
+			roiMgr.rename(i, "Path_" + (i+1) + "Slice_" + slice);
+			i++;
+		}
+		rt.show("Geodesic Path Lengths");
+	}
 }
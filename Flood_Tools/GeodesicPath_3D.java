@@ -11,6 +11,10 @@ Note:	The paths drawn are not necessarily the same as those a human would draw.
 	only 45 and 90 degree turns to either side. 
 	Increase the iteration count (see code) to draw long paths.
 JHD 12/22/19
+Batch mode: the paths of all the points are followed at once through a parent map kept with the GDT image,
+	see GeodesicParentMap, and are added to the Roi Manager in one update.
+Point to point mode: on any image, the shortest path from the first point to each of the other points through
+	the voxels with the first point's value is found directly, with no geodesic transform, see GeodesicPathFinder.
 */
 
 
@@ -20,8 +24,11 @@ import ij.gui.*;
 import java.awt.*;
 import ij.plugin.filter.*;
 import ij.plugin.frame.RoiManager;
+import ij.measure.Calibration;
+import ij.measure.ResultsTable;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 
@@ -44,7 +51,7 @@ public class GeodesicPath_3D implements PlugInFilter {
 	public int setup(String arg, ImagePlus imp)
 	{
 		this.imp = imp;
-		return DOES_32+NO_UNDO;
+		return DOES_8G+DOES_16+DOES_32+NO_UNDO;
 	}
 	
 	//***********************************************************************************************
@@ -55,31 +62,6 @@ public class GeodesicPath_3D implements PlugInFilter {
 
 		this.ip = ip;
 
-		Properties props = imp.getImageProperties();
-		if(props==null)
-		{
-			IJ.showMessage("Missing Image Properties","Please select a 3D Geodesic Transform Image");
-			return;
-		}
-		else
-		{
-			String source = props.getProperty("GeodesicSource");
-			String type = props.getProperty("GeodesicType");
-			if(source!=null && type!=null)
-			{
-				if(source.indexOf("3D")==-1 || type.indexOf("Distance")==-1)
-				{
-					IJ.showMessage("Incorrect Image Properties","Please select a 3D Geodesic Transform Image");
-					return;
-				}
-			}
-			else
-			{
-				IJ.showMessage("Missing Image Properties","Please select a 3D Geodesic Transform Image");
-				return;
-			}
-		}
-
 		Roi roi = imp.getRoi();
 		if(roi==null  || roi.getType() != Roi.POINT)
 		{
@@ -97,12 +79,46 @@ public class GeodesicPath_3D implements PlugInFilter {
 				+ "Image->Stacks->3D Project to view.)");
 		gd.setInsets(20, 20, 0);
 		gd.addCheckbox("Write Path(s) to Roi Manager", true);
+		gd.addCheckbox("Batch paths from a parent map", false);
+		gd.addCheckbox("Point to point, first point to the others (no GDT image needed)", false);
+		gd.addCheckbox("Use Pixel Sizes (point to point)", false);
 		gd.showDialog();
 		
 		if(gd.wasCanceled()) return;
 		
 		boolean showPaths = gd.getNextBoolean();
 		boolean useRoiMgr =  gd.getNextBoolean();
+		boolean batch = gd.getNextBoolean();
+		boolean pointToPoint = gd.getNextBoolean();
+		boolean useSize = gd.getNextBoolean();
+
+		if(!pointToPoint)
+		{
+			Properties props = imp.getImageProperties();
+			if(props==null || imp.getBitDepth()!=32)
+			{
+				IJ.showMessage("Missing Image Properties","Please select a 3D Geodesic Transform Image");
+				return;
+			}
+			else
+			{
+				String source = props.getProperty("GeodesicSource");
+				String type = props.getProperty("GeodesicType");
+				if(source!=null && type!=null)
+				{
+					if(source.indexOf("3D")==-1 || type.indexOf("Distance")==-1)
+					{
+						IJ.showMessage("Incorrect Image Properties","Please select a 3D Geodesic Transform Image");
+						return;
+					}
+				}
+				else
+				{
+					IJ.showMessage("Missing Image Properties","Please select a 3D Geodesic Transform Image");
+					return;
+				}
+			}
+		}
 		
 
 		int width = imp.getWidth();
@@ -113,68 +129,202 @@ public class GeodesicPath_3D implements PlugInFilter {
 		ArrayList<PointDesc> probePts = new ArrayList<PointDesc>();
 		Polygon p = roi.getPolygon();
 		PointRoi pRoi=(PointRoi)roi;
+		ArrayList<PointDesc>[] geoPaths3D = null;
 
-		for(int j=0;j<p.npoints;j++)
+		if(pointToPoint)
 		{
-			//stack.getVoxel is 1 based, pRoi.getPointPosition is 0 based
-			double val = stack.getVoxel(p.xpoints[j],p.ypoints[j],pRoi.getPointPosition(j)-1);
-			// In the GDT the solid phase is -2, the unaccessed open phase is -1, and the seed points are 0
-			if(val>0)
+			if(p.npoints < 2)
+			{
+				IJ.showMessage("Select a start point and one or more end points using the multi-Point ROI tool");
+				return;
+			}
+			double pixWidth=1,pixHeight=1,pixDepth=1;
+			if(useSize)
 			{
-				probePts.add(new PointDesc(p.xpoints[j],p.ypoints[j],pRoi.getPointPosition(j)-1,val));				
-			}			
+				Calibration cal = imp.getCalibration();
+				pixWidth = cal.pixelWidth;
+				pixHeight = cal.pixelHeight;
+				pixDepth = cal.pixelDepth;
+			}
+			geoPaths3D = pointToPointPaths(data, width, height, depth, p, pRoi, pixWidth, pixHeight, pixDepth);
 		}
-
-		if(probePts.size()>0)
+		else
 		{
-//			GDT3D_V6 myGdt = new GDT3D_V6();
-			GDT3D myGdt = new GDT3D();
-			ArrayList<PointDesc>[] geoPaths3D = myGdt.getGeoPaths3D(data,width,height,depth, probePts);
+			for(int j=0;j<p.npoints;j++)
+			{
+				//stack.getVoxel is 1 based, pRoi.getPointPosition is 0 based
+				double val = stack.getVoxel(p.xpoints[j],p.ypoints[j],pRoi.getPointPosition(j)-1);
+				// In the GDT the solid phase is -2, the unaccessed open phase is -1, and the seed points are 0
+				if(val>0)
+				{
+					probePts.add(new PointDesc(p.xpoints[j],p.ypoints[j],pRoi.getPointPosition(j)-1,val));				
+				}			
+			}
+
+			if(probePts.size()>0 && batch)
+			{
+				geoPaths3D = parentMapPaths(data, width, height, depth, probePts);
+			}
+			else if(probePts.size()>0)
+			{
+//				GDT3D_V6 myGdt = new GDT3D_V6();
+				GDT3D myGdt = new GDT3D();
+				geoPaths3D = myGdt.getGeoPaths3D(data,width,height,depth, probePts);
+			}
+		}
 
-			//Display the results
-			if(geoPaths3D!=null)
+		//Display the results
+		if(geoPaths3D!=null)
+		{
+			if(useRoiMgr)
 			{
-				if(useRoiMgr)
+				RoiManager roiMgr = RoiManager.getRoiManager();
+				if(roiMgr==null)
 				{
-					RoiManager roiMgr = RoiManager.getRoiManager();
-					if(roiMgr==null)
+					roiMgr = new RoiManager();
+				}
+				int i=roiMgr.getCount();
+				List<Roi> pathRois = new ArrayList<Roi>();
+				for(ArrayList<PointDesc> path : geoPaths3D)
+				{
+					PointRoi ptRoi = new PointRoi();
+					ptRoi.setOptions("small");
+					for(PointDesc point : path)
 					{
-						roiMgr = new RoiManager();
+						ptRoi.addPoint(point.x,point.y,point.z+1);
 					}
-					int i=roiMgr.getCount();
-					for(ArrayList<PointDesc> path : geoPaths3D)
+					if(batch)
+					{
+						ptRoi.setName("Path3D_" + (i+1));
+						pathRois.add(ptRoi);
+					}
+					else
 					{
-						PointRoi ptRoi = new PointRoi();
-						ptRoi.setOptions("small");
-						for(PointDesc point : path)
-						{
-							ptRoi.addPoint(point.x,point.y,point.z+1);
-						}
 						roiMgr.addRoi(ptRoi);
 						roiMgr.rename(i, "Path3D_" + (i+1));
-						i++;
-					}				
-				}
+					}
+					i++;
+				}				
+				if(batch) PathRois.addAll(roiMgr, pathRois);
+			}
 
-				if(showPaths)
-				{
-					ImagePlus pathImp = IJ.createImage("Path Image",width,height,depth,8);
-					ImageStack pathStk = pathImp.getStack();
+			if(showPaths)
+			{
+				ImagePlus pathImp = IJ.createImage("Path Image",width,height,depth,8);
+				ImageStack pathStk = pathImp.getStack();
 
-					int i=101;
-					for(ArrayList<PointDesc> path : geoPaths3D)
+				int i=101;
+				for(ArrayList<PointDesc> path : geoPaths3D)
+				{
+					for(PointDesc pl : path)
 					{
-						for(PointDesc pl : path)
-						{
-							pathStk.setVoxel(pl.x,pl.y,pl.z, i);
-						}
-						i++;
-						if(i>255) break;
+						pathStk.setVoxel(pl.x,pl.y,pl.z, i);
 					}
-					pathImp.setDisplayRange(0, i);
-					pathImp.show();
+					i++;
+					if(i>255) break;
 				}
+				pathImp.setDisplayRange(0, i);
+				pathImp.show();
+			}
+		}
+	}
+
+	//***********************************************************************************************
+
+	/**Follows the paths of the probe points back to the GDT seeds through the image's parent map,
+	 * making and keeping the map first if the image has none
+	 * @return The paths, each point holding the GDT distance at its voxel
+	 */
+	private ArrayList<PointDesc>[] parentMapPaths(Object[] data, int width, int height, int depth, ArrayList<PointDesc> probePts)
+	{
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		GeodesicParentMap parentMap = GeodesicParentMap.get(imp);
+		if(parentMap==null)
+		{
+			//the steps in the units the transform used
+			double[] step = GeodesicParentMap.stepSizes(imp);
+			parentMap = GeodesicParentMap.fromDistanceMap(data, width, height, depth,
+					step[0], step[1], step[2], nThreads);
+			parentMap.attach(imp);
+		}
+
+		int sliceSize = width*height;
+		long[] voxels = new long[probePts.size()];
+		for(int j=0;j<voxels.length;j++)
+		{
+			PointDesc pt = probePts.get(j);
+			voxels[j] = (long)pt.z*sliceSize + pt.y*width + pt.x;
+		}
+		long[][] paths = parentMap.paths(voxels, nThreads);
+
+		@SuppressWarnings("unchecked")
+		ArrayList<PointDesc>[] pathArr = new ArrayList[paths.length];
+		for(int j=0;j<paths.length;j++)
+		{
+			pathArr[j] = new ArrayList<PointDesc>(paths[j].length);
+			for(long v : paths[j])
+			{
+				int z = (int)(v / sliceSize);
+				int i = (int)(v % sliceSize);
+				pathArr[j].add(new PointDesc(i % width, i / width, z, ((float[])data[z])[i]));
+			}
+		}
+		return pathArr;
+	}
+
+	//***********************************************************************************************
+
+	/**Finds the shortest paths from the first point to each of the others through the voxels with the first point's value,
+	 * and lists their lengths in the "Geodesic Path Lengths" table
+	 * @return The paths that were found
+	 */
+	private ArrayList<PointDesc>[] pointToPointPaths(Object[] data, int width, int height, int depth, Polygon p, PointRoi pRoi,
+			double pixWidth, double pixHeight, double pixDepth)
+	{
+		int sliceSize = width*height;
+		int x0 = p.xpoints[0], y0 = p.ypoints[0], z0 = pRoi.getPointPosition(0)-1;
+		long start = (long)z0*sliceSize + y0*width + x0;
+		double poreVal = imp.getStack().getVoxel(x0, y0, z0);
+		GeodesicPathFinder finder = new GeodesicPathFinder(width, height, depth, pixWidth, pixHeight, pixDepth);
+		FrontierFlood.VoxelTest pore = GeodesicPathFinder.sameValue(data, poreVal);
+
+		ResultsTable rt = ResultsTable.getResultsTable("Geodesic Path Lengths");
+		if(rt==null) rt = new ResultsTable();
+		ArrayList<ArrayList<PointDesc>> paths = new ArrayList<ArrayList<PointDesc>>();
+		for(int j=1;j<p.npoints;j++)
+		{
+			int x = p.xpoints[j], y = p.ypoints[j], z = pRoi.getPointPosition(j)-1;
+			long[] path = finder.findPath(pore, start, (long)z*sliceSize + y*width + x);
+
+			rt.incrementCounter();
+			rt.addValue("Image", imp.getTitle());
+			rt.addValue("Start X", x0);
+			rt.addValue("Start Y", y0);
+			rt.addValue("Start Slice", z0+1);
+			rt.addValue("End X", x);
+			rt.addValue("End Y", y);
+			rt.addValue("End Slice", z+1);
+			rt.addValue("Path Length", path==null ? Double.NaN : finder.getPathLength());
+			rt.addValue("Straight Length", finder.straightDistance(start, (long)z*sliceSize + y*width + x));
+			rt.addValue("Path Voxels", path==null ? 0 : path.length);
+			if(path==null) continue;
+
+			//each point holds its distance along the path
+			ArrayList<PointDesc> pathPts = new ArrayList<PointDesc>(path.length);
+			double length = 0;
+			for(int k=0;k<path.length;k++)
+			{
+				if(k>0) length += finder.straightDistance(path[k-1], path[k]);
+				int i = (int)(path[k] % sliceSize);
+				pathPts.add(new PointDesc(i % width, i / width, (int)(path[k] / sliceSize), length));
 			}
+			paths.add(pathPts);
 		}
+		rt.show("Geodesic Path Lengths");
+
+		if(paths.isEmpty()) return null;
+		@SuppressWarnings("unchecked")
+		ArrayList<PointDesc>[] pathArr = paths.toArray(new ArrayList[paths.size()]);
+		return pathArr;
 	}
 }
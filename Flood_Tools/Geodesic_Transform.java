@@ -6,11 +6,13 @@ import java.awt.Color;
 //import java.awt.Component;
 import java.awt.Font;
 import java.awt.Polygon;
+import java.util.Arrays;
 import java.util.Vector;
 
 import ij.IJ;
 import ij.gui.*;
 import ij.measure.Calibration;
+import ij.measure.ResultsTable;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.plugin.filter.*;
@@ -30,12 +32,14 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 	ImagePlus imp;
 //	GDT3D_V6 myGDT = new GDT3D_V6();//uses pixel sizes
 	GDT3D myGDT = new GDT3D();//uses pixel sizes
+	GeodesicParentMap keptParents;	//the bucket queue engine's parent map, attached after the run
 	
 	String[] destChoices3D = {"3D new Image","3D in Place","2D new Image","2D in Place", "2D this slice new image"};
 	String[] destChoices2D = {"2D new Image","2D in Place"};
 	String[] seedChoices2D = null;
 	String[] seedChoices3D = null;
 	String[] outputChoices = null;
+	String[] engineChoices = {"Library","Bucket Queue","Sparse Pore Graph"};
 
 	//*********************************************************************************************
 
@@ -46,6 +50,12 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 		public String taskChoice;
 		public String destChoice;
 		public boolean 	useSize;
+		public boolean	parallel;
+		public String engineChoice;
+		public double maxDistance;
+		public String targetChoice;
+		public boolean keepParents;
+		public boolean voronoi;
 
 	}
 
@@ -113,7 +123,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 		{
 			if(ValidateParams(imp,dp))
 			{
-				if(dp.seedChoice=="Point(s)")
+				if(dp.seedChoice=="Point(s)" || dp.targetChoice.equals("Point(s)"))
 				{
 					Roi roi= imp.getRoi();
 					if(roi.getType()==Roi.POINT)
@@ -152,6 +162,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 				//float[] myArrf;
 				Object[] oData3D;
 				Object oData2D;
+				double[] displayRange = null;	//from the bucket queue engines, saves a pass over the output
 				
 				//long start = System.nanoTime();
 				
@@ -165,16 +176,8 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 					oData3D = myStack.getImageArray();
 					//myArrf = inStack.getVoxels(0, 0, 0, width, height, depth, null);
 					IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-					switch(dp.taskChoice)
-					{
-					case "Geodesic Distance":
-						myGDT.gdt3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
-						break;
-					case "Tortuosity":
-						myGDT.tort3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
-						break;
-					}
-					myImp.setTitle(dp.taskChoice + "_3D");
+					displayRange = gdt3D(dp, myImp, oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, colPts,rowPts,slicePts);
+					myImp.setTitle(dp.taskChoice.equals("Tortuosity") ? "Tortuosity_3D" : "Geodesic Distance_3D");
 					myImp.show();
 					break;
 				case "3D in Place":
@@ -184,15 +187,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 					oData3D = inStack.getImageArray();
 
 					IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-					switch(dp.taskChoice)
-					{
-					case "Geodesic Distance":
-						myGDT.gdt3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
-						break;
-					case "Tortuosity":
-						myGDT.tort3D(oData3D, width, height, depth,  pixWidth, pixHeight, pixDepth,dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
-						break;
-					}
+					displayRange = gdt3D(dp, imp, oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, colPts,rowPts,slicePts);
 					imp.setTitle(title + "_3D");
 					myImp = imp;
 					break;
@@ -208,20 +203,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 						{
 							myStack = myImp.getStack();
 							IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-							for(i=0;i<mySlicePts.length;i++)
-							{
-								oData2D = myStack.getPixels(mySlicePts[i].sliceNum);
-								
-								switch(dp.taskChoice)
-								{
-								case "Geodesic Distance":
-									myGDT.gdt2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, mySlicePts[i].iCol,mySlicePts[i].jRow);
-									break;
-								case "Tortuosity":
-									myGDT.tort2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, mySlicePts[i].iCol,mySlicePts[i].jRow);
-									break;
-								}
-							}
+							gdt2DSlices(dp, myStack, mySlicePts, width, height, pixWidth, pixHeight);
 							myImp.setSlice(mySlicePts[0].sliceNum);
 						}
 					}
@@ -229,19 +211,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 					{//Do all of the slices
 						myStack = myImp.getStack();
 						IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-						for(i=1;i<=myStack.size();i++)
-						{
-							oData2D =  myStack.getPixels(i);
-							switch(dp.taskChoice)
-							{
-							case "Geodesic Distance":
-								myGDT.gdt2D(oData2D, width, height, pixWidth, pixHeight,dp.floodChoice, dp.seedChoice,null,null);
-								break;
-							case "Tortuosity":								//myGDT.tort2D(myArrf, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice,null,null);
-								myGDT.tort2D(oData2D, width, height, pixWidth, pixHeight,dp.floodChoice, dp.seedChoice,null,null);
-								break;
-							}
-						}					
+						gdt2DSlices(dp, myStack, null, width, height, pixWidth, pixHeight);
 					}
 					myImp.setTitle(dp.taskChoice + "_2D");
 					myImp.show();											
@@ -259,19 +229,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 							myStack = imp.getStack();
 
 							IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-							for(i=0;i<mySlicePts.length;i++)
-							{
-								oData2D = myStack.getPixels(mySlicePts[i].sliceNum);
-								switch(dp.taskChoice)
-								{
-								case "Geodesic Distance":
-									myGDT.gdt2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, mySlicePts[i].iCol,mySlicePts[i].jRow);
-									break;
-								case "Tortuosity":
-									myGDT.tort2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, mySlicePts[i].iCol,mySlicePts[i].jRow);
-									break;
-								}
-							}					
+							gdt2DSlices(dp, myStack, mySlicePts, width, height, pixWidth, pixHeight);
 							imp.setSlice(mySlicePts[0].sliceNum);
 							myImp = imp;
 						}
@@ -280,19 +238,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 					{
 						myStack = imp.getStack();						
 						IJ.showStatus("Run " + dp.taskChoice +  " " + dp.destChoice + " " + dp.floodChoice+ " from " + dp.seedChoice);		
-						for(i=1;i<=myStack.size();i++)
-						{
-							oData2D = myStack.getPixels(i);
-							switch(dp.taskChoice)
-							{
-							case "Geodesic Distance":
-								myGDT.gdt2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice,null,null);
-								break;
-							case "Tortuosity":
-								myGDT.tort2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice,null,null);
-								break;
-							}
-						}					
+						gdt2DSlices(dp, myStack, null, width, height, pixWidth, pixHeight);
 					}
 					imp.setTitle(dp.taskChoice + "_2D");
 					myImp=imp;
@@ -323,30 +269,232 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 				//String secStr = String.format("%.4f" + " seconds", nSecs );  			
 				//IJ.showStatus("GDT, " + dp.taskChoice +", " + dp.destChoice + ", " + dp.seedChoice + secStr);
 
-				myImp.setProp("GeodesicType", dp.taskChoice);
+				myImp.setProp("GeodesicType", dp.taskChoice.equals("Tortuosity") ? "Tortuosity" : "Geodesic Distance");
 				myImp.setProp("GeodesicSource", dp.destChoice);
 				myImp.setProp("GeodesicSeed", dp.seedChoice);
+				//the step lengths for parent maps made later from this distance map
+				myImp.setProp(GeodesicParentMap.UNITS_PROP, dp.useSize ? imp.getCalibration().getUnit() : "pixel");
 				//If there is a point ROI ce.stretchHistogram(myImp.getProcessor(), 0.35); fails
 				//Passing the stats does the stretch only on the current slice
 				myImp.show();
 				
 				//Re-scale the display between the min and max distance of the entire stack
-				float fmin=Float.MAX_VALUE,fmax=Float.MIN_VALUE;
-				float val;
-				Object[] outData = myImp.getStack().getImageArray();				
-				for(i=0;i<myImp.getNSlices();i++)
+				//the transform ran in place, so any statistics kept with the image are stale
+				//a parent map from an earlier transform is dropped too, only this run's is kept
+				ImageCaches.invalidate(myImp);
+				if(keptParents!=null) keptParents.attach(myImp);
+				keptParents = null;
+				if(displayRange!=null)
 				{
-					float[] fData= (float[])outData[i];
-					for(int j=0;j<fData.length;j++)
-					{
-						val = fData[j];
-						if(val< fmin) fmin=val;
-						else if(val>fmax) fmax=val;								
-					}
-				}				
-				myImp.setDisplayRange(fmin, fmax);
-				IJ.run("Fire");
+					myImp.setDisplayRange(displayRange[0], displayRange[1]);
+				}
+				else
+				{
+					VolumeStats stats = VolumeStats.get(myImp);
+					myImp.setDisplayRange(stats.getMin(), stats.getMax());
+				}
+				IJ.run(myImp, "Fire", "");
+			}
+		}
+	}
+
+	//*********************************************************************************************
+
+	/**Runs the 3D task with the library GDT3D or the bucket queue engine, on the full stack or a sparse pore graph.
+	 * The bucket queue engine can keep the parent map of a distance map in keptParents
+	 * and can show the geodesic Voronoi regions of the seed points.  "Distance and Tortuosity" shows the
+	 * tortuosity and the distance histogram made by the same search.
+	 * @return The display range of the output from the bucket queue engine, null for the library
+	 */
+	private double[] gdt3D(DialogParams dp, ImagePlus outImp, Object[] oData3D, int width, int height, int depth,
+			float pixWidth, float pixHeight, float pixDepth, int[] colPts, int[] rowPts, int[] slicePts)
+	{
+		if(!dp.engineChoice.equals("Library"))
+		{
+			DialGeodesicMap dialGDT = new DialGeodesicMap();
+			dialGDT.setSparse(dp.engineChoice.equals("Sparse Pore Graph"));
+			if(dp.floodChoice.equals("Map !0") && !dp.engineChoice.equals("Sparse Pore Graph"))
+			{//the map replaces the stack, so its index is not kept on the image
+				dialGDT.setBrickIndex(new BrickIndex(oData3D, width, height, depth, 8, Runtime.getRuntime().availableProcessors()));
+			}
+			dialGDT.setMaxDistance(dp.maxDistance);
+			dialGDT.setRecordParents(dp.keepParents && !dp.taskChoice.equals("Tortuosity"));
+			dialGDT.setRecordLabels(dp.voronoi);
+			dialGDT.setTargetFace(dp.targetChoice);
+			if(dp.targetChoice.equals("Point(s)"))
+			{
+				int n = colPts.length;
+				if(dp.seedChoice.equals("Point(s)"))
+				{//the first point is the seed, the others are the targets
+					dialGDT.setTargetPoints(Arrays.copyOfRange(colPts, 1, n), Arrays.copyOfRange(rowPts, 1, n), Arrays.copyOfRange(slicePts, 1, n));
+					colPts = Arrays.copyOf(colPts, 1);
+					rowPts = Arrays.copyOf(rowPts, 1);
+					slicePts = Arrays.copyOf(slicePts, 1);
+				}
+				else dialGDT.setTargetPoints(colPts, rowPts, slicePts);
 			}
+			if(dp.voronoi && colPts != null && colPts.length > 65535)
+			{
+				IJ.error("Geodesic Transform", "Voronoi labels are limited to 65535 seed points.");
+				return null;
+			}
+			try
+			{
+				switch(dp.taskChoice)
+				{
+				case "Geodesic Distance":
+					dialGDT.gdt3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
+					break;
+				case "Tortuosity":
+					dialGDT.tort3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
+					break;
+				case "Distance and Tortuosity":
+					Object[] oTort3D = new Object[depth];
+					for(int z=0;z<depth;z++) oTort3D[z] = new float[width*height];
+					dialGDT.gdtTort3D(oData3D, oTort3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
+					showTortuosity(dp, oTort3D, outImp, width, height, dialGDT.getTortuosityRange());
+					showHistogram(outImp, dialGDT.getDistanceHistogram(), dialGDT.getHistogramBinWidth());
+					break;
+				}
+			}
+			catch(IllegalArgumentException e)
+			{
+				//the pore space is too large for the sparse engine's int node indices
+				IJ.error("Geodesic Transform", e.getMessage() + "\nPlease use the Bucket Queue engine.");
+				return null;
+			}
+			keptParents = dialGDT.getParentMap();
+			if(dialGDT.getLabels() != null) showVoronoi(dialGDT.getLabels(), outImp, width, height, colPts.length);
+			return dp.taskChoice.equals("Tortuosity") ? dialGDT.getTortuosityRange() : dialGDT.getDistanceRange();
+		}
+		else
+		{
+			//the library keeps no parent map, one from an earlier transform of outImp no longer matches
+			outImp.setProperty(GeodesicParentMap.PROPERTY, null);
+			switch(dp.taskChoice)
+			{
+			case "Geodesic Distance":
+				myGDT.gdt3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
+				break;
+			case "Tortuosity":
+				myGDT.tort3D(oData3D, width, height, depth, pixWidth, pixHeight, pixDepth, dp.floodChoice, dp.seedChoice, colPts,rowPts,slicePts);
+				break;
+			}
+			return null;
+		}
+	}
+
+	//*********************************************************************************************
+
+	/**Shows the tortuosity map of a "Distance and Tortuosity" run as a "Tortuosity_3D" image*/
+	private void showTortuosity(DialogParams dp, Object[] oTort3D, ImagePlus outImp, int width, int height, double[] range)
+	{
+		ImageStack tortStack = new ImageStack(width, height);
+		for(Object slice : oTort3D) tortStack.addSlice(null, slice);
+		ImagePlus tortImp = new ImagePlus("Tortuosity_3D", tortStack);
+		tortImp.setCalibration(outImp.getCalibration());
+		tortImp.setProp("GeodesicType", "Tortuosity");
+		tortImp.setProp("GeodesicSource", dp.destChoice);
+		tortImp.setProp("GeodesicSeed", dp.seedChoice);
+		tortImp.setDisplayRange(range[0], range[1]);
+		tortImp.show();
+		IJ.run(tortImp, "Fire", "");
+	}
+
+	//*********************************************************************************************
+
+	/**Lists the distance histogram of a "Distance and Tortuosity" run in the "Geodesic Distance Histogram" table*/
+	private void showHistogram(ImagePlus outImp, long[] histogram, double binWidth)
+	{
+		String unit = outImp.getCalibration().getUnit();
+		ResultsTable rt = new ResultsTable();
+		for(int bin=0;bin<histogram.length;bin++)
+		{
+			rt.incrementCounter();
+			rt.addValue("Distance " + unit, bin*binWidth);
+			rt.addValue("Voxels", histogram[bin]);
+		}
+		rt.show("Geodesic Distance Histogram");
+	}
+
+	//*********************************************************************************************
+
+	/**Shows the seed point labels as a 16-bit "Geodesic Voronoi" image, each mapped voxel
+	 * holds 1 + the index of the seed point it is geodesically nearest to
+	 */
+	private void showVoronoi(Object[] labels, ImagePlus outImp, int width, int height, int nSeeds)
+	{
+		ImageStack labelStack = new ImageStack(width, height);
+		for(Object slice : labels) labelStack.addSlice(null, slice);
+		ImagePlus labelImp = new ImagePlus("Geodesic Voronoi_3D", labelStack);
+		labelImp.setCalibration(outImp.getCalibration());
+		labelImp.setDisplayRange(0, nSeeds);
+		labelImp.show();
+	}
+
+	//*********************************************************************************************
+
+	/**Runs the 2D task on every slice, or on the slices with points in them, several slices at once if asked
+	 * @param slicePts The slices and their seed points, null to do all of the slices
+	 */
+	private void gdt2DSlices(final DialogParams dp, final ImageStack stack, final SlicePoints[] slicePts,
+			final int width, final int height, final float pixWidth, final float pixHeight)
+	{
+		int count = slicePts == null ? stack.getSize() : slicePts.length;
+		if(dp.parallel)
+		{
+			//each thread has its own transform, this assumes the library instances share no state
+			final ThreadLocal<GDT3D> sliceGDT = new ThreadLocal<GDT3D>()
+			{
+				@Override
+				protected GDT3D initialValue()
+				{
+					return new GDT3D();
+				}
+			};
+			SliceParallel.forEach(count, Runtime.getRuntime().availableProcessors(), new SliceParallel.SliceTask()
+			{
+				@Override
+				public void run(int n)
+				{
+					gdt2DSlice(sliceGDT.get(), dp, stack, slicePts, n, width, height, pixWidth, pixHeight);
+				}
+			});
+		}
+		else
+		{
+			for(int n=0;n<count;n++)
+			{
+				gdt2DSlice(myGDT, dp, stack, slicePts, n, width, height, pixWidth, pixHeight);
+			}
+		}
+	}
+
+	//*********************************************************************************************
+
+	private void gdt2DSlice(GDT3D gdt, DialogParams dp, ImageStack stack, SlicePoints[] slicePts, int n,
+			int width, int height, float pixWidth, float pixHeight)
+	{
+		Object oData2D;
+		int[] iCol=null,jRow=null;
+		if(slicePts == null)
+		{
+			oData2D = stack.getPixels(n+1);
+		}
+		else
+		{
+			oData2D = stack.getPixels(slicePts[n].sliceNum);
+			iCol = slicePts[n].iCol;
+			jRow = slicePts[n].jRow;
+		}
+		switch(dp.taskChoice)
+		{
+		case "Geodesic Distance":
+			gdt.gdt2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, iCol,jRow);
+			break;
+		case "Tortuosity":
+			gdt.tort2D(oData2D, width, height, pixWidth, pixHeight, dp.floodChoice, dp.seedChoice, iCol,jRow);
+			break;
 		}
 	}
 
@@ -371,7 +519,7 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 		}
 
 		String[] floodChoices = myGDT.getMapChoices(); //{"Map 0","Map 255"};
-		String[] taskChoices = {"Geodesic Distance","Tortuosity"};
+		String[] taskChoices = {"Geodesic Distance","Tortuosity","Distance and Tortuosity"};
 
 		DialogParams dp = new DialogParams();
 
@@ -380,15 +528,35 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 
 		gd.addMessage("Convert binary image to Geodesic Distance or Tortuosity.",myFont,Color.BLACK);
 		gd.addRadioButtonGroup("Value to process", floodChoices, 1, 2, floodChoices[0]);
-		gd.addRadioButtonGroup("Process to run", taskChoices, 1, 2, taskChoices[0]);
+		gd.addRadioButtonGroup("Process to run", taskChoices, 1, 3, taskChoices[0]);
 		gd.addChoice("Output",outputChoices,outputChoices[0]);		
 		gd.addChoice("Seed",seedChoices,seedChoices[0]);
+		String[] targetChoices = new String[seedChoices3D.length+1];
+		targetChoices[0] = "None";
+		System.arraycopy(seedChoices3D, 0, targetChoices, 1, seedChoices3D.length);
+		if(outputChoices == destChoices3D)
+		{
+			gd.addChoice("3D Engine",engineChoices,engineChoices[0]);
+			gd.setInsets(0,20,0);
+			gd.addMessage("Sparse Pore Graph needs about 100 bytes per pore voxel\n"
+					+ "more than Bucket Queue and was slower in our tests.");
+			gd.addNumericField("Stop at geodesic distance (0 = no limit)", 0);
+			gd.addChoice("Stop at target",targetChoices,targetChoices[0]);
+			gd.addCheckbox("Keep parent map for GeodesicPath_3D (bucket queue engines)", false);
+			gd.addCheckbox("Label nearest seed point, Voronoi (bucket queue engines)", false);
+		}
 		gd.addCheckbox("Use Pixel Sizes", false);
+		gd.addCheckbox("Use all processors (2D slices)", false);
 
 		gd.addMessage("Notes:\nIn-place calculation converts the binary image to 32-Bit."
 				+ "\nMapping \"Point(s)\" tortuosity takes 2x longer, be patient."
 				+ "\nThe un-mapped component voxel values are set to -2"
-				+ "\nUnreachable mapped voxel values are set to -1.",myFont,Color.BLACK);
+				+ "\nUnreachable mapped voxel values are set to -1."
+				+ "\nStopping early sets the unfinished voxels to -1, target Point(s)"
+				+ "\nwith Point(s) seeds uses the first point as the seed."
+				+ "\nBucket queue Point(s) tortuosity divides by the distance to the"
+				+ "\nseed each path starts from, Library by the nearest seed point,"
+				+ "\nand adds 4 bytes per voxel.",myFont,Color.BLACK);
 		gd.addHelp("https://lazzyizzi.github.io/Geodesic.html");
 		gd.showDialog();
 
@@ -398,7 +566,19 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 		dp.taskChoice = gd.getNextRadioButton();
 		dp.destChoice = gd.getNextChoice();
 		dp.seedChoice = gd.getNextChoice();
+		dp.engineChoice = engineChoices[0];
+		dp.maxDistance = 0;
+		dp.targetChoice = targetChoices[0];
+		if(outputChoices == destChoices3D)
+		{
+			dp.engineChoice = gd.getNextChoice();
+			dp.maxDistance = gd.getNextNumber();
+			dp.targetChoice = gd.getNextChoice();
+			dp.keepParents = gd.getNextBoolean();
+			dp.voronoi = gd.getNextBoolean();
+		}
 		dp.useSize = gd.getNextBoolean();
+		dp.parallel = gd.getNextBoolean();
 
 		return dp;
 	}
@@ -514,6 +694,55 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 				return false;
 			}
 		}
+		if(dp.maxDistance < 0 || Double.isNaN(dp.maxDistance))
+		{
+			IJ.showMessage("Invalid distance", "The stop distance must be 0 or more");
+			return false;
+		}
+		if((dp.maxDistance > 0 || !dp.targetChoice.equals("None")) && dp.engineChoice.equals("Library"))
+		{
+			IJ.showMessage("Engine required", "Stopping early needs the Bucket Queue\n"
+					+ "or Sparse Pore Graph engine");
+			return false;
+		}
+		if(dp.taskChoice.equals("Distance and Tortuosity")
+				&& (dp.engineChoice.equals("Library") || !dp.destChoice.startsWith("3D")))
+		{
+			IJ.showMessage("Engine required", "Distance and Tortuosity needs a 3D output\n"
+					+ "and the Bucket Queue or Sparse Pore Graph engine");
+			return false;
+		}
+		if(dp.voronoi)
+		{
+			if(dp.engineChoice.equals("Library") || !dp.seedChoice.equals("Point(s)") || !dp.destChoice.startsWith("3D"))
+			{
+				IJ.showMessage("Voronoi labels", "Labeling the nearest seed needs Point(s) seeds, a 3D output\n"
+						+ "and the Bucket Queue or Sparse Pore Graph engine");
+				return false;
+			}
+			if(dp.targetChoice.equals("Point(s)"))
+			{
+				IJ.showMessage("Voronoi labels", "Target Point(s) leaves the first point as the only seed,\n"
+						+ "so there are no regions to label. Choose another target.");
+				return false;
+			}
+			if(theImp.getRoi().getPolygon().npoints > 65535)
+			{
+				IJ.showMessage("Voronoi labels", "At most 65535 seed points can be labeled");
+				return false;
+			}
+		}
+		if(dp.targetChoice.equals("Point(s)"))
+		{
+			Roi roi = theImp.getRoi();
+			int needed = dp.seedChoice.equals("Point(s)") ? 2 : 1;
+			if(roi==null || roi.getType() != Roi.POINT || roi.getPolygon().npoints < needed)
+			{
+				IJ.showMessage("Point ROI(s) required", "Please use the point tool to select target point(s),\n"
+						+ "with Point(s) seeds the first point is the seed");
+				return false;
+			}
+		}
 		return true;
 	}
 
@@ -541,14 +770,18 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 				sliceNum[i] = pRoi.getPointPosition(i);				
 			}
 
-			//1.count the number of slices with points in them
-			int sliceCnt=1;
-			for(i=1;i< sliceNum.length;i++)
+			//1.find the slices with points in them, in the order of their first point
+			//the points of a slice need not be consecutive, so each slice gets one entry
+			//and the parallel slice mode never maps the same slice on two threads
+			int[] slices = new int[sliceNum.length];
+			int sliceCnt=0;
+			for(i=0;i< sliceNum.length;i++)
 			{
-				if(sliceNum[i] != sliceNum[i-1])
+				for(j=0;j<sliceCnt;j++)
 				{
-					sliceCnt++;
+					if(slices[j] == sliceNum[i]) break;
 				}
+				if(j==sliceCnt) slices[sliceCnt++] = sliceNum[i];
 			}		
 			//IJ.log("sliceCnt=" + sliceCnt);
 
@@ -556,17 +789,10 @@ public class Geodesic_Transform implements PlugInFilter, DialogListener
 			slicePoints = new SlicePoints[sliceCnt];
 			for(i=0;i<sliceCnt;i++) slicePoints[i] = new SlicePoints();
 
-			//3. loop through again an add the slice number
-			j=0;
-			slicePoints[j].sliceNum = sliceNum[j];
-			j++;
-			for(i=1;i< sliceNum.length;i++)
+			//3. add the slice numbers
+			for(j=0;j<sliceCnt;j++)
 			{
-				if(sliceNum[i] != sliceNum[i-1])
-				{
-					slicePoints[j].sliceNum = sliceNum[i];
-					j++;
-				}
+				slicePoints[j].sliceNum = slices[j];
 			}
 
 			//4. loop through again to get the point count in each slice
@@ -0,0 +1,123 @@
+package Flood_Tools;
+
+/*
+ * The flood results of the in-repo flood engines, with the same fields as
+ * HybridFloodFill.FloodReport so that the plugins can show either in the same table.
+ *
+ * The frontier engines fill in meanTort and stdDevTort from a geodesic distance
+ * map of the flood when asked, FrontierHybridFlood.measureTortuosity, otherwise
+ * the in-repo engines leave them NaN.  The frontier engines also report the ratio
+ * of the cycle that reached each bottom slice voxel to the depth-1 cycles of a
+ * straight path in meanCycleTort and stdDevCycleTort, which is not the library's
+ * tortuosity.
+ */
+
+import jhd.FloodFill.HybridFloodFill;
+
+public class HybridFloodReport
+{
+	/**Pore space statistics, the same fields as HybridFloodFill.PorosityReport*/
+	public static class PorosityReport
+	{
+		public long floodableVoxelCount;
+		public long resolvedVoxelCount;
+		public long unresolvedVoxelCount;
+		public double resolvedVolume;
+		public double unresolvedVolume;
+		public double resolvedPorosity;
+		public double unresolvedPorosity;
+		public double totalPorosity;
+	}
+
+	/**Flood statistics, the same fields as HybridFloodFill.FloodStatistics*/
+	public static class FloodStatistics
+	{
+		public int totalCycles;
+		public int contactCycles;	//the cycle that reached the bottom slice, 0 if none
+		public boolean contact;
+		public double meanTort = Double.NaN;
+		public double stdDevTort = Double.NaN;
+		public double meanCycleTort = Double.NaN;	//cycles to each bottom voxel over depth-1
+		public double stdDevCycleTort = Double.NaN;
+	}
+
+	/**Counts a PorosityReport voxel by voxel for the in-repo engines*/
+	static class PorosityTally
+	{
+		final PorosityReport rpt = new PorosityReport();
+		final float floodMin;
+		double phiSum;
+
+		/**@param floodMin Voxels with values at least floodMin are floodable*/
+		PorosityTally(float floodMin)
+		{
+			this.floodMin = floodMin;
+		}
+
+		/**@param v A hybrid map voxel value*/
+		void add(float v)
+		{
+			if(v >= floodMin) rpt.floodableVoxelCount++;
+			if(v >= 1) rpt.resolvedVoxelCount++;
+			else if(v > 0)
+			{
+				rpt.unresolvedVoxelCount++;
+				phiSum += v;
+			}
+		}
+
+		/**@param voxVol The volume of one voxel
+		 * @param voxelCount The number of voxels in the whole map
+		 * @return The report with its volumes and porosities filled in
+		 */
+		PorosityReport finish(double voxVol, double voxelCount)
+		{
+			double totVol = voxVol*voxelCount;
+			rpt.resolvedVolume = rpt.resolvedVoxelCount*voxVol;
+			rpt.unresolvedVolume = phiSum*voxVol;
+			rpt.resolvedPorosity = rpt.resolvedVolume/totVol;
+			rpt.unresolvedPorosity = rpt.unresolvedVolume/totVol;
+			rpt.totalPorosity = rpt.resolvedPorosity + rpt.unresolvedPorosity;
+			return rpt;
+		}
+	}
+
+	public PorosityReport beforeFlood;
+	public PorosityReport afterFlood;
+	public FloodStatistics floodStatistics;
+
+	//*******************************************************************************
+
+	/**@param rpt A HybridFloodFill report
+	 * @return A copy of the report
+	 */
+	public static HybridFloodReport from(HybridFloodFill.FloodReport rpt)
+	{
+		HybridFloodReport copy = new HybridFloodReport();
+		copy.beforeFlood = from(rpt.beforeFlood);
+		copy.afterFlood = from(rpt.afterFlood);
+		copy.floodStatistics = new FloodStatistics();
+		copy.floodStatistics.totalCycles = rpt.floodStatistics.totalCycles;
+		copy.floodStatistics.contactCycles = rpt.floodStatistics.contactCycles;
+		copy.floodStatistics.contact = rpt.floodStatistics.contact;
+		copy.floodStatistics.meanTort = rpt.floodStatistics.meanTort;
+		copy.floodStatistics.stdDevTort = rpt.floodStatistics.stdDevTort;
+		return copy;
+	}
+
+	//*******************************************************************************
+
+	private static PorosityReport from(HybridFloodFill.PorosityReport phi)
+	{
+		PorosityReport copy = new PorosityReport();
+		copy.floodableVoxelCount = phi.floodableVoxelCount;
+		copy.resolvedVoxelCount = phi.resolvedVoxelCount;
+		copy.unresolvedVoxelCount = phi.unresolvedVoxelCount;
+		copy.resolvedVolume = phi.resolvedVolume;
+		copy.unresolvedVolume = phi.unresolvedVolume;
+		copy.resolvedPorosity = phi.resolvedPorosity;
+		copy.unresolvedPorosity = phi.unresolvedPorosity;
+		copy.totalPorosity = phi.totalPorosity;
+		return copy;
+	}
+}
@@ -32,6 +32,9 @@ public class Hybrid_Flood implements PlugInFilter
 		public int		neighbors;	//6, 18, or 26 Connected
 		public String	conChoice;	//"Face","Face & Edge","Face, Edge &Corners" touching neighbor voxels
 		public boolean	showResults;//Display statistics of the flood
+		public String	engine;		//"Library", "Frontier Queue" or "Parallel Frontier"
+		public boolean	keepMap;	//frontier engines only, show the flood as a new image
+		public boolean	doGDT;		//frontier engines only, the library always measures the tortuosity
 	}
 
 	//**********************************************************************************************
@@ -50,6 +53,8 @@ public class Hybrid_Flood implements PlugInFilter
 		dp.floodVal=255;
 		dp.conChoice = "Face, Edge &Corners";
 		dp.neighbors = 26;
+		dp.engine = "Library";
+		dp.doGDT = true;
 		return dp;
 	}
 
@@ -62,25 +67,12 @@ public class Hybrid_Flood implements PlugInFilter
 		//dir= dir.replace("\\","/");
 		//myURL = "file:///"+dir + "FloodFill/FloodFillHelp/FloodFill_FromTopSlice_3D.htm";
 
-		//Get the maximum voxel value and minimum non-zero voxel value
-		ImageStack stack = imp.getStack();
-		Object[] oImageArr = stack.getImageArray();
-		//dp.floodMax = Float.MIN_VALUE;
-		dp.floodMin = Float.MAX_VALUE;
-		float[] slice;
-		int d = stack.getSize();
-		for(int i = 0; i< d;i++)
-		{
-			slice= (float[]) oImageArr[i];
-			for(int k = 0; k< slice.length;k++)
-			{
-				//if(slice[k] > dp.floodMax) dp.floodMax = slice[k];
-				if(slice[k] < dp.floodMin && slice[k] > 0) dp.floodMin = slice[k];
-			}
-		}
+		//Get the minimum non-zero voxel value, kept with the image by VolumeStats
+		dp.floodMin = (float)VolumeStats.get(imp).getMinPositive();
 
 		HybridFloodFill hff = new HybridFloodFill();
 		String[] conChoices = hff.GetConnectivityChoices();
+		String[] engineChoices = {"Library","Frontier Queue","Parallel Frontier"};
 		Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);		
 		String msg = "This plugin requires a Hybrid Porosity Image.\n"
 				+ "i.e. resolved pores 3D EDM mapped\n"
@@ -91,7 +83,10 @@ public class Hybrid_Flood implements PlugInFilter
 		gd.setInsets(0,0,0);
 		gd.addMessage(msg,myFont,Color.BLACK);
 		gd.addChoice("Connectivity",conChoices,dp.conChoice);
+		gd.addChoice("Flood Engine",engineChoices,dp.engine);
 		gd.addNumericField("Flood Minimum radius ", dp.floodMin, 3);
+		gd.addCheckbox("Keep hybrid map, show flood in new image (frontier engines)", dp.keepMap);
+		gd.addCheckbox("Compute Tortuosity (frontier engines, 4 bytes/voxel)", dp.doGDT);
 		//gd.addNumericField("Flood Maximum pixel value", dp.floodMax, 3);
 		//gd.addNumericField("Connected voxel fill value:", dp.floodVal, 3);
 		gd.addHelp("https://lazzyizzi.github.io/FloodFill.html");
@@ -107,7 +102,10 @@ public class Hybrid_Flood implements PlugInFilter
 		case 1: dp.neighbors = 18; break;
 		case 2: dp.neighbors = 26; break;
 		}
+		dp.engine = engineChoices[gd.getNextChoiceIndex()];
 		dp.floodMin= (float)gd.getNextNumber();
+		dp.keepMap = gd.getNextBoolean();
+		dp.doGDT = gd.getNextBoolean();
 		//dp.floodMax= (float)gd.getNextNumber();
 		//dp.floodVal = (float)gd.getNextNumber();
 
@@ -158,7 +156,36 @@ public class Hybrid_Flood implements PlugInFilter
 
 				Object[] oImageArr = imp.getStack().getImageArray();
 				
-				FloodReport fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors);
+				HybridFloodReport fldRpt;
+				if(dp.engine.equals("Frontier Queue") || dp.engine.equals("Parallel Frontier"))
+				{
+					FrontierHybridFlood fhf = new FrontierHybridFlood();
+					if(dp.engine.equals("Parallel Frontier")) fhf.setThreads(Runtime.getRuntime().availableProcessors());
+					fhf.setBrickIndex(BrickIndex.get(imp, 8));
+					if(dp.keepMap)
+					{
+						//flood into a bit mask and copy the flooded voxels to a new image
+						fldRpt = fhf.floodMask(oImageArr,w,h,d,pw,ph,pd,dp.floodMin, dp.neighbors);
+						Object[] oFloodArr = fhf.getFloodedMap(oImageArr, null);
+						ImageStack floodStack = new ImageStack(w,h);
+						for(int i = 0; i < d; i++) floodStack.addSlice(imp.getStack().getSliceLabel(i+1), oFloodArr[i]);
+						String title = imp.getTitle();
+						int loc = title.lastIndexOf(".");
+						if(loc > 0) title = title.substring(0, loc);
+						ImagePlus floodImp = new ImagePlus(title + "_Flooded.tif", floodStack);
+						floodImp.setCalibration(cal);
+						floodImp.show();
+					}
+					else fldRpt = fhf.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,dp.floodMin, dp.neighbors);
+					if(dp.doGDT) fhf.measureTortuosity(fldRpt, pw, ph, pd);
+				}
+				else
+				{
+					FloodReport libRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors);
+					fldRpt = HybridFloodReport.from(libRpt);
+				}
+				//the stack was flooded in place unless the flood went to a new image
+				if(!dp.keepMap || dp.engine.equals("Library")) ImageCaches.invalidate(imp);
 
 				ShowResults(dp,fldRpt,dp.floodMin);
 
@@ -167,7 +194,7 @@ public class Hybrid_Flood implements PlugInFilter
 		}
 	}
 	
-	private void ShowResults(DialogParams dp, FloodReport fldRpt, double testMin)
+	private void ShowResults(DialogParams dp, HybridFloodReport fldRpt, double testMin)
 	{		
 		ResultsTable rt;
 		
@@ -204,6 +231,12 @@ public class Hybrid_Flood implements PlugInFilter
 		else  rt.addValue("Contact", "False");
 		rt.addValue("Mean Tort", fldRpt.floodStatistics.meanTort);
 		rt.addValue("Tort stdDev", fldRpt.floodStatistics.stdDevTort);
+		if(!Double.isNaN(fldRpt.floodStatistics.meanCycleTort))
+		{
+			//the frontier engine counts cycles, not geodesic distances
+			rt.addValue("Mean Cycle Tort", fldRpt.floodStatistics.meanCycleTort);
+			rt.addValue("Cycle Tort stdDev", fldRpt.floodStatistics.stdDevCycleTort);
+		}
 		
 		rt.show("Flood Results");
 	}
@@ -0,0 +1,290 @@
+package Flood_Tools;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+
+import ij.*;
+import ij.gui.*;
+import ij.io.OpenDialog;
+import ij.measure.*;
+import ij.plugin.PlugIn;
+
+import jhd.FloodFill.*;
+
+/*
+ * Hybrid_Flood, Hybrid_Flood_Scan and Hybrid_Flood_Search for hybrid maps too large
+ * for the Java heap.  The map is a raw float32 file read through memory mapped
+ * slices, only a band of slices is held in memory and the flood state of each radius
+ * is kept as one bit per voxel.  The floods are swept slab by slab, so they report
+ * sweeps instead of dilation cycles.  The tortuosity is measured by sweeps too, with
+ * its distances in a temporary file the size of the map.
+ */
+
+public class Hybrid_Flood_OutOfCore implements PlugIn
+{
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	class DialogParams
+	{
+		public DialogParams() {};
+		public int		width,height,depth;
+		public long		headerBytes;	//bytes before the first slice
+		public boolean	littleEndian;	//ImageJ saves raw files big endian
+		public double	pixelWidth,pixelHeight,pixelDepth;
+		public String	unit;
+		public float	floodMin;		//voxels >= floodMin are floodable
+		public int		neighbors;		//6, 18, or 26 Connected
+		public String	conChoice;		//"Face","Face & Edge","Face, Edge &Corners" touching neighbor voxels
+		public int		bandSize;		//slices held in memory
+		public boolean	saveFlooded;	//write the flooded map to a raw file
+		public String	task;			//"Flood", "Scan" or "Search"
+		public float	floodMax;		//the largest radius of a scan
+		public float	floodInc;		//the scan step or the search's stopping delta
+		public boolean	doTort;			//measure the tortuosity of each flood
+	}
+
+	static DialogParams lastParams;
+
+	//**********************************************************************************************
+
+	private DialogParams GetDefaultParams()
+	{
+		if(lastParams != null) return lastParams;
+		DialogParams dp = new DialogParams();
+		dp.width = 512;
+		dp.height = 512;
+		dp.depth = 512;
+		dp.pixelWidth = 10;
+		dp.pixelHeight = 10;
+		dp.pixelDepth = 10;
+		dp.unit = "um";
+		dp.floodMin = 1;
+		dp.conChoice = "Face, Edge &Corners";
+		dp.neighbors = 26;
+		dp.bandSize = 8;
+		dp.task = "Flood";
+		dp.floodMax = 10;
+		dp.floodInc = 0.5f;
+		return dp;
+	}
+
+	//**********************************************************************************************
+
+	private DialogParams DoMyDialog(DialogParams dp, String fileName)
+	{
+		HybridFloodFill hff = new HybridFloodFill();
+		String[] conChoices = hff.GetConnectivityChoices();
+		Font myFont = new Font(Font.DIALOG, Font.BOLD, 12);
+		String msg = "This plugin requires a raw float32 Hybrid Porosity file.\n"
+				+ "i.e. resolved pores 3D EDM mapped\n"
+				+ "unresolved porosity values (0-1)\n"
+				+ "Pixel scales > 1, e.g 10um/pixel.";
+		String[] taskChoices = {"Flood","Scan","Search"};
+		String note = "The flood is swept a slab at a time, it reports\n"
+				+ "sweeps, not flood cycles.  The tortuosity needs a\n"
+				+ "temporary file as large as the map.";
+
+		GenericDialog gd = new GenericDialog("HybridFlood Out Of Core");
+		gd.setInsets(0,0,0);
+		gd.addMessage(msg,myFont,Color.BLACK);
+		gd.addMessage(fileName);
+		gd.setInsets(0,0,0);
+		gd.addMessage(note);
+		gd.addNumericField("Width", dp.width, 0);
+		gd.addNumericField("Height", dp.height, 0);
+		gd.addNumericField("Slices", dp.depth, 0);
+		gd.addNumericField("Header bytes", dp.headerBytes, 0);
+		gd.addCheckbox("Little-endian byte order", dp.littleEndian);
+		gd.addNumericField("Pixel width", dp.pixelWidth, 4);
+		gd.addNumericField("Pixel height", dp.pixelHeight, 4);
+		gd.addNumericField("Pixel depth", dp.pixelDepth, 4);
+		gd.addStringField("Unit", dp.unit);
+		gd.addChoice("Connectivity",conChoices,dp.conChoice);
+		gd.addChoice("Task",taskChoices,dp.task);
+		gd.addNumericField("Flood Minimum radius (Flood, Scan)", dp.floodMin, 3);
+		gd.addNumericField("Flood Maximum radius (Scan)", dp.floodMax, 3);
+		gd.addNumericField("Scan Increment or Search delta", dp.floodInc, 3);
+		gd.addNumericField("Slices in memory", dp.bandSize, 0);
+		gd.addCheckbox("Compute Tortuosity", dp.doTort);
+		gd.addCheckbox("Save flooded map(s)", dp.saveFlooded);
+		gd.addHelp("https://lazzyizzi.github.io/FloodFill.html");
+		gd.showDialog();
+
+		if(gd.wasCanceled()) return null;
+
+		dp.width = (int)gd.getNextNumber();
+		dp.height = (int)gd.getNextNumber();
+		dp.depth = (int)gd.getNextNumber();
+		dp.headerBytes = (long)gd.getNextNumber();
+		dp.littleEndian = gd.getNextBoolean();
+		dp.pixelWidth = gd.getNextNumber();
+		dp.pixelHeight = gd.getNextNumber();
+		dp.pixelDepth = gd.getNextNumber();
+		dp.unit = gd.getNextString();
+		int choiceIndex = gd.getNextChoiceIndex();
+		dp.conChoice = conChoices[choiceIndex];
+		switch (choiceIndex)
+		{
+		case 0: dp.neighbors = 6; break;
+		case 1: dp.neighbors = 18; break;
+		case 2: dp.neighbors = 26; break;
+		}
+		dp.task = taskChoices[gd.getNextChoiceIndex()];
+		dp.floodMin = (float)gd.getNextNumber();
+		dp.floodMax = (float)gd.getNextNumber();
+		dp.floodInc = (float)gd.getNextNumber();
+		dp.bandSize = (int)gd.getNextNumber();
+		dp.doTort = gd.getNextBoolean();
+		dp.saveFlooded = gd.getNextBoolean();
+
+		return dp;
+	}
+
+	//**********************************************************************************************
+
+	private boolean ValidateParams(DialogParams dp)
+	{
+		boolean result = true;
+		if(dp.width < 1 || dp.height < 1 || dp.depth < 1)
+		{
+			IJ.showMessage("Width, Height and Slices must be 1 or more");
+			result = false;
+		}
+		if(dp.headerBytes < 0)
+		{
+			IJ.showMessage("Header bytes cannot be negative");
+			result = false;
+		}
+		if(dp.pixelWidth <= 0 || dp.pixelHeight <= 0 || dp.pixelDepth <= 0)
+		{
+			IJ.showMessage("Pixel sizes must be greater than 0");
+			result = false;
+		}
+		if(dp.neighbors != 6 && dp.neighbors != 18 && dp.neighbors != 26)
+		{
+			IJ.showMessage("Connectivity  must be \"Face\"(6),\"Face & Edge\"(18),\"Face, Edge &Corners\"(26)");
+			result = false;
+		}
+		if(dp.floodMin <= 0)
+		{
+			IJ.showMessage("Flood Minimum radius must be greater than 0");
+			result = false;
+		}
+		if(!dp.task.equals("Flood") && dp.floodInc <= 0)
+		{
+			IJ.showMessage("The Scan Increment or Search delta must be greater than 0");
+			result = false;
+		}
+		if(dp.task.equals("Scan") && dp.floodMax < dp.floodMin)
+		{
+			IJ.showMessage("The Flood Maximum radius must not be less than the Flood Minimum radius");
+			result = false;
+		}
+		if(dp.bandSize < 3)
+		{
+			IJ.showMessage("At least 3 slices must be held in memory");
+			result = false;
+		}
+		return result;
+	}
+
+	//**********************************************************************************************
+
+	public void run(String arg)
+	{
+		OpenDialog od = new OpenDialog("Open raw float32 Hybrid Map");
+		if(od.getFileName() == null) return;
+		String path = od.getDirectory() + od.getFileName();
+
+		DialogParams dp = DoMyDialog(GetDefaultParams(), od.getFileName());
+		if(dp==null || !ValidateParams(dp)) return;
+		lastParams = dp;
+
+		String basePath = path;
+		int dotIndex = basePath.lastIndexOf(".");
+		if(dotIndex > basePath.lastIndexOf(File.separator)) basePath = basePath.substring(0, dotIndex);
+
+		OutOfCoreHybridFlood oocFlood = new OutOfCoreHybridFlood();
+		try(MappedFloatVolume vol = new MappedFloatVolume(path, dp.width, dp.height, dp.depth,
+				dp.headerBytes, dp.littleEndian, dp.bandSize))
+		{
+			if(dp.task.equals("Scan"))
+			{
+				Hybrid_Flood_Scan.scanOutOfCore(vol, dp.pixelWidth, dp.pixelHeight, dp.pixelDepth, dp.unit, dp.neighbors,
+						dp.floodMin, dp.floodMax, dp.floodInc, dp.doTort, dp.saveFlooded ? basePath + "_" : null, dp.littleEndian);
+				return;
+			}
+			if(dp.task.equals("Search"))
+			{
+				Hybrid_Flood_Search.searchOutOfCore(vol, dp.pixelWidth, dp.pixelHeight, dp.pixelDepth, dp.unit, dp.neighbors,
+						dp.floodInc, dp.doTort, dp.saveFlooded ? basePath + "_Brk.raw" : null, dp.littleEndian);
+				return;
+			}
+
+			HybridFloodReport fldRpt = oocFlood.hybridFloodFill(vol,
+					dp.pixelWidth, dp.pixelHeight, dp.pixelDepth, dp.floodMin, dp.neighbors);
+			if(dp.doTort) oocFlood.measureTortuosity(fldRpt, dp.pixelWidth, dp.pixelHeight, dp.pixelDepth);
+			ShowResults(dp,fldRpt,dp.floodMin);
+
+			if(dp.saveFlooded)
+			{
+				String outPath = basePath + "_Flooded.raw";
+				IJ.showStatus("Writing " + outPath);
+				oocFlood.writeFloodedMap(outPath, dp.littleEndian);
+				IJ.showStatus("Saved " + outPath);
+			}
+		}
+		catch(IOException e)
+		{
+			IJ.error("Hybrid Flood Out Of Core", e.getMessage());
+		}
+	}
+
+	//**********************************************************************************************
+
+	private void ShowResults(DialogParams dp, HybridFloodReport fldRpt, double testMin)
+	{
+		ResultsTable rt;
+
+		String unit = dp.unit;
+
+		rt = ResultsTable.getResultsTable("Flood Results");
+		if(rt == null) rt = new ResultsTable();
+		rt.setPrecision(4);
+		rt.incrementCounter();
+		//Flood statistics
+		rt.addValue("Flood Min " +unit, testMin);
+		rt.addValue("Floodable VoxCnt", fldRpt.beforeFlood.floodableVoxelCount);
+		rt.addValue("Res Vox Cnt", fldRpt.beforeFlood.resolvedVoxelCount);
+		rt.addValue("Unres Vox Cnt", fldRpt.beforeFlood.unresolvedVoxelCount);
+		rt.addValue("Res Vol " +unit+(char)0x0b3, fldRpt.beforeFlood.resolvedVolume);
+		rt.addValue("Unres Vol " +unit+(char)0x0b3, fldRpt.beforeFlood.unresolvedVolume);
+		rt.addValue("Res Phi%", fldRpt.beforeFlood.resolvedPorosity*100);
+		rt.addValue("Unres Phi%", fldRpt.beforeFlood.unresolvedPorosity*100);
+		rt.addValue("Total Phi%", fldRpt.beforeFlood.totalPorosity*100);
+
+		rt.addValue("Post Floodable VoxCnt", fldRpt.afterFlood.floodableVoxelCount);
+		rt.addValue("Post Res Vox Cnt", fldRpt.afterFlood.resolvedVoxelCount);
+		rt.addValue("Post Unres Vox Cnt", fldRpt.afterFlood.unresolvedVoxelCount);
+		rt.addValue("Post Res Vol " +unit+(char)0x0b3, fldRpt.afterFlood.resolvedVolume);
+		rt.addValue("Post Unres Vol " +unit+(char)0x0b3, fldRpt.afterFlood.unresolvedVolume);
+		rt.addValue("Post Res Phi%", fldRpt.afterFlood.resolvedPorosity*100);
+		rt.addValue("Post Unres Phi%", fldRpt.afterFlood.unresolvedPorosity*100);
+		rt.addValue("Post Total Phi%", fldRpt.afterFlood.totalPorosity*100);
+
+		//The out of core flood counts slab sweeps, not dilation cycles
+		rt.addValue("Flood Sweeps", fldRpt.floodStatistics.totalCycles);
+		rt.addValue("Contact Sweeps", fldRpt.floodStatistics.contactCycles);
+		if(fldRpt.floodStatistics.contact) rt.addValue("Contact", "True");
+		else  rt.addValue("Contact", "False");
+		if(dp.doTort)
+		{
+			rt.addValue("Mean Tort", fldRpt.floodStatistics.meanTort);
+			rt.addValue("Tort stdDev", fldRpt.floodStatistics.stdDevTort);
+		}
+
+		rt.show("Flood Results");
+	}
+}
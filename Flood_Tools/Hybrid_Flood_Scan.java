@@ -3,6 +3,16 @@ package Flood_Tools;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 //import FloodFill.Flood_Connectivity_Search_V3.DialogParams;
 
@@ -11,6 +21,7 @@ import java.awt.Font;
 import ij.*;
 import ij.process.*;
 import ij.gui.*;
+import ij.io.FileSaver;
 import ij.plugin.filter.*;
 import ij.measure.*;
 
@@ -47,6 +58,11 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 		public boolean	saveImages;
 		public boolean	showBreakImage;
 		public boolean	showPlot;
+		public boolean	incremental;	//flood all radii in one pass, high to low
+		public boolean	parallelScan;	//flood several radii at once
+		public int		nThreads;		//the most radii flooded at once
+		public double	memoryMB;		//the memory the parallel floods may use
+		public boolean	maskFloods;		//parallel floods keep bit masks, not map copies
 	}
 
 	//**********************************************************************************************
@@ -68,6 +84,12 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 		dp.saveImages=false;
 		dp.showBreakImage=false;
 		dp.showPlot=false;
+		dp.incremental=false;
+		dp.parallelScan=false;
+		dp.maskFloods=false;
+		dp.nThreads = Runtime.getRuntime().availableProcessors();
+		Runtime rt = Runtime.getRuntime();
+		dp.memoryMB = Math.floor((rt.maxMemory() - rt.totalMemory() + rt.freeMemory())/2/1048576.0);
 		return dp;
 	}
 
@@ -127,6 +149,16 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 		//gd.addNumericField("Connected voxel fill value:", dp.floodVal, 3);
 		gd.addCheckbox("Save Images", dp.saveImages);
 		gd.addCheckbox("Show Plot", dp.showPlot);
+		gd.addCheckbox("One pass incremental flood", dp.incremental);
+		gd.setInsets(10,0,0);
+		gd.addMessage("Parallel Scan",myFont,Color.BLACK);
+		gd.addCheckbox("Flood several radii at once", dp.parallelScan);
+		gd.addNumericField("Threads", dp.nThreads, 0);
+		gd.addNumericField("Memory budget MB", dp.memoryMB, 0);
+		gd.addCheckbox("Bit mask floods (no map copies)", dp.maskFloods);
+		gd.setInsets(0,20,0);
+		gd.addMessage("Bit mask floods use the Frontier Queue engine,\n"
+				+ "they report cycle tortuosity, not the Library's.");
 		gd.addHelp("https://lazzyizzi.github.io/HybridFloodScan.html");
 		gd.showDialog();
 
@@ -145,6 +177,11 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 		dp.floodInc= gd.getNextNumber();
 		dp.saveImages = gd.getNextBoolean();
 		dp.showPlot = gd.getNextBoolean();
+		dp.incremental = gd.getNextBoolean();
+		dp.parallelScan = gd.getNextBoolean();
+		dp.nThreads = (int)gd.getNextNumber();
+		dp.memoryMB = gd.getNextNumber();
+		dp.maskFloods = gd.getNextBoolean();
 
 		return dp;
 	}
@@ -159,6 +196,21 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 			IJ.showMessage("Connectivity  must be \"Face\"(6),\"Face & Edge\"(18),\"Face, Edge &Corners\"(26)");
 			result = false;
 		}
+		if(dp.incremental && dp.saveImages)
+		{
+			IJ.showMessage("The one pass incremental flood does not save images");
+			result = false;
+		}
+		if(dp.parallelScan && dp.nThreads < 1)
+		{
+			IJ.showMessage("Threads must be 1 or more");
+			result = false;
+		}
+		if(dp.parallelScan && dp.memoryMB <= 0)
+		{
+			IJ.showMessage("The memory budget must be greater than 0");
+			result = false;
+		}
 		return result;
 	}
 
@@ -196,37 +248,40 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 				Object[] oHybridArr = hybridImp.getStack().getImageArray();
 				PorosityReport phiRpt = hff.characterize(oHybridArr, w, h, d, pw, ph, pd);
 				hff.phiMapToHybridMap(oHybridArr, w, h, d, pw, ph, pd);
+				//the copy was converted in place, the floods only change the workspace copies of it
+				ImageCaches.invalidate(hybridImp);
 				//hybridImp.show();
-				ResultsTable dryResults;
-
-				dryResults = ResultsTable.getResultsTable("Dry Results");		
-				if(dryResults == null) dryResults = new ResultsTable();
-				dryResults.setPrecision(4);
-				dryResults.incrementCounter();
-				dryResults.addValue("Resolved Pore Volume "+pu+(char)0x0b3,phiRpt.resolvedVolume);
-				dryResults.addValue("Unresolved Pore Volume "+pu+(char)0x0b3,phiRpt.unresolvedVolume);
-				dryResults.addValue("Tot Pore Volume "+pu+(char)0x0b3,phiRpt.resolvedVolume + phiRpt.unresolvedVolume);
-				
-				dryResults.addValue("Resolved "+(char)0x3c6+"%",phiRpt.resolvedPorosity*100);	
-				dryResults.addValue("Unresolved "+(char)0x3c6+"%",phiRpt.unresolvedPorosity*100);	
-				dryResults.addValue("Tot "+(char)0x3c6+"%",phiRpt.totalPorosity*100);
-				dryResults.show("Dry Results");
+				showDryResults(pu, phiRpt.resolvedVolume, phiRpt.unresolvedVolume,
+						phiRpt.resolvedPorosity, phiRpt.unresolvedPorosity, phiRpt.totalPorosity);
 	
-				// the main loop for scanning the volume connectivity
-				for(double floodR = dp.floodMin; floodR <= dp.floodMax; floodR+=dp.floodInc)
+				if(dp.incremental)
+				{
+					IncrementalScan(dp,hybridImp);
+				}
+				else if(dp.parallelScan)
 				{
-					dupImp = hybridImp.duplicate();
-					Object[] oImageArr = dupImp.getStack().getImageArray();
-					fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,floodR, dp.neighbors,noEDM,doGDT);
-					if(dp.saveImages)
+					ParallelScan(dp,hybridImp,basename,dir);
+				}
+				else
+				{
+					// the main loop for scanning the volume connectivity
+					// one scratch volume is restored from the hybrid map for each flood
+					FloodWorkspace workspace = new FloodWorkspace(hybridImp);
+					dupImp = workspace.getImagePlus();
+					for(double floodR = dp.floodMin; floodR <= dp.floodMax; floodR+=dp.floodInc)
 					{
-						fileName = basename + IJ.d2s((double)floodR,4);
-						IJ.saveAs(dupImp, "Tiff", dir+fileName+".tif");
-						IJ.showStatus("Scanning R="+floodR);
-					}
-					dupImp.close();
-					showFloodResults(dp,fldRpt,floodR,fileName);
-				}	
+						Object[] oImageArr = workspace.restore();
+						fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,floodR, dp.neighbors,noEDM,doGDT);
+						if(dp.saveImages)
+						{
+							fileName = basename + IJ.d2s((double)floodR,4);
+							IJ.saveAs(dupImp, "Tiff", dir+fileName+".tif");
+							IJ.showStatus("Scanning R="+floodR);
+						}
+						showFloodResults(dp,fldRpt,floodR,fileName);
+					}	
+					workspace.close();
+				}
 
 				//Special plotter colors contact image values red
 				if(dp.showPlot)
@@ -301,25 +356,244 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 
 	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 
+	/**Floods all of the radii in one pass from the largest to the smallest*/
+	private void IncrementalScan(DialogParams dp, ImagePlus hybridImp)
+	{
+		Calibration cal = hybridImp.getCalibration();
+		ArrayList<Double> radii = new ArrayList<Double>();
+		for(double floodR = dp.floodMin; floodR <= dp.floodMax; floodR+=dp.floodInc) radii.add(floodR);
+		double[] thresholds = new double[radii.size()];
+		for(int i = 0; i < thresholds.length; i++) thresholds[i] = radii.get(i);
+
+		IncrementalHybridFlood ihf = new IncrementalHybridFlood();
+		IncrementalHybridFlood.FloodStep[] steps = ihf.scan(hybridImp.getStack().getImageArray(),
+				hybridImp.getWidth(), hybridImp.getHeight(), hybridImp.getStack().getSize(),
+				cal.pixelWidth, cal.pixelHeight, cal.pixelDepth, dp.neighbors, thresholds);
+		for(int i = 0; i < steps.length; i++)
+		{
+			showFloodResults(dp,steps[i]);
+		}
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**Floods several radii at once.  Library floods give each worker its own HybridFloodFill,
+	 * kept in a ThreadLocal as the slice modes of Exact_Euclidean and Geodesic_Transform do,
+	 * and its own workspace, so the workers share no flood state and flood their radii at
+	 * the same time.  The memory budget allows two volumes per worker, the workspace and
+	 * the flood's own scratch.  Mask floods share the read-only hybrid map and keep each
+	 * flood as a one bit per voxel mask, a workspace is only needed to save images.  A mask
+	 * flood also holds its top slice seeds and its frontier queues, 8 bytes a voxel, whose
+	 * current and next cycles together hold at most every pore voxel once, with up to
+	 * twice that in queue growth.  The pore voxels are bounded by the non-empty bricks.
+	 * The number of workers is limited by the thread count and by the memory budget.
+	 * Results are added to the Flood Results table in radius order as they complete.
+	 */
+	private void ParallelScan(DialogParams dp, ImagePlus hybridImp, String basename, String dir)
+	{
+		final int w = hybridImp.getWidth();
+		final int h = hybridImp.getHeight();
+		final int d = hybridImp.getStack().getSize();
+		Calibration cal = hybridImp.getCalibration();
+		final double pw = cal.pixelWidth;
+		final double ph = cal.pixelHeight;
+		final double pd = cal.pixelDepth;
+		final String pu = cal.getUnit();
+		final int neighbors = dp.neighbors;
+		final Object[] oHybridArr = hybridImp.getStack().getImageArray();
+		final boolean maskFloods = dp.maskFloods;
+		final boolean saveImages = dp.saveImages;
+
+		ArrayList<Double> radii = new ArrayList<Double>();
+		for(double floodR = dp.floodMin; floodR <= dp.floodMax; floodR+=dp.floodInc) radii.add(floodR);
+		if(radii.isEmpty()) return;
+
+		double voxels = (double)w*h*d;
+		double volumeMB = 4.0*voxels/1048576.0;
+		final BrickIndex bricks = maskFloods ? BrickIndex.get(hybridImp, 8) : null;
+		double workerMB = 2*volumeMB;
+		if(maskFloods)
+		{
+			double poreVoxels = voxels*(1 - bricks.getEmptyFraction());
+			workerMB = (voxels/8 + 8.0*w*h + 2*8*poreVoxels)/1048576.0 + (saveImages ? volumeMB : 0);
+		}
+		int nWorkers = (int)Math.min(dp.nThreads, Math.floor(dp.memoryMB/workerMB));
+		nWorkers = Math.max(1, Math.min(nWorkers, radii.size()));
+		IJ.showStatus("Hybrid Flood Scan: " + nWorkers + " radii at once");
+
+		final BlockingQueue<FloodWorkspace> workspaces = new ArrayBlockingQueue<FloodWorkspace>(nWorkers);
+		if(!maskFloods || saveImages)
+		{
+			for(int i = 0; i < nWorkers; i++) workspaces.add(new FloodWorkspace(hybridImp));
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(nWorkers);
+		ArrayList<Future<HybridFloodReport>> results = new ArrayList<Future<HybridFloodReport>>();
+		final ThreadLocal<HybridFloodFill> floods = new ThreadLocal<HybridFloodFill>()
+		{
+			@Override
+			protected HybridFloodFill initialValue()
+			{
+				return new HybridFloodFill();
+			}
+		};
+		final ThreadLocal<FrontierHybridFlood> masks = new ThreadLocal<FrontierHybridFlood>()
+		{
+			@Override
+			protected FrontierHybridFlood initialValue()
+			{
+				FrontierHybridFlood fhf = new FrontierHybridFlood();
+				fhf.setBrickIndex(bricks);
+				return fhf;
+			}
+		};
+		for(final double floodR : radii)
+		{
+			final String path = saveImages ? dir + basename + IJ.d2s(floodR,4) + ".tif" : null;
+			results.add(pool.submit(new Callable<HybridFloodReport>()
+			{
+				@Override
+				public HybridFloodReport call() throws Exception
+				{
+					if(maskFloods)
+					{
+						FrontierHybridFlood fhf = masks.get();
+						HybridFloodReport rpt = fhf.floodMask(oHybridArr,w,h,d,pw,ph,pd,(float)floodR, neighbors);
+						if(path != null)
+						{
+							FloodWorkspace workspace = workspaces.take();
+							try
+							{
+								fhf.getFloodedMap(oHybridArr, workspace.getImagePlus().getStack().getImageArray());
+								new FileSaver(workspace.getImagePlus()).saveAsTiffStack(path);
+							}
+							finally
+							{
+								workspaces.put(workspace);
+							}
+						}
+						return rpt;
+					}
+
+					FloodWorkspace workspace = workspaces.take();
+					try
+					{
+						Object[] oImageArr = workspace.restore();
+						FloodReport rpt = floods.get().hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,floodR, neighbors,noEDM,doGDT);
+						if(path != null) new FileSaver(workspace.getImagePlus()).saveAsTiffStack(path);
+						return HybridFloodReport.from(rpt);
+					}
+					finally
+					{
+						workspaces.put(workspace);
+					}
+				}
+			}));
+		}
+		pool.shutdown();
+
+		try
+		{
+			for(int i = 0; i < radii.size(); i++)
+			{
+				double floodR = radii.get(i);
+				HybridFloodReport rpt = results.get(i).get();
+				String fileName = saveImages ? basename + IJ.d2s(floodR,4) : null;
+				showFloodResults(dp,rpt,floodR,fileName);
+				IJ.showStatus("Scanning R="+floodR);
+				IJ.showProgress(i+1, radii.size());
+			}
+		}
+		catch(InterruptedException e)
+		{
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		catch(ExecutionException e)
+		{
+			pool.shutdownNow();
+			IJ.error("Hybrid Flood Scan", "Parallel scan failed: " + e.getCause());
+		}
+		finally
+		{
+			try
+			{
+				pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			for(FloodWorkspace workspace : workspaces) workspace.close();
+		}
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
 	//private void showFloodResults(DialogParams dp, HybridFloodFill_V3.FloodReport fldRpt, double testMin, String fileName)
 	private void showFloodResults(DialogParams dp, FloodReport fldRpt, double testMin, String fileName)
+	{
+		addFloodRow(dp, testMin, fileName, fldRpt.floodStatistics.contact,
+				fldRpt.afterFlood.resolvedVolume, fldRpt.afterFlood.unresolvedVolume,
+				fldRpt.floodStatistics.contactCycles, fldRpt.floodStatistics.totalCycles,
+				fldRpt.floodStatistics.meanTort, fldRpt.floodStatistics.stdDevTort, Double.NaN, Double.NaN);
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	private void showFloodResults(DialogParams dp, HybridFloodReport fldRpt, double testMin, String fileName)
+	{
+		addFloodRow(dp, testMin, fileName, fldRpt.floodStatistics.contact,
+				fldRpt.afterFlood.resolvedVolume, fldRpt.afterFlood.unresolvedVolume,
+				fldRpt.floodStatistics.contactCycles, fldRpt.floodStatistics.totalCycles,
+				fldRpt.floodStatistics.meanTort, fldRpt.floodStatistics.stdDevTort,
+				fldRpt.floodStatistics.meanCycleTort, fldRpt.floodStatistics.stdDevCycleTort);
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**The incremental flood does not count cycles or measure tortuosity*/
+	private void showFloodResults(DialogParams dp, IncrementalHybridFlood.FloodStep step)
+	{
+		addFloodRow(dp, step.threshold, null, step.contact,
+				step.resolvedVolume, step.unresolvedVolume,
+				Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	private void addFloodRow(DialogParams dp, double testMin, String fileName, boolean contact,
+			double resolvedVolume, double unresolvedVolume,
+			double contactCycles, double totalCycles, double meanTort, double stdDevTort,
+			double meanCycleTort, double stdDevCycleTort)
+	{
+		addFloodRow(imp.getCalibration().getXUnit(), dp.neighbors, dp.saveImages, testMin, fileName, contact,
+				resolvedVolume, unresolvedVolume, contactCycles, totalCycles, meanTort, stdDevTort,
+				meanCycleTort, stdDevCycleTort);
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**Adds a row to the Flood Results table, the saturations are relative to the first row of Dry Results*/
+	static void addFloodRow(String unit, int neighbors, boolean saveImages, double testMin, String fileName, boolean contact,
+			double resolvedVolume, double unresolvedVolume,
+			double contactCycles, double totalCycles, double meanTort, double stdDevTort,
+			double meanCycleTort, double stdDevCycleTort)
 	{
 		ResultsTable floodResults;					
 		
-		String unit = imp.getCalibration().getXUnit();
-		
 		floodResults = ResultsTable.getResultsTable("Flood Results");		
 		if(floodResults == null) floodResults = new ResultsTable();
 		floodResults.setPrecision(5);
 		floodResults.incrementCounter();
-		if(dp.saveImages)floodResults.addValue("File Name ",fileName);		
+		if(saveImages)floodResults.addValue("File Name ",fileName);		
 		
 		floodResults.addValue("Min R "+unit,testMin);
 		//rt.addValue("Max R "+unit,dp.floodMax);
 		//rt.addValue("Max Radius "+unit,dp.floodMax*pixelSize);
 		//rt.addValue("Flood Val",dp.floodVal);
-		floodResults.addValue("Connectivity", dp.neighbors);
-		if(fldRpt.floodStatistics.contact == true) floodResults.addValue("Breakthrough","True");
+		floodResults.addValue("Connectivity", neighbors);
+		if(contact == true) floodResults.addValue("Breakthrough","True");
 		else floodResults.addValue("Breakthrough","False");
 		
 //		rt.addValue("Res Flood Voxels",fldRpt.afterFlood.resolvedVoxelCount);
@@ -327,9 +601,9 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 //		rt.addValue("Tot Flood Voxels",fldRpt.afterFlood.resolvedVoxelCount+fldRpt.afterFlood.unresolvedVoxelCount);
 
 
-		floodResults.addValue("Res Flood "+unit+(char)0x0b3,fldRpt.afterFlood.resolvedVolume);
-		floodResults.addValue("Unres Flood "+unit+(char)0x0b3,fldRpt.afterFlood.unresolvedVolume);
-		floodResults.addValue("Tot Flood "+unit+(char)0x0b3,fldRpt.afterFlood.resolvedVolume+fldRpt.afterFlood.unresolvedVolume);
+		floodResults.addValue("Res Flood "+unit+(char)0x0b3,resolvedVolume);
+		floodResults.addValue("Unres Flood "+unit+(char)0x0b3,unresolvedVolume);
+		floodResults.addValue("Tot Flood "+unit+(char)0x0b3,resolvedVolume+unresolvedVolume);
 		
 		ResultsTable dryResults = ResultsTable.getResultsTable("Dry Results");
 
@@ -337,21 +611,97 @@ public class Hybrid_Flood_Scan implements PlugInFilter
 		double dryUnresVol = dryResults.getValue("Unresolved Pore Volume "+unit+(char)0x0b3, 0);
 		double dryTotVol = dryResults.getValue("Tot Pore Volume "+unit+(char)0x0b3, 0);
 		
-		floodResults.addValue("Res Sat% ",fldRpt.afterFlood.resolvedVolume/dryResVol);
-		floodResults.addValue("Unres Sat% ",fldRpt.afterFlood.unresolvedVolume/dryUnresVol);
-		floodResults.addValue("Tot Sat% ",(fldRpt.afterFlood.resolvedVolume+fldRpt.afterFlood.unresolvedVolume)/dryTotVol);
-
-		floodResults.addValue("Cycles at Contact",fldRpt.floodStatistics.contactCycles);
-		floodResults.addValue("Tot flood Cycles",fldRpt.floodStatistics.totalCycles);
-		floodResults.addValue("Tort Mean", fldRpt.floodStatistics.meanTort);
-		floodResults.addValue("Tort StdDev", fldRpt.floodStatistics.stdDevTort);
+		floodResults.addValue("Res Sat% ",resolvedVolume/dryResVol);
+		floodResults.addValue("Unres Sat% ",unresolvedVolume/dryUnresVol);
+		floodResults.addValue("Tot Sat% ",(resolvedVolume+unresolvedVolume)/dryTotVol);
+
+		floodResults.addValue("Cycles at Contact",contactCycles);
+		floodResults.addValue("Tot flood Cycles",totalCycles);
+		floodResults.addValue("Tort Mean", meanTort);
+		floodResults.addValue("Tort StdDev", stdDevTort);
+		if(!Double.isNaN(meanCycleTort))
+		{
+			//the bit mask floods count cycles, not geodesic distances
+			floodResults.addValue("Cycle Tort Mean", meanCycleTort);
+			floodResults.addValue("Cycle Tort StdDev", stdDevCycleTort);
+		}
 		
 		//rt.addValue("Res Flood "+voxelUnit,wholeFloodVol);
 		//rt.addValue("Tot Flood "+voxelUnit,totFloodVol );
 		floodResults.show("Flood Results");
 	}
 
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**Adds a row of the unflooded pore space to the Dry Results table*/
+	static void showDryResults(String unit, double resolvedVolume, double unresolvedVolume,
+			double resolvedPorosity, double unresolvedPorosity, double totalPorosity)
+	{
+		ResultsTable dryResults;
+
+		dryResults = ResultsTable.getResultsTable("Dry Results");		
+		if(dryResults == null) dryResults = new ResultsTable();
+		dryResults.setPrecision(4);
+		dryResults.incrementCounter();
+		dryResults.addValue("Resolved Pore Volume "+unit+(char)0x0b3,resolvedVolume);
+		dryResults.addValue("Unresolved Pore Volume "+unit+(char)0x0b3,unresolvedVolume);
+		dryResults.addValue("Tot Pore Volume "+unit+(char)0x0b3,resolvedVolume + unresolvedVolume);
+		
+		dryResults.addValue("Resolved "+(char)0x3c6+"%",resolvedPorosity*100);	
+		dryResults.addValue("Unresolved "+(char)0x3c6+"%",unresolvedPorosity*100);	
+		dryResults.addValue("Tot "+(char)0x3c6+"%",totalPorosity*100);
+		dryResults.show("Dry Results");
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
 
+	/**Scans the radii of a hybrid map too large for the heap, read a band of slices at a time.
+	 * Each radius is flooded by its own OutOfCoreHybridFlood, so only its flood state, a bit
+	 * per voxel, is held in memory.  The out of core flood counts slab sweeps rather than
+	 * flood cycles, so the cycle columns are left empty.
+	 * @param vol The hybrid map
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param unit The calibration unit
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param floodMin The smallest radius to flood
+	 * @param floodMax The largest radius to flood
+	 * @param floodInc The step between radii
+	 * @param doTort true to measure the tortuosity of each flood
+	 * @param saveBase The path and file name start of the flooded maps, null to not save them
+	 * @param littleEndian The byte order of the saved maps
+	 * @throws IOException If a flooded map or the tortuosity's distance file cannot be written
+	 */
+	static void scanOutOfCore(SliceProvider vol, double pw, double ph, double pd, String unit, int neighbors,
+			double floodMin, double floodMax, double floodInc, boolean doTort, String saveBase, boolean littleEndian) throws IOException
+	{
+		boolean first = true;
+		for(double floodR = floodMin; floodR <= floodMax; floodR+=floodInc)
+		{
+			OutOfCoreHybridFlood oocFlood = new OutOfCoreHybridFlood();
+			HybridFloodReport rpt = oocFlood.hybridFloodFill(vol, pw, ph, pd, (float)floodR, neighbors);
+			if(first)
+			{
+				HybridFloodReport.PorosityReport dry = rpt.beforeFlood;
+				showDryResults(unit, dry.resolvedVolume, dry.unresolvedVolume,
+						dry.resolvedPorosity, dry.unresolvedPorosity, dry.totalPorosity);
+				first = false;
+			}
+			if(doTort) oocFlood.measureTortuosity(rpt, pw, ph, pd);
+			String fileName = null;
+			if(saveBase != null)
+			{
+				fileName = saveBase + IJ.d2s(floodR,4) + ".raw";
+				oocFlood.writeFloodedMap(fileName, littleEndian);
+			}
+			addFloodRow(unit, neighbors, saveBase != null, floodR, fileName, rpt.floodStatistics.contact,
+					rpt.afterFlood.resolvedVolume, rpt.afterFlood.unresolvedVolume,
+					Double.NaN, Double.NaN, rpt.floodStatistics.meanTort, rpt.floodStatistics.stdDevTort,
+					Double.NaN, Double.NaN);
+			IJ.showStatus("Scanning R="+floodR);
+		}
+	}
 
 }
 
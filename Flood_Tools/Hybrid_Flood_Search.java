@@ -3,6 +3,7 @@ package Flood_Tools;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.io.IOException;
 
 import ij.*;
 import ij.process.*;
@@ -41,6 +42,8 @@ public class Hybrid_Flood_Search implements PlugInFilter
 		public boolean	saveImages;
 		public boolean	showBreakImage;
 		public boolean	showPlot;
+		public boolean	bottleneck;		//find the breakthrough radius in one pass
+		public boolean	showRadiusMap;	//show the max admissible radius map
 	}
 
 	//**********************************************************************************************
@@ -62,6 +65,8 @@ public class Hybrid_Flood_Search implements PlugInFilter
 		dp.saveImages=false;
 		dp.showBreakImage=false;
 		dp.showPlot=false;
+		dp.bottleneck=false;
+		dp.showRadiusMap=false;
 		return dp;
 	}
 
@@ -96,6 +101,8 @@ public class Hybrid_Flood_Search implements PlugInFilter
 		gd.addCheckbox("Save Images", dp.saveImages);
 		gd.addCheckbox("Show breakthrough Image", dp.showBreakImage);
 		gd.addCheckbox("Show Plot", dp.showPlot);
+		gd.addCheckbox("Exact one pass search", dp.bottleneck);
+		gd.addCheckbox("Show max radius map", dp.showRadiusMap);
 		gd.addHelp("https://lazzyizzi.github.io/HybridFloodSearch.html");
 		gd.showDialog();
 
@@ -113,6 +120,8 @@ public class Hybrid_Flood_Search implements PlugInFilter
 		dp.saveImages = gd.getNextBoolean();
 		dp.showBreakImage = gd.getNextBoolean();
 		dp.showPlot = gd.getNextBoolean();
+		dp.bottleneck = gd.getNextBoolean();
+		dp.showRadiusMap = gd.getNextBoolean();
 
 		return dp;
 	}
@@ -188,42 +197,68 @@ public class Hybrid_Flood_Search implements PlugInFilter
 				//The EDM will not be needed again so we call hybridFloodFill with noEDM
 				hff.phiMapToHybridMap(oHybridArr,w,h,d,pw,ph,pd);
 							
-				dp.floodMax = Float.MIN_VALUE;
-				dp.floodMin = Float.MAX_VALUE;
-				float[] slice;
-				for(int i = 0; i< d;i++)
+				//the hybrid map was converted in place, the floods only change the workspace copies of it
+				ImageCaches.invalidate(hybridImp);
+				VolumeStats hybridStats = VolumeStats.get(hybridImp);
+				dp.floodMax = hybridStats.getMax();
+				dp.floodMin = hybridStats.getMinPositive();
+				
+				
+				//one scratch volume is restored from the hybrid map for each flood
+				FloodWorkspace workspace = new FloodWorkspace(hybridImp);
+				dupImp = workspace.getImagePlus();
+				boolean floodMinTest, floodMaxTest;
+				double testLowerLimit;
+				float bottleneckR = 0;
+				
+				if(dp.bottleneck || dp.showRadiusMap)
 				{
-					slice= (float[]) oHybridArr[i];
-					for(int k = 0; k< slice.length;k++)
+					//the breakthrough radius is the bottleneck of the best top to bottom path
+					BottleneckHybridFlood bhf = new BottleneckHybridFlood();
+					if(dp.showRadiusMap)
 					{
-						if(slice[k] > dp.floodMax) dp.floodMax = slice[k];
-						if(slice[k] < dp.floodMin && slice[k] > 0) dp.floodMin = slice[k];
+						Object[] oMapArr = bhf.maxRadiusMap(oHybridArr,w,h,d,dp.neighbors);
+						ImageStack mapStack = new ImageStack(w,h);
+						for(int i = 0; i < d; i++) mapStack.addSlice(null, oMapArr[i]);
+						ImagePlus mapImp = new ImagePlus(basename+"MaxRadius.tif", mapStack);
+						mapImp.setCalibration(cal);
+						mapImp.show();
+						mapImp.setDisplayRange(0, dp.floodMax);
+						IJ.run("Fire");
 					}
+					else bhf.breakthroughRadius(oHybridArr,w,h,d,dp.neighbors);
+					bottleneckR = bhf.getBreakthroughRadius();
 				}
 				
-				
-				IJ.showStatus("Testing Connectivity Limits");
-				dupImp = hybridImp.duplicate();
-				oImageArr = dupImp.getStack().getImageArray();
-				
-				fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors,noEDM,doGDT);
-				
-				dupImp.close();
-				boolean floodMinTest = fldRpt.floodStatistics.contact;
-				showFloodResults(dp,fldRpt,dp.floodMin,"Not Saved");
-				
-				dupImp = hybridImp.duplicate();
-				oImageArr = dupImp.getStack().getImageArray();
-				double testLowerLimit = dp.floodMax -.1f;
-				
-				fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,testLowerLimit, dp.neighbors,noEDM,doGDT);
-				
-				dupImp.close();
-				boolean floodMaxTest = fldRpt.floodStatistics.contact;
-				showFloodResults(dp,fldRpt,testLowerLimit,"Not Saved");
+				if(dp.bottleneck)
+				{
+					//the flood at r reaches the bottom if r <= bottleneckR, the same tests as the floods below
+					floodMinTest = bottleneckR > 0 && bottleneckR >= dp.floodMin;
+					floodMaxTest = bottleneckR >= dp.floodMax -.1f;
+					testLowerLimit = bottleneckR;
+				}
+				else
+				{
+					IJ.showStatus("Testing Connectivity Limits");
+					oImageArr = workspace.restore();
+					
+					fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,dp.floodMin, dp.neighbors,noEDM,doGDT);
+					
+					floodMinTest = fldRpt.floodStatistics.contact;
+					showFloodResults(dp,fldRpt,dp.floodMin,"Not Saved");
+					
+					oImageArr = workspace.restore();
+					testLowerLimit = dp.floodMax -.1f;
+					
+					fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,testLowerLimit, dp.neighbors,noEDM,doGDT);
+					
+					floodMaxTest = fldRpt.floodStatistics.contact;
+					showFloodResults(dp,fldRpt,testLowerLimit,"Not Saved");
+				}
 				
 				if(floodMinTest == false || floodMaxTest==true)
 				{
+					workspace.close();
 					IJ.error("Volume connectivity not within test range");
 					return;
 				}
@@ -244,12 +279,16 @@ public class Hybrid_Flood_Search implements PlugInFilter
 					//We have already determined that the flood connects at floodMin
 					//so we set our initial solution to that value.
 					double brkMin = lowerLimit;
-					boolean done = false;
+					boolean done = dp.bottleneck;
+					if(done)
+					{
+						brkMin = bottleneckR;
+						testLowerLimit = brkMin;
+					}
 					
 					while(done == false)
 					{
-						dupImp = hybridImp.duplicate();
-						oImageArr = dupImp.getStack().getImageArray();
+						oImageArr = workspace.restore();
 						
 						fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,testLowerLimit, dp.neighbors,noEDM,doGDT);
 						
@@ -259,7 +298,6 @@ public class Hybrid_Flood_Search implements PlugInFilter
 							IJ.saveAs(dupImp, "Tiff", dir+fileName+".tif");
 							IJ.showStatus("Bisection Search");
 						}
-						dupImp.close();
 
 						showFloodResults(dp,fldRpt,testLowerLimit,fileName);
 
@@ -278,9 +316,8 @@ public class Hybrid_Flood_Search implements PlugInFilter
 						if(upperLimit-lowerLimit < dp.floodInc) done = true;						
 					}
 					
-					//Recalculate the breakthrough image
-					dupImp = hybridImp.duplicate();
-					oImageArr = dupImp.getStack().getImageArray();
+					//Recalculate the breakthrough image in the workspace, it is kept if displayed
+					oImageArr = workspace.restore();
 					fldRpt = hff.hybridFloodFill(oImageArr,w,h,d,pw,ph,pd,pu,brkMin, dp.neighbors,noEDM,doGDT);
 					showFloodResults(dp,fldRpt,brkMin,fileName);
 					
@@ -297,21 +334,13 @@ public class Hybrid_Flood_Search implements PlugInFilter
 						dupImp.setTitle(fileName+"Brk.tif");
 						dupImp.show();
 						//Re-scale the display between the min and max distance of the entire stack
-						float fmin=Float.MAX_VALUE,fmax=Float.MIN_VALUE;
-						float val;				
-						for(int k=0;k<d;k++)
-						{
-							float[] fData= (float[])oImageArr[k];
-							for(int j=0;j<fData.length;j++)
-							{
-								val = fData[j];
-								if(val< fmin) fmin=val;
-								else if(val>fmax) fmax=val;								
-							}
-						}				
-						dupImp.setDisplayRange(fmin, fmax);
+						//the workspace is flooded in place, so its statistics are made again
+						ImageCaches.invalidate(dupImp);
+						VolumeStats dupStats = VolumeStats.get(dupImp);
+						dupImp.setDisplayRange(dupStats.getMin(), dupStats.getMax());
 						IJ.run("Fire");
 					}
+					else workspace.close();
 					
 					if(dp.showPlot)
 					{
@@ -391,6 +420,94 @@ public class Hybrid_Flood_Search implements PlugInFilter
 		floodResults.show("Flood Results");
 	}
 
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**The bisection search for the breakthrough radius of a hybrid map too large for the heap,
+	 * read a band of slices at a time.  Each test radius is flooded by its own OutOfCoreHybridFlood,
+	 * so only its flood state, a bit per voxel, is held in memory.  The rows go to the same tables
+	 * as Hybrid_Flood_Scan's out of core scan, without cycle counts.
+	 * @param vol The hybrid map
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param unit The calibration unit
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param floodInc The search stops when the bracket is narrower than floodInc
+	 * @param doTort true to measure the tortuosity of each flood
+	 * @param savePath The path of the breakthrough flooded map, null to not save it
+	 * @param littleEndian The byte order of the saved map
+	 * @return The breakthrough radius, NaN if the connectivity is not within the map's range
+	 * @throws IOException If the flooded map or the tortuosity's distance file cannot be written
+	 */
+	static double searchOutOfCore(SliceProvider vol, double pw, double ph, double pd, String unit, int neighbors,
+			double floodInc, boolean doTort, String savePath, boolean littleEndian) throws IOException
+	{
+		//the range of the map's pore values
+		double floodMin = Float.MAX_VALUE, floodMax = 0;
+		IJ.showStatus("Finding the pore value range");
+		for(int z = 0; z < vol.getDepth(); z++)
+		{
+			for(float v : vol.getSlice(z))
+			{
+				if(v > floodMax) floodMax = v;
+				if(v > 0 && v < floodMin) floodMin = v;
+			}
+			IJ.showProgress(z, vol.getDepth());
+		}
+
+		boolean floodMinTest = testOutOfCore(vol, pw, ph, pd, unit, neighbors, floodMin, doTort, true, null, littleEndian);
+		double testLowerLimit = floodMax -.1f;
+		boolean floodMaxTest = testOutOfCore(vol, pw, ph, pd, unit, neighbors, testLowerLimit, doTort, false, null, littleEndian);
+		if(floodMinTest == false || floodMaxTest == true)
+		{
+			IJ.error("Volume connectivity not within test range");
+			return Double.NaN;
+		}
+
+		IJ.showStatus("Bisection Search");
+		double lowerLimit = floodMin;
+		double upperLimit = floodMax;
+		double brkMin = lowerLimit;
+		while(upperLimit - lowerLimit >= floodInc)
+		{
+			testLowerLimit = (upperLimit+lowerLimit)/2.0;
+			if(testOutOfCore(vol, pw, ph, pd, unit, neighbors, testLowerLimit, doTort, false, null, littleEndian))
+			{
+				lowerLimit = testLowerLimit;
+				if(testLowerLimit > brkMin) brkMin = testLowerLimit;
+			}
+			else upperLimit = testLowerLimit;
+		}
+
+		//flood the breakthrough radius again to report and save it
+		testOutOfCore(vol, pw, ph, pd, unit, neighbors, brkMin, doTort, false, savePath, littleEndian);
+		return brkMin;
+	}
+
+	//++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
+
+	/**Floods one test radius out of core and adds its row to the Flood Results table
+	 * @return true if the flood reached the bottom slice
+	 */
+	private static boolean testOutOfCore(SliceProvider vol, double pw, double ph, double pd, String unit, int neighbors,
+			double floodR, boolean doTort, boolean showDry, String savePath, boolean littleEndian) throws IOException
+	{
+		OutOfCoreHybridFlood oocFlood = new OutOfCoreHybridFlood();
+		HybridFloodReport rpt = oocFlood.hybridFloodFill(vol, pw, ph, pd, (float)floodR, neighbors);
+		if(showDry)
+		{
+			HybridFloodReport.PorosityReport dry = rpt.beforeFlood;
+			Hybrid_Flood_Scan.showDryResults(unit, dry.resolvedVolume, dry.unresolvedVolume,
+					dry.resolvedPorosity, dry.unresolvedPorosity, dry.totalPorosity);
+		}
+		if(doTort) oocFlood.measureTortuosity(rpt, pw, ph, pd);
+		if(savePath != null) oocFlood.writeFloodedMap(savePath, littleEndian);
+		Hybrid_Flood_Scan.addFloodRow(unit, neighbors, savePath != null, floodR, savePath, rpt.floodStatistics.contact,
+				rpt.afterFlood.resolvedVolume, rpt.afterFlood.unresolvedVolume,
+				Double.NaN, Double.NaN, rpt.floodStatistics.meanTort, rpt.floodStatistics.stdDevTort,
+				Double.NaN, Double.NaN);
+		return rpt.floodStatistics.contact;
+	}
 
 }
 
@@ -0,0 +1,66 @@
+package Flood_Tools;
+
+/*
+ * The data the flood and geodesic plugins keep with an image as properties.
+ *
+ * Each kept item is checked against the stack's image array, which does not change
+ * when the voxels are edited in place.  The classes that keep data register their
+ * property key here, and one ImageListener drops every registered key when an image
+ * with unsaved changes is updated or when it is closed.  Plugins that change a stack
+ * in place call invalidate, and attach their own results again afterwards.
+ */
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ij.ImageListener;
+import ij.ImagePlus;
+
+public class ImageCaches
+{
+	static final CopyOnWriteArrayList<String> keys = new CopyOnWriteArrayList<String>();
+
+	static
+	{
+		ImagePlus.addImageListener(new ImageListener()
+		{
+			@Override
+			public void imageOpened(ImagePlus imp)
+			{
+			}
+
+			@Override
+			public void imageClosed(ImagePlus imp)
+			{
+				invalidate(imp);
+			}
+
+			@Override
+			public void imageUpdated(ImagePlus imp)
+			{
+				if(imp.changes) invalidate(imp);
+			}
+		});
+	}
+
+	//*******************************************************************************
+
+	/**@param key An image property key dropped by invalidate*/
+	static void register(String key)
+	{
+		keys.addIfAbsent(key);
+	}
+
+	//*******************************************************************************
+
+	/**Drops everything kept with the image, call it after changing the stack in place
+	 * @param imp The image
+	 */
+	public static void invalidate(ImagePlus imp)
+	{
+		if(imp == null) return;
+		for(String key : keys)
+		{
+			if(imp.getProperty(key) != null) imp.setProperty(key, null);
+		}
+	}
+}
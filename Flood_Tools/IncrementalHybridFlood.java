@@ -0,0 +1,206 @@
+package Flood_Tools;
+
+/*
+ * Floods a hybrid map at a series of radius thresholds in one pass.
+ *
+ * A voxel is floodable at threshold t if its hybrid map value is at least t, so the
+ * flood from the top slice at a smaller threshold always contains the flood at a
+ * larger one.  The thresholds are visited from high to low and the flood grows
+ * from the previous one: voxels that touch the flood but are not yet admissible
+ * are parked in the bucket of the first threshold that admits them, and when the
+ * scan reaches that threshold the bucket is flooded outwards.  Each voxel is
+ * visited once, so the whole scan costs about one flood.
+ *
+ * The flooded volumes and breakthrough are recorded for every threshold.  The flood
+ * is a connectivity flood of the hybrid map, flood cycles and tortuosity are not
+ * measured.
+ */
+
+import ij.IJ;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+public class IncrementalHybridFlood
+{
+	/**The flood at one threshold*/
+	public static class FloodStep
+	{
+		public double threshold;
+		public boolean contact;			//the flood reached the bottom slice
+		public long floodedVoxelCount;
+		public long resolvedVoxelCount;
+		public long unresolvedVoxelCount;
+		public double resolvedVolume;
+		public double unresolvedVolume;
+	}
+
+	int width,height,depth,sliceSize;
+	Object[] hybrid;
+	float[] levels;					//the thresholds high to low
+	long[][] seen;					//[slice][bit] voxels flooded or parked in a bucket
+	LongList[] buckets;				//[level] voxels waiting for their threshold
+	int current;					//the level being flooded
+	int[] dx,dy,dz;
+
+	//*******************************************************************************
+
+	/**Floods a hybrid map from its top slice at each threshold
+	 * @param oHybridArr The hybrid map float[] slices, it is not modified
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param thresholds The flood minimum radii in any order
+	 * @return The flood at each threshold, in the order of thresholds
+	 */
+	public FloodStep[] scan(Object[] oHybridArr, int width, int height, int depth,
+			double pw, double ph, double pd, int neighbors, double[] thresholds)
+	{
+		this.hybrid = oHybridArr;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		current = 0;
+		sliceSize = width*height;
+		int[][] offsets = FloodConnectivity.offsets(neighbors);
+		dx = offsets[0];
+		dy = offsets[1];
+		dz = offsets[2];
+
+		//the thresholds high to low, order[k] is the caller's index of level k
+		int nLevels = thresholds.length;
+		Integer[] order = new Integer[nLevels];
+		for(int k = 0; k < nLevels; k++) order[k] = k;
+		final double[] t = thresholds;
+		Arrays.sort(order, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(t[b], t[a]);
+			}
+		});
+		levels = new float[nLevels];
+		for(int k = 0; k < nLevels; k++) levels[k] = (float)thresholds[order[k]];
+
+		seen = new long[depth][];
+		buckets = new LongList[nLevels];
+		for(int k = 0; k < nLevels; k++) buckets[k] = new LongList();
+
+		//park the top slice
+		float[] top = (float[])hybrid[0];
+		for(int i = 0; i < sliceSize; i++) park(i, top[i]);
+
+		double voxVol = pw*ph*pd;
+		long resCnt = 0, unresCnt = 0;
+		double phiSum = 0;
+		boolean contact = false;
+		FloodStep[] steps = new FloodStep[nLevels];
+		long bottom = (long)(depth-1)*sliceSize;
+
+		for(int k = 0; k < nLevels; k++)
+		{
+			current = k;
+			IJ.showStatus("Incremental flood R=" + IJ.d2s(levels[k],4));
+			IJ.showProgress(k, nLevels);
+			LongList stack = buckets[k];
+			while(stack.size > 0)
+			{
+				long v = stack.pop();
+				int z = (int)(v / sliceSize);
+				int i = (int)(v % sliceSize);
+				float val = ((float[])hybrid[z])[i];
+				if(val >= 1) resCnt++;
+				else
+				{
+					unresCnt++;
+					phiSum += val;
+				}
+				if(v >= bottom) contact = true;
+
+				int x = i % width;
+				int y = i / width;
+				for(int n = 0; n < dx.length; n++)
+				{
+					int nx = x + dx[n];
+					int ny = y + dy[n];
+					int nz = z + dz[n];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height || nz < 0 || nz >= depth) continue;
+					int j = ny*width + nx;
+					park((long)nz*sliceSize + j, ((float[])hybrid[nz])[j]);
+				}
+			}
+			buckets[k] = null;
+
+			FloodStep step = new FloodStep();
+			step.threshold = levels[k];
+			step.contact = contact;
+			step.resolvedVoxelCount = resCnt;
+			step.unresolvedVoxelCount = unresCnt;
+			step.floodedVoxelCount = resCnt + unresCnt;
+			step.resolvedVolume = resCnt*voxVol;
+			step.unresolvedVolume = phiSum*voxVol;
+			steps[order[k]] = step;
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+		seen = null;
+		buckets = null;
+		hybrid = null;
+		return steps;
+	}
+
+	//*******************************************************************************
+
+	/**Puts a voxel that touches the flood in the bucket of the first level that admits it*/
+	private void park(long v, float val)
+	{
+		if(val <= 0 || val < levels[levels.length-1]) return;
+		int z = (int)(v / sliceSize);
+		int i = (int)(v % sliceSize);
+		long[] bits = seen[z];
+		if(bits == null) bits = seen[z] = new long[(sliceSize + 63)/64];
+		if((bits[i >>> 6] & (1L << i)) != 0) return;
+		bits[i >>> 6] |= 1L << i;
+		buckets[Math.max(current, firstLevel(val))].add(v);
+	}
+
+	//*******************************************************************************
+
+	/**@return The index of the highest level that is at most val*/
+	private int firstLevel(float val)
+	{
+		int lo = 0, hi = levels.length - 1;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(levels[mid] <= val) hi = mid;
+			else lo = mid + 1;
+		}
+		return lo;
+	}
+
+	//*******************************************************************************
+
+	/**A growable stack of voxel indices*/
+	static class LongList
+	{
+		long[] data = new long[1024];
+		int size;
+
+		void add(long v)
+		{
+			if(size == data.length) data = Arrays.copyOf(data, size*2);
+			data[size++] = v;
+		}
+
+		long pop()
+		{
+			return data[--size];
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package Flood_Tools;
+
+/*
+ * A raw float32 volume on disk, read through memory mapped NIO buffers.
+ *
+ * Each slice is mapped with FileChannel.map when it is needed and copied into a
+ * small band of resident slices.  The band is a most recently used cache, so
+ * engines that sweep through the volume a few slices at a time only hold the
+ * band in memory whatever the size of the file.
+ *
+ * The file may have a header, e.g. an uncompressed TIFF with contiguous slices,
+ * which is skipped with headerBytes.
+ */
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class MappedFloatVolume implements SliceProvider, Closeable
+{
+	RandomAccessFile raf;
+	FileChannel channel;
+	int width,height,depth;
+	long headerBytes;
+	long sliceBytes;
+	ByteOrder order;
+	int bandSize;
+
+	//the resident band of slices, most recently used last
+	LinkedHashMap<Integer,float[]> band = new LinkedHashMap<Integer,float[]>(16, 0.75f, true);
+	ArrayDeque<float[]> spare = new ArrayDeque<float[]>();
+
+	//*******************************************************************************
+
+	/**Opens a raw float32 volume for reading
+	 * @param path The file path
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param headerBytes The number of bytes before the first slice
+	 * @param littleEndian true for Intel byte order, ImageJ writes raw files big endian
+	 * @param bandSize The number of slices held in memory, at least 3
+	 * @throws IOException If the file cannot be opened or is too short
+	 */
+	public MappedFloatVolume(String path, int width, int height, int depth, long headerBytes,
+			boolean littleEndian, int bandSize) throws IOException
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.headerBytes = headerBytes;
+		this.bandSize = Math.max(3, bandSize);
+		order = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		sliceBytes = 4L*width*height;
+		if(sliceBytes > Integer.MAX_VALUE) throw new IOException("Slices larger than 2GB are not supported");
+
+		raf = new RandomAccessFile(path, "r");
+		channel = raf.getChannel();
+		long needed = headerBytes + sliceBytes*depth;
+		if(channel.size() < needed)
+		{
+			close();
+			throw new IOException("The file is too short for " + width + "x" + height + "x" + depth + " float32 voxels");
+		}
+	}
+
+	//*******************************************************************************
+
+	@Override
+	public int getWidth()
+	{
+		return width;
+	}
+
+	@Override
+	public int getHeight()
+	{
+		return height;
+	}
+
+	@Override
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	//*******************************************************************************
+
+	@Override
+	public synchronized float[] getSlice(int z)
+	{
+		float[] slice = band.get(z);
+		if(slice != null) return slice;
+
+		if(band.size() >= bandSize)
+		{
+			Iterator<Map.Entry<Integer,float[]>> eldest = band.entrySet().iterator();
+			spare.push(eldest.next().getValue());
+			eldest.remove();
+		}
+		slice = spare.isEmpty() ? new float[width*height] : spare.pop();
+
+		try
+		{
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, headerBytes + z*sliceBytes, sliceBytes);
+			buf.order(order).asFloatBuffer().get(slice);
+		}
+		catch(IOException e)
+		{
+			throw new RuntimeException("Could not read slice " + (z+1), e);
+		}
+		band.put(z, slice);
+		return slice;
+	}
+
+	//*******************************************************************************
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		band.clear();
+		spare.clear();
+		if(channel != null) channel.close();
+		if(raf != null) raf.close();
+		channel = null;
+		raf = null;
+	}
+}
@@ -0,0 +1,536 @@
+package Flood_Tools;
+
+/*
+ * A hybrid flood fill for volumes read a few slices at a time through a SliceProvider.
+ *
+ * The hybrid map holds 0 for solid, the unresolved porosity (0-1) for sub-resolution
+ * pores and the EDM radius (>=1) for resolved pores.  A voxel is floodable if its
+ * value is at least floodMin.  The flood starts from the floodable voxels of the
+ * top slice and contact is made when it reaches the bottom slice.
+ *
+ * The flood state is one bit per voxel, held as a long[] bitset per slice, 1/32 the
+ * size of the float volume.  The volume itself is swept slab by slab: each slice
+ * is seeded from the flooded voxels of the slices above and below it and then
+ * flooded in-plane.  Sweeps run down then up until nothing changes, and a slice
+ * is only read again if one of its neighbors gained flooded voxels since it was
+ * last visited, so only a band of three slices needs to be resident.
+ *
+ * The report's cycles count sweeps rather than dilation cycles.
+ *
+ * measureTortuosity fills in meanTort and stdDevTort the way
+ * FrontierHybridFlood.measureTortuosity does, from the 26 connected geodesic
+ * distance of each flooded bottom slice voxel to the top slice.  The distances are
+ * found by the same kind of sweeps: each slice takes the distances of the slices
+ * above and below it across one step and spreads them in-plane with a heap, and
+ * sweeps run down then up until no distance drops.  Only three distance slices are
+ * held in memory, the others are kept in a temporary file, 4 bytes a voxel, that
+ * is deleted afterwards.
+ */
+
+import ij.IJ;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class OutOfCoreHybridFlood
+{
+	SliceProvider vol;
+	int width,height,depth,words;
+	float floodMin;
+	long[][] flooded;		//[slice][bit] the flood state
+	int[] changedAt;		//[slice] the step at which the slice last gained voxels
+	int[] visitedAt;		//[slice] the step at which the slice was last flooded
+	int step;
+	int[] queue;
+	int[] crossDx,crossDy;	//neighbor offsets in the slices above and below
+	int[] planeDx,planeDy;	//neighbor offsets in the slice
+	FileChannel distFile;	//the distance slices while the tortuosity is measured
+	boolean[] stored;		//[slice] true once the slice's distances are in distFile
+	ByteBuffer distBuf;
+	int[] heap;				//the in-plane distance heap, voxel indices
+	float[] heapKeys;
+	int heapSize;
+
+	//*******************************************************************************
+
+	/**Floods a hybrid map from its top slice
+	 * @param vol The hybrid map
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @param floodMin Voxels with values at least floodMin are floodable
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @return The flood report
+	 */
+	public HybridFloodReport hybridFloodFill(SliceProvider vol, double pw, double ph, double pd, float floodMin, int neighbors)
+	{
+		this.vol = vol;
+		this.floodMin = floodMin;
+		width = vol.getWidth();
+		height = vol.getHeight();
+		depth = vol.getDepth();
+		words = (width*height + 63)/64;
+		setConnectivity(neighbors);
+
+		HybridFloodReport rpt = new HybridFloodReport();
+		rpt.floodStatistics = new HybridFloodReport.FloodStatistics();
+		IJ.showStatus("Measuring the pore space");
+		rpt.beforeFlood = measure(pw,ph,pd,false);
+
+		flooded = new long[depth][];
+		changedAt = new int[depth];
+		visitedAt = new int[depth];
+		queue = new int[width*height];
+		step = 0;
+
+		//Sweep down then up until nothing changes
+		boolean changed = true;
+		int sweep = 0;
+		while(changed)
+		{
+			changed = false;
+			sweep++;
+			boolean down = (sweep & 1) == 1;
+			IJ.showStatus("Flood sweep " + sweep);
+			for(int i = 0; i < depth; i++)
+			{
+				int z = down ? i : depth - 1 - i;
+				if(floodSlice(z, sweep == 1)) changed = true;
+				IJ.showProgress(i, depth);
+			}
+			if(!rpt.floodStatistics.contact && flooded[depth-1] != null && !isEmpty(flooded[depth-1]))
+			{
+				rpt.floodStatistics.contact = true;
+				rpt.floodStatistics.contactCycles = sweep;
+			}
+		}
+		rpt.floodStatistics.totalCycles = sweep;
+		IJ.showProgress(1.0);
+
+		IJ.showStatus("Measuring the flooded space");
+		rpt.afterFlood = measure(pw,ph,pd,true);
+		queue = null;
+		IJ.showStatus("");
+		return rpt;
+	}
+
+	//*******************************************************************************
+
+	/**Measures the geodesic tortuosity of the last flood from the top slice to the bottom slice
+	 * @param rpt The last flood's report, its meanTort and stdDevTort are filled in
+	 * @param pw The voxel width
+	 * @param ph The voxel height
+	 * @param pd The voxel depth
+	 * @throws IOException If the temporary distance file cannot be written
+	 */
+	public void measureTortuosity(HybridFloodReport rpt, double pw, double ph, double pd) throws IOException
+	{
+		if(depth < 2 || !rpt.floodStatistics.contact) return;
+		int sliceSize = width*height;
+		float[] planeCost = new float[8];
+		int[] pdx = {-1,1,0,0,-1,1,-1,1}, pdy = {0,0,-1,1,-1,-1,1,1};
+		for(int n = 0; n < 8; n++) planeCost[n] = (float)Math.sqrt(pdx[n]*pdx[n]*pw*pw + pdy[n]*pdy[n]*ph*ph);
+		float[] crossCost = new float[9];
+		int[] cdx = {0,-1,1,0,0,-1,1,-1,1}, cdy = {0,0,0,-1,1,-1,-1,1,1};
+		for(int n = 0; n < 9; n++) crossCost[n] = (float)Math.sqrt(cdx[n]*cdx[n]*pw*pw + cdy[n]*cdy[n]*ph*ph + pd*pd);
+
+		File tmp = File.createTempFile("GeodesicSweep", ".raw");
+		tmp.deleteOnExit();
+		float[] cur = new float[sliceSize], up = new float[sliceSize], dn = new float[sliceSize];
+		try(RandomAccessFile raf = new RandomAccessFile(tmp, "rw"))
+		{
+			distFile = raf.getChannel();
+			stored = new boolean[depth];
+			distBuf = ByteBuffer.allocate(4*sliceSize).order(ByteOrder.nativeOrder());
+			heap = new int[1024];
+			heapKeys = new float[1024];
+			int[] distChangedAt = new int[depth];
+			int[] distVisitedAt = new int[depth];
+			int distStep = 0;
+
+			//sweep down then up until no distance drops
+			boolean changed = true;
+			int sweep = 0;
+			while(changed)
+			{
+				changed = false;
+				sweep++;
+				boolean down = (sweep & 1) == 1;
+				IJ.showStatus("Tortuosity sweep " + sweep);
+				for(int k = 0; k < depth; k++)
+				{
+					int z = down ? k : depth - 1 - k;
+					if(flooded[z] == null) continue;
+					boolean seedTop = sweep == 1 && z == 0;
+					boolean above = z > 0 && distChangedAt[z-1] > distVisitedAt[z];
+					boolean below = z < depth - 1 && distChangedAt[z+1] > distVisitedAt[z];
+					if(!seedTop && !above && !below) continue;
+
+					distStep++;
+					distVisitedAt[z] = distStep;
+					readDistances(z, cur);
+					if(above) readDistances(z-1, up);
+					if(below) readDistances(z+1, dn);
+					if(relaxSlice(z, cur, seedTop, above ? up : null, below ? dn : null, pdx, pdy, planeCost, cdx, cdy, crossCost))
+					{
+						writeDistances(z, cur);
+						distChangedAt[z] = distStep;
+						changed = true;
+					}
+					IJ.showProgress(k, depth);
+				}
+			}
+			IJ.showProgress(1.0);
+			readDistances(depth - 1, cur);
+		}
+		finally
+		{
+			distFile = null;
+			stored = null;
+			distBuf = null;
+			heap = null;
+			heapKeys = null;
+			tmp.delete();
+		}
+
+		double straight = (depth - 1)*pd;
+		double tortSum = 0, tortSum2 = 0;
+		long tortCnt = 0;
+		for(int i = 0; i < sliceSize; i++)
+		{
+			if(cur[i] == Float.POSITIVE_INFINITY) continue;
+			double tort = cur[i]/straight;
+			tortSum += tort;
+			tortSum2 += tort*tort;
+			tortCnt++;
+		}
+		if(tortCnt > 0)
+		{
+			double mean = tortSum/tortCnt;
+			rpt.floodStatistics.meanTort = mean;
+			rpt.floodStatistics.stdDevTort = Math.sqrt(Math.max(0, tortSum2/tortCnt - mean*mean));
+		}
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**Lowers the distances of a slice's flooded voxels from the slices above and below and spreads them in-plane
+	 * @return true if any distance dropped
+	 */
+	private boolean relaxSlice(int z, float[] dist, boolean seedTop, float[] up, float[] dn,
+			int[] pdx, int[] pdy, float[] planeCost, int[] cdx, int[] cdy, float[] crossCost)
+	{
+		long[] bits = flooded[z];
+		heapSize = 0;
+		for(int w = 0; w < bits.length; w++)
+		{
+			for(long word = bits[w]; word != 0; word &= word - 1)
+			{
+				int i = (w << 6) + Long.numberOfTrailingZeros(word);
+				float best = seedTop ? 0 : dist[i];
+				int x = i % width;
+				int y = i / width;
+				for(int n = 0; n < cdx.length && (up != null || dn != null); n++)
+				{
+					int nx = x + cdx[n];
+					int ny = y + cdy[n];
+					if(nx < 0 || nx >= width || ny < 0 || ny >= height) continue;
+					int j = ny*width + nx;
+					if(up != null && up[j] + crossCost[n] < best) best = up[j] + crossCost[n];
+					if(dn != null && dn[j] + crossCost[n] < best) best = dn[j] + crossCost[n];
+				}
+				if(best < dist[i])
+				{
+					dist[i] = best;
+					push(i, best);
+				}
+			}
+		}
+		if(heapSize == 0) return false;
+
+		//spread in-plane, the smallest distance first
+		while(heapSize > 0)
+		{
+			float key = heapKeys[0];
+			int i = pop();
+			if(key > dist[i]) continue;
+			int x = i % width;
+			int y = i / width;
+			for(int n = 0; n < pdx.length; n++)
+			{
+				int nx = x + pdx[n];
+				int ny = y + pdy[n];
+				if(nx < 0 || nx >= width || ny < 0 || ny >= height) continue;
+				int j = ny*width + nx;
+				if((bits[j >>> 6] & (1L << j)) == 0) continue;
+				float nd = key + planeCost[n];
+				if(nd < dist[j])
+				{
+					dist[j] = nd;
+					push(j, nd);
+				}
+			}
+		}
+		return true;
+	}
+
+	//*******************************************************************************
+
+	private void push(int i, float key)
+	{
+		if(heapSize == heap.length)
+		{
+			heap = Arrays.copyOf(heap, 2*heapSize);
+			heapKeys = Arrays.copyOf(heapKeys, 2*heapSize);
+		}
+		int c = heapSize++;
+		while(c > 0)
+		{
+			int p = (c - 1) >> 1;
+			if(heapKeys[p] <= key) break;
+			heap[c] = heap[p];
+			heapKeys[c] = heapKeys[p];
+			c = p;
+		}
+		heap[c] = i;
+		heapKeys[c] = key;
+	}
+
+	//*******************************************************************************
+
+	private int pop()
+	{
+		int top = heap[0];
+		int i = heap[--heapSize];
+		float key = heapKeys[heapSize];
+		int c = 0;
+		while(true)
+		{
+			int child = 2*c + 1;
+			if(child >= heapSize) break;
+			if(child + 1 < heapSize && heapKeys[child+1] < heapKeys[child]) child++;
+			if(heapKeys[child] >= key) break;
+			heap[c] = heap[child];
+			heapKeys[c] = heapKeys[child];
+			c = child;
+		}
+		heap[c] = i;
+		heapKeys[c] = key;
+		return top;
+	}
+
+	//*******************************************************************************
+
+	/**Reads a slice's distances, a slice not yet written is unreached*/
+	private void readDistances(int z, float[] dist) throws IOException
+	{
+		if(!stored[z])
+		{
+			Arrays.fill(dist, Float.POSITIVE_INFINITY);
+			return;
+		}
+		distBuf.clear();
+		long pos = 4L*width*height*z;
+		while(distBuf.hasRemaining())
+		{
+			if(distFile.read(distBuf, pos + distBuf.position()) < 0) throw new IOException("The distance file is too short");
+		}
+		distBuf.flip();
+		distBuf.asFloatBuffer().get(dist);
+	}
+
+	//*******************************************************************************
+
+	private void writeDistances(int z, float[] dist) throws IOException
+	{
+		distBuf.clear();
+		distBuf.asFloatBuffer().put(dist);
+		long pos = 4L*width*height*z;
+		while(distBuf.hasRemaining()) distFile.write(distBuf, pos + distBuf.position());
+		stored[z] = true;
+	}
+
+	//*******************************************************************************
+
+	/**@param z The zero based slice index
+	 * @return The flood state of the slice as a bitset, null if nothing was flooded
+	 */
+	public long[] getFloodedSlice(int z)
+	{
+		return flooded[z];
+	}
+
+	//*******************************************************************************
+
+	/**Writes a raw float32 copy of the map with the unflooded voxels set to zero
+	 * @param path The output file path
+	 * @param littleEndian true for Intel byte order
+	 * @throws IOException If the file cannot be written
+	 */
+	public void writeFloodedMap(String path, boolean littleEndian) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate(4*width*height).order(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+		try(RandomAccessFile raf = new RandomAccessFile(path, "rw"))
+		{
+			raf.setLength(0);
+			FileChannel out = raf.getChannel();
+			for(int z = 0; z < depth; z++)
+			{
+				float[] slice = vol.getSlice(z);
+				long[] bits = flooded[z];
+				buf.clear();
+				for(int i = 0; i < slice.length; i++)
+				{
+					buf.putFloat(bits != null && (bits[i >>> 6] & (1L << i)) != 0 ? slice[i] : 0);
+				}
+				buf.flip();
+				while(buf.hasRemaining()) out.write(buf);
+				IJ.showProgress(z, depth);
+			}
+		}
+		IJ.showProgress(1.0);
+	}
+
+	//*******************************************************************************
+
+	/**Seeds a slice from its neighbors and floods it in-plane
+	 * @param z The zero based slice index
+	 * @param firstSweep true on the first sweep, when the top slice is seeded
+	 * @return true if the slice gained flooded voxels
+	 */
+	private boolean floodSlice(int z, boolean firstSweep)
+	{
+		boolean seedTop = firstSweep && z == 0;
+		boolean above = z > 0 && changedAt[z-1] > visitedAt[z];
+		boolean below = z < depth - 1 && changedAt[z+1] > visitedAt[z];
+		if(!seedTop && !above && !below) return false;
+
+		step++;
+		visitedAt[z] = step;
+		float[] slice = vol.getSlice(z);
+		long[] bits = flooded[z];
+		long[] up = above ? flooded[z-1] : null;
+		long[] dn = below ? flooded[z+1] : null;
+
+		//seed from the neighboring slices
+		int qLen = 0;
+		for(int y = 0, i = 0; y < height; y++)
+		{
+			for(int x = 0; x < width; x++, i++)
+			{
+				if(slice[i] < floodMin) continue;
+				if(bits != null && (bits[i >>> 6] & (1L << i)) != 0) continue;
+				if(seedTop || touches(up, x, y) || touches(dn, x, y))
+				{
+					if(bits == null) bits = flooded[z] = new long[words];
+					bits[i >>> 6] |= 1L << i;
+					queue[qLen++] = i;
+				}
+			}
+		}
+		if(qLen == 0) return false;
+
+		//flood in-plane
+		for(int q = 0; q < qLen; q++)
+		{
+			int i = queue[q];
+			int x = i % width;
+			int y = i / width;
+			for(int n = 0; n < planeDx.length; n++)
+			{
+				int nx = x + planeDx[n];
+				int ny = y + planeDy[n];
+				if(nx < 0 || nx >= width || ny < 0 || ny >= height) continue;
+				int j = ny*width + nx;
+				if(slice[j] < floodMin || (bits[j >>> 6] & (1L << j)) != 0) continue;
+				bits[j >>> 6] |= 1L << j;
+				queue[qLen++] = j;
+			}
+		}
+		changedAt[z] = step;
+		return true;
+	}
+
+	//*******************************************************************************
+
+	/**@return true if any of the cross-slice neighbors of (x,y) are flooded in bits*/
+	private boolean touches(long[] bits, int x, int y)
+	{
+		if(bits == null) return false;
+		for(int n = 0; n < crossDx.length; n++)
+		{
+			int nx = x + crossDx[n];
+			int ny = y + crossDy[n];
+			if(nx < 0 || nx >= width || ny < 0 || ny >= height) continue;
+			int j = ny*width + nx;
+			if((bits[j >>> 6] & (1L << j)) != 0) return true;
+		}
+		return false;
+	}
+
+	//*******************************************************************************
+
+	private boolean isEmpty(long[] bits)
+	{
+		for(long word : bits)
+		{
+			if(word != 0) return false;
+		}
+		return true;
+	}
+
+	//*******************************************************************************
+
+	/**Measures the pore space of the whole map or of the flooded voxels*/
+	private HybridFloodReport.PorosityReport measure(double pw, double ph, double pd, boolean floodedOnly)
+	{
+		HybridFloodReport.PorosityTally tally = new HybridFloodReport.PorosityTally(floodMin);
+		for(int z = 0; z < depth; z++)
+		{
+			long[] bits = floodedOnly ? flooded[z] : null;
+			if(floodedOnly && bits == null) continue;
+			float[] slice = vol.getSlice(z);
+			for(int i = 0; i < slice.length; i++)
+			{
+				if(floodedOnly && (bits[i >>> 6] & (1L << i)) == 0) continue;
+				tally.add(slice[i]);
+			}
+			IJ.showProgress(z, depth);
+		}
+		return tally.finish(pw*ph*pd, width*height*(double)depth);
+	}
+
+	//*******************************************************************************
+
+	private void setConnectivity(int neighbors)
+	{
+		if(neighbors == 6)
+		{
+			crossDx = new int[] {0};
+			crossDy = new int[] {0};
+			planeDx = new int[] {-1,1,0,0};
+			planeDy = new int[] {0,0,-1,1};
+		}
+		else
+		{
+			planeDx = new int[] {-1,1,0,0,-1,1,-1,1};
+			planeDy = new int[] {0,0,-1,1,-1,-1,1,1};
+			if(neighbors == 18)
+			{
+				crossDx = new int[] {0,-1,1,0,0};
+				crossDy = new int[] {0,0,0,-1,1};
+			}
+			else
+			{
+				crossDx = new int[] {0,-1,1,0,0,-1,1,-1,1};
+				crossDy = new int[] {0,0,0,-1,1,-1,-1,1,1};
+			}
+		}
+	}
+}
@@ -0,0 +1,283 @@
+package Flood_Tools;
+
+/*
+ * An exact 3D Euclidean distance map computed on several threads.
+ *
+ * The squared Euclidean distance is separable, so the map is made by three passes
+ * of a one dimensional squared distance transform, along the rows, then the
+ * columns, then the depth, each pass starting from the previous one's result.
+ * The 1D transform is the lower envelope of parabolas of Felzenszwalb and
+ * Huttenlocher, with the sample spacing of the axis so anisotropic voxels are
+ * measured in their calibrated units.
+ *
+ * The lines of a pass are independent, so each pass is cut into tasks run by a
+ * fork-join pool.  Each thread keeps its own scratch line buffers, sized for the
+ * longest axis, so a pass allocates nothing per line.
+ *
+ * As in ExactEuclideanMap, "Map 0" gives each zero voxel its distance to the
+ * nearest nonzero voxel and "Map !0" gives each nonzero voxel its distance to the
+ * nearest zero voxel.  The other voxels are set to zero.
+ *
+ * With "Map !0" a zero voxel stays zero through every pass, so when a BrickIndex
+ * of the input is given the rows, columns and depth lines that cross only EMPTY
+ * bricks are left as they are.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+
+public class ParallelEuclideanMap
+{
+	static final float INF = Float.POSITIVE_INFINITY;
+
+	int width,height,depth,sliceSize;
+	int nThreads;
+	ThreadLocal<Scratch> scratch;
+	BrickIndex bricks;
+
+	//*******************************************************************************
+
+	/**@param nThreads The threads used by each pass*/
+	public ParallelEuclideanMap(int nThreads)
+	{
+		this.nThreads = Math.max(1, nThreads);
+	}
+
+	//*******************************************************************************
+
+	/**@param bricks The input stack's brick index, used to skip its empty lines with "Map !0", or null*/
+	public void setBrickIndex(BrickIndex bricks)
+	{
+		this.bricks = bricks;
+	}
+
+	//*******************************************************************************
+
+	/**Replaces a stack with its exact Euclidean distance map
+	 * @param oImageArr The float[] slices
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param pixWidth The voxel width
+	 * @param pixHeight The voxel height
+	 * @param pixDepth The voxel depth
+	 * @param mapChoice "Map 0" or "Map !0"
+	 */
+	public void edm3D(final Object[] oImageArr, int width, int height, int depth,
+			float pixWidth, float pixHeight, float pixDepth, String mapChoice)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		sliceSize = width*height;
+		final int maxLen = Math.max(width, Math.max(height, depth));
+		scratch = new ThreadLocal<Scratch>()
+		{
+			@Override
+			protected Scratch initialValue()
+			{
+				return new Scratch(maxLen);
+			}
+		};
+		final boolean mapZero = mapChoice.equals("Map 0");
+		final BrickIndex skip = mapZero ? null : bricks;
+		final double w2 = (double)pixWidth*pixWidth;
+		final double h2 = (double)pixHeight*pixHeight;
+		final double d2 = (double)pixDepth*pixDepth;
+
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try
+		{
+			//the mapped voxels start at infinity, the others at zero, then the rows of each slice
+			IJ.showStatus("EDM row pass");
+			List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(depth);
+			for(int z = 0; z < depth; z++)
+			{
+				final float[] slice = (float[])oImageArr[z];
+				final int sz = z;
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						for(int y = 0; y < height; y++)
+						{
+							if(skip != null && skip.rowEmpty(y, sz)) continue;
+							int row = y*width;
+							for(int i = row; i < row + width; i++)
+							{
+								slice[i] = (slice[i] == 0) == mapZero ? INF : 0;
+							}
+							transformLine(slice, row, 1, width, w2);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(pool, tasks);
+			IJ.showProgress(1, 3);
+
+			//the columns of each slice
+			IJ.showStatus("EDM column pass");
+			tasks.clear();
+			for(int z = 0; z < depth; z++)
+			{
+				final float[] slice = (float[])oImageArr[z];
+				final int sz = z;
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						for(int x = 0; x < width; x++)
+						{
+							if(skip != null && skip.columnEmpty(x, sz)) continue;
+							transformLine(slice, x, width, height, h2);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(pool, tasks);
+			IJ.showProgress(2, 3);
+
+			//the depth lines of each row, then the square root
+			IJ.showStatus("EDM depth pass");
+			tasks.clear();
+			for(int y = 0; y < height; y++)
+			{
+				final int row = y*width;
+				final int sy = y;
+				tasks.add(new Callable<Void>()
+				{
+					@Override
+					public Void call()
+					{
+						for(int i = row; i < row + width; i++)
+						{
+							if(skip != null && skip.depthLineEmpty(i - row, sy)) continue;
+							transformDepthLine(oImageArr, i, d2);
+						}
+						return null;
+					}
+				});
+			}
+			runAll(pool, tasks);
+		}
+		finally
+		{
+			pool.shutdown();
+			scratch = null;
+		}
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**Transforms the line of a slice starting at offset with the given stride*/
+	private void transformLine(float[] slice, int offset, int stride, int n, double spacing2)
+	{
+		Scratch s = scratch.get();
+		for(int k = 0, i = offset; k < n; k++, i += stride) s.f[k] = slice[i];
+		if(!s.transform(n, spacing2)) return;
+		for(int k = 0, i = offset; k < n; k++, i += stride) slice[i] = (float)s.d[k];
+	}
+
+	//*******************************************************************************
+
+	/**Transforms the depth line through voxel i of each slice and takes the square root*/
+	private void transformDepthLine(Object[] oImageArr, int i, double spacing2)
+	{
+		Scratch s = scratch.get();
+		for(int z = 0; z < depth; z++) s.f[z] = ((float[])oImageArr[z])[i];
+		if(s.transform(depth, spacing2))
+		{
+			for(int z = 0; z < depth; z++) ((float[])oImageArr[z])[i] = (float)Math.sqrt(s.d[z]);
+		}
+		else
+		{
+			for(int z = 0; z < depth; z++) ((float[])oImageArr[z])[i] = (float)Math.sqrt(s.f[z]);
+		}
+	}
+
+	//*******************************************************************************
+
+	private static void runAll(ForkJoinPool pool, List<Callable<Void>> tasks)
+	{
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The EDM was interrupted");
+		}
+	}
+
+	//*******************************************************************************
+
+	/**One thread's line buffers and the 1D squared distance transform*/
+	static class Scratch
+	{
+		double[] f;		//the line's input
+		double[] d;		//the line's output
+		int[] v;		//the samples whose parabolas form the lower envelope
+		double[] b;		//the envelope's parabola boundaries
+
+		Scratch(int n)
+		{
+			f = new double[n];
+			d = new double[n];
+			v = new int[n];
+			b = new double[n+1];
+		}
+
+		/**d[k] = min over j of f[j] + spacing2*(k-j)^2
+		 * @return false if the line has no finite samples and was left as it is in f
+		 */
+		boolean transform(int n, double spacing2)
+		{
+			//the envelope of the finite samples' parabolas, in units of samples
+			int top = -1;
+			for(int q = 0; q < n; q++)
+			{
+				if(f[q] == Double.POSITIVE_INFINITY) continue;
+				double fq = f[q]/spacing2 + (double)q*q;
+				double s = Double.NEGATIVE_INFINITY;
+				while(top >= 0)
+				{
+					int p = v[top];
+					s = (fq - (f[p]/spacing2 + (double)p*p))/(2.0*(q - p));
+					if(s > b[top]) break;
+					top--;
+				}
+				top++;
+				v[top] = q;
+				b[top] = top == 0 ? Double.NEGATIVE_INFINITY : s;
+			}
+			if(top < 0) return false;
+			b[top+1] = Double.POSITIVE_INFINITY;
+
+			//read the envelope
+			for(int k = 0, e = 0; k < n; k++)
+			{
+				while(b[e+1] < k) e++;
+				int p = v[e];
+				d[k] = f[p] + spacing2*(double)(k - p)*(k - p);
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package Flood_Tools;
+
+import java.util.List;
+
+import ij.gui.Overlay;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * Adds many path ROIs to the ROI Manager at once.
+ */
+class PathRois
+{
+	/**Adds the ROIs after those already in the manager in one update instead of one per ROI,
+	 * the ROIs are expected to be named already
+	 * @param roiMgr The ROI Manager
+	 * @param rois The ROIs to add
+	 */
+	static void addAll(RoiManager roiMgr, List<Roi> rois)
+	{
+		Overlay all = new Overlay();
+		Roi[] existing = roiMgr.getRoisAsArray();
+		if(existing != null)
+		{
+			for(Roi roi : existing) all.add(roi);
+		}
+		for(Roi roi : rois) all.add(roi);
+		roiMgr.setOverlay(all);
+	}
+}
@@ -0,0 +1,219 @@
+package Flood_Tools;
+
+/*
+ * A compact graph of the pore voxels of a stack.
+ *
+ * The pore voxels are numbered in scan order and their neighbors are stored in
+ * compressed sparse row form: the neighbors of node n are adj[adjStart[n]] to
+ * adj[adjStart[n+1]-1].  Bit k of mask[n] is set if the neighbor at offset k is a
+ * pore voxel, and the neighbors are stored in offset order, so a search walks the
+ * set bits and reads the offset index, and the step cost, from the bit.  A voxel's
+ * node is found from the first node of its row and a binary search along the row,
+ * so nothing the size of the bounding box is kept, that search is only needed for
+ * seeds.  The offsets are in z, y, x order, so the neighbors of the nodes of a row
+ * are found by walking the up to nine neighboring rows alongside it.
+ *
+ * The graph costs 16 bytes per pore voxel plus 4 bytes per neighbor, about 60 to
+ * 110 bytes per pore voxel at 26 connectivity, and 4 bytes per row.  It is extra
+ * memory, the dense engine needs only about a bit per voxel besides the stack it
+ * works in, so the graph pays only in search time, see DialGeodesicMap.
+ */
+
+import java.util.Arrays;
+
+import ij.IJ;
+
+public class PoreGraph
+{
+	int width,height,depth,sliceSize;
+	int[] dx,dy,dz;
+	int nodeCount;
+	long[] voxel;		//[node] z*width*height + y*width + x
+	int[] rowStart;		//[z*height + y] the first node of each row, [height*depth] = nodeCount
+	int[] adjStart;		//[node] the start of each node's neighbors in adj, [nodeCount] = adj.length
+	int[] adj;			//the neighbor nodes in offset order
+	int[] mask;			//[node] bit k is set if the neighbor at offset k is in adj
+
+	//*******************************************************************************
+
+	/**Builds the graph
+	 * @param width The slice width
+	 * @param height The slice height
+	 * @param depth The number of slices
+	 * @param neighbors 6, 18 or 26 connectivity
+	 * @param pore The test for pore voxels
+	 * @throws IllegalArgumentException if the pore space is too large for int node and edge indices
+	 */
+	public PoreGraph(int width, int height, int depth, int neighbors, FrontierFlood.VoxelTest pore)
+	{
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		sliceSize = width*height;
+		int[][] offsets = FloodConnectivity.offsets(neighbors);
+		dx = offsets[0];
+		dy = offsets[1];
+		dz = offsets[2];
+
+		//number the pore voxels
+		IJ.showStatus("Building the pore graph");
+		int rows = height*depth;
+		rowStart = new int[rows+1];
+		long count = 0;
+		for(int z = 0, r = 0; z < depth; z++)
+		{
+			for(int y = 0; y < height; y++, r++)
+			{
+				rowStart[r] = (int)Math.min(count, Integer.MAX_VALUE);
+				for(int i = y*width; i < (y+1)*width; i++)
+				{
+					if(pore.floodable(z, i)) count++;
+				}
+			}
+		}
+		if(count > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Too many pore voxels for a pore graph");
+		nodeCount = (int)count;
+		rowStart[rows] = nodeCount;
+		voxel = new long[nodeCount];
+		for(int z = 0, n = 0; z < depth; z++)
+		{
+			for(int i = 0; i < sliceSize; i++)
+			{
+				if(pore.floodable(z, i)) voxel[n++] = (long)z*sliceSize + i;
+			}
+			IJ.showProgress(z, 3*depth);
+		}
+
+		//mark then fill the neighbor lists
+		mask = new int[nodeCount];
+		adjStart = new int[nodeCount+1];
+		linkRows(false);
+		long edges = 0;
+		for(int n = 0; n < nodeCount; n++)
+		{
+			adjStart[n] = (int)Math.min(edges, Integer.MAX_VALUE);
+			edges += Integer.bitCount(mask[n]);
+		}
+		if(edges > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Too many pore voxel neighbors for a pore graph");
+		adjStart[nodeCount] = (int)edges;
+		adj = new int[(int)edges];
+		linkRows(true);
+		IJ.showProgress(1.0);
+		IJ.showStatus("");
+	}
+
+	//*******************************************************************************
+
+	/**Finds the neighbors of every node by walking each row beside its neighboring rows
+	 * @param fill false to set the masks, true to write adj
+	 */
+	private void linkRows(boolean fill)
+	{
+		//the offset index of each {dz,dy,dx} in -1..1, -1 if it is not a neighbor
+		int[] offsetIndex = new int[27];
+		Arrays.fill(offsetIndex, -1);
+		for(int k = 0; k < dx.length; k++)
+		{
+			offsetIndex[(dz[k]+1)*9 + (dy[k]+1)*3 + dx[k]+1] = k;
+		}
+		int[] cursor = new int[9];
+		int[] cursorEnd = new int[9];
+		long[] rowBase = new long[9];
+		for(int z = 0, r = 0; z < depth; z++)
+		{
+			for(int y = 0; y < height; y++, r++)
+			{
+				//the neighboring rows in offset order, empty if out of bounds
+				for(int c = 0; c < 9; c++)
+				{
+					int nz = z + c/3 - 1, ny = y + c%3 - 1;
+					boolean in = nz >= 0 && nz < depth && ny >= 0 && ny < height;
+					cursor[c] = in ? rowStart[nz*height + ny] : 0;
+					cursorEnd[c] = in ? rowStart[nz*height + ny + 1] : 0;
+					rowBase[c] = (long)nz*sliceSize + ny*width;
+				}
+				long base = (long)z*sliceSize + y*width;
+				for(int n = rowStart[r]; n < rowStart[r+1]; n++)
+				{
+					int x = (int)(voxel[n] - base);
+					int e = fill ? adjStart[n] : 0;
+					int bits = 0;
+					for(int c = 0; c < 9; c++)
+					{
+						int q = cursor[c], end = cursorEnd[c];
+						long first = rowBase[c] + x - 1;
+						while(q < end && voxel[q] < first) q++;
+						cursor[c] = q;
+						for(; q < end; q++)
+						{
+							int ddx = (int)(voxel[q] - rowBase[c]) - x;
+							if(ddx > 1) break;
+							int k = offsetIndex[c*3 + ddx + 1];
+							if(k < 0) continue;
+							bits |= 1 << k;
+							if(fill) adj[e++] = q;
+						}
+					}
+					if(!fill) mask[n] = bits;
+				}
+			}
+			IJ.showProgress((fill ? 2*depth : depth) + z, 3*depth);
+		}
+	}
+
+	//*******************************************************************************
+
+	/**@param x The voxel column
+	 * @param y The voxel row
+	 * @param z The zero based slice index
+	 * @return The voxel's node, -1 if it is out of bounds or not a pore voxel
+	 */
+	public int node(int x, int y, int z)
+	{
+		if(x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= depth) return -1;
+		int r = z*height + y;
+		int lo = rowStart[r], hi = rowStart[r+1] - 1;
+		long v = (long)z*sliceSize + y*width + x;
+		while(lo <= hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(voxel[mid] < v) lo = mid + 1;
+			else if(voxel[mid] > v) hi = mid - 1;
+			else return mid;
+		}
+		return -1;
+	}
+
+	//*******************************************************************************
+
+	/**@return The number of pore voxels*/
+	public int getNodeCount()
+	{
+		return nodeCount;
+	}
+
+	/**@param n A node
+	 * @return The node's voxel as z*width*height + y*width + x
+	 */
+	public long getVoxel(int n)
+	{
+		return voxel[n];
+	}
+
+	/**@param n A node
+	 * @param k The index of a neighbor offset, see getOffsets
+	 * @return The node of the neighbor, -1 if it is not a pore voxel
+	 */
+	public int neighbor(int n, int k)
+	{
+		int bits = mask[n];
+		if((bits & (1 << k)) == 0) return -1;
+		return adj[adjStart[n] + Integer.bitCount(bits & ((1 << k) - 1))];
+	}
+
+	/**@return [k] {dx,dy,dz} of the neighbor offsets, the bits of the node masks*/
+	public int[][] getOffsets()
+	{
+		return new int[][] {dx, dy, dz};
+	}
+}
@@ -19,6 +19,7 @@ public class PorosityMap_To_HybridMap implements PlugIn {
 		HybridFloodFill hff= new HybridFloodFill();
 		
 		double floodMax = hff.phiMapToHybridMap(oImagArr, stk.getWidth(), stk.getHeight(), stk.getSize(), cal.pixelWidth, cal.pixelHeight, cal.pixelDepth);
+		ImageCaches.invalidate(imp);
 		
 		imp.setDisplayRange(0, floodMax);
 		imp.updateAndDraw();
@@ -0,0 +1,80 @@
+package Flood_Tools;
+
+/*
+ * Runs independent per-slice work on a pool of threads.
+ *
+ * The 2D modes of the distance plugins treat each slice of a stack on its own, so
+ * the slices can be handed out to worker threads in any order.  Progress is
+ * counted across all of the slices, not per slice.  The library map classes may
+ * keep working state in their fields, so the callers give each worker its own
+ * instance through a ThreadLocal.  That the library instances share no static state
+ * is assumed, it is not documented by the library, so the parallel modes are off
+ * unless they are asked for.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+
+public class SliceParallel
+{
+	/**The work done on one slice*/
+	public interface SliceTask
+	{
+		/**@param n The index of the task, 0 to count-1*/
+		void run(int n);
+	}
+
+	//*******************************************************************************
+
+	/**Runs count tasks on nThreads threads and shows their combined progress
+	 * @param count The number of tasks, usually one per slice
+	 * @param nThreads The number of threads
+	 * @param task The work
+	 */
+	public static void forEach(int count, int nThreads, final SliceTask task)
+	{
+		final int total = count;
+		final AtomicInteger done = new AtomicInteger();
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+		for(int n = 0; n < count; n++)
+		{
+			final int slice = n;
+			tasks.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					task.run(slice);
+					IJ.showProgress(done.incrementAndGet(), total);
+					return null;
+				}
+			});
+		}
+		ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(nThreads, count)));
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(tasks)) f.get();
+		}
+		catch(ExecutionException e)
+		{
+			throw new RuntimeException(e.getCause());
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("The slice tasks were interrupted");
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		IJ.showProgress(1.0);
+	}
+}
@@ -0,0 +1,23 @@
+package Flood_Tools;
+
+/**
+ * Supplies the slices of a 32-bit volume one at a time, so that flood engines
+ * can work on volumes that are not held on the Java heap.
+ */
+public interface SliceProvider
+{
+	/**@return The slice width in voxels*/
+	int getWidth();
+
+	/**@return The slice height in voxels*/
+	int getHeight();
+
+	/**@return The number of slices*/
+	int getDepth();
+
+	/**@param z The zero based slice index
+	 * @return The slice voxels. The array may be reused by later calls,
+	 * so callers should not hold it past their next call.
+	 */
+	float[] getSlice(int z);
+}
@@ -0,0 +1,206 @@
+package Flood_Tools;
+
+/*
+ * The voxel value statistics of a stack, kept with the image.
+ *
+ * The flood and geodesic dialogs start from the smallest positive voxel and the
+ * display range of their results, which used to be found by a serial scan of
+ * every voxel each time a dialog opened.  The statistics are made in one slice
+ * parallel pass and kept as an image property, so later plugins on the same
+ * stack read them at once.
+ *
+ * The histogram is counted in the same pass, so its bins cannot wait for the
+ * range.  Byte and short stacks are counted by value, 256 or 65536 bins.  Float
+ * voxels are counted by the top 16 bits of their order preserving bit pattern,
+ * 65536 bins ordered by value, each 1/128 of a power of two wide.  Each thread
+ * counts into its own bins, which are added up at the end.
+ *
+ * ImageJ keeps no modification count of a stack's pixels, so there is no stamp
+ * to compare.  Instead the statistics are checked against the stack's image
+ * array, which is replaced when a stack is converted or resized, and they are
+ * registered with ImageCaches.  The flood, geodesic, EDM and drawing plugins that
+ * change a stack in place call ImageCaches.invalidate, and its ImageListener
+ * drops them when an image with unsaved changes is updated or closed, so an edit
+ * in place is scanned again on the next request.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.ImagePlus;
+
+public class VolumeStats
+{
+	static final String PROPERTY = "Flood_Tools.VolumeStats";
+
+	static
+	{
+		ImageCaches.register(PROPERTY);
+	}
+
+	Object[] source;		//the stack's image array
+	double min,max;
+	double minPositive;		//Float.MAX_VALUE if no voxel is positive
+	long[] histogram;		//[bin] see binStart
+	boolean floatBins;		//the bins are float bit patterns, not values
+
+	//*******************************************************************************
+
+	/**Gets the image's statistics, making them if the image has none or its stack has changed
+	 * @param imp A stack of byte, short or float slices
+	 * @return The statistics
+	 */
+	public static VolumeStats get(ImagePlus imp)
+	{
+		Object[] oImageArr = imp.getStack().getImageArray();
+		Object cached = imp.getProperty(PROPERTY);
+		if(cached instanceof VolumeStats && ((VolumeStats)cached).source == oImageArr) return (VolumeStats)cached;
+		VolumeStats stats = new VolumeStats(oImageArr, imp.getStack().getSize(), Runtime.getRuntime().availableProcessors());
+		imp.setProperty(PROPERTY, stats);
+		return stats;
+	}
+
+	//*******************************************************************************
+
+	/**Scans the stack
+	 * @param oImageArr The byte[], short[] or float[] slices
+	 * @param depth The number of slices
+	 * @param nThreads The number of slices scanned at once
+	 */
+	public VolumeStats(final Object[] oImageArr, int depth, int nThreads)
+	{
+		source = oImageArr;
+		floatBins = depth > 0 && oImageArr[0] instanceof float[];
+		final int nBins = depth > 0 && oImageArr[0] instanceof byte[] ? 256 : 65536;
+		final List<long[]> threadCounts = new ArrayList<long[]>();
+		final ThreadLocal<long[]> counts = new ThreadLocal<long[]>()
+		{
+			@Override
+			protected long[] initialValue()
+			{
+				long[] c = new long[nBins];
+				synchronized(threadCounts)
+				{
+					threadCounts.add(c);
+				}
+				return c;
+			}
+		};
+		final double[][] sliceStats = new double[depth][];
+		SliceParallel.forEach(depth, nThreads, new SliceParallel.SliceTask()
+		{
+			@Override
+			public void run(int n)
+			{
+				sliceStats[n] = scan(oImageArr[n], counts.get());
+			}
+		});
+		histogram = new long[nBins];
+		for(long[] c : threadCounts)
+		{
+			for(int b = 0; b < nBins; b++) histogram[b] += c[b];
+		}
+		min = Double.MAX_VALUE;
+		max = -Double.MAX_VALUE;
+		minPositive = Float.MAX_VALUE;
+		for(double[] s : sliceStats)
+		{
+			min = Math.min(min, s[0]);
+			max = Math.max(max, s[1]);
+			minPositive = Math.min(minPositive, s[2]);
+		}
+		if(depth == 0) min = max = 0;
+	}
+
+	//*******************************************************************************
+
+	/**Counts a slice into the histogram bins
+	 * @return {min,max,minPositive} of the slice
+	 */
+	private static double[] scan(Object pixels, long[] counts)
+	{
+		double min = Double.MAX_VALUE, max = -Double.MAX_VALUE, minPositive = Float.MAX_VALUE;
+		if(pixels instanceof float[])
+		{
+			for(float v : (float[])pixels)
+			{
+				if(v < min) min = v;
+				if(v > max) max = v;
+				if(v > 0 && v < minPositive) minPositive = v;
+				counts[floatKey(v) >>> 16]++;
+			}
+		}
+		else if(pixels instanceof short[])
+		{
+			for(short s : (short[])pixels)
+			{
+				int v = s & 0xffff;
+				if(v < min) min = v;
+				if(v > max) max = v;
+				if(v > 0 && v < minPositive) minPositive = v;
+				counts[v]++;
+			}
+		}
+		else
+		{
+			for(byte b : (byte[])pixels)
+			{
+				int v = b & 0xff;
+				if(v < min) min = v;
+				if(v > max) max = v;
+				if(v > 0 && v < minPositive) minPositive = v;
+				counts[v]++;
+			}
+		}
+		return new double[] {min, max, minPositive};
+	}
+
+	//*******************************************************************************
+
+	/**@return The float's bits with the sign flipped, or all bits flipped if it is negative, ordered as unsigned ints*/
+	private static int floatKey(float v)
+	{
+		int bits = Float.floatToRawIntBits(v);
+		return bits < 0 ? ~bits : bits ^ 0x80000000;
+	}
+
+	//*******************************************************************************
+
+//*******************************************************************************
+
+	/**@return The smallest voxel value*/
+	public double getMin()
+	{
+		return min;
+	}
+
+	/**@return The largest voxel value*/
+	public double getMax()
+	{
+		return max;
+	}
+
+	/**@return The smallest voxel value above zero, Float.MAX_VALUE if there is none*/
+	public double getMinPositive()
+	{
+		return minPositive;
+	}
+
+	//*******************************************************************************
+
+	/**@return [bin] The number of voxels in each bin, a copy, see getBinStart*/
+	public long[] getHistogram()
+	{
+		return histogram.clone();
+	}
+
+	/**@param bin A histogram bin
+	 * @return The smallest voxel value counted in the bin, the value itself for byte and short stacks
+	 */
+	public double getBinStart(int bin)
+	{
+		if(!floatBins) return bin;
+		int key = bin << 16;
+		return Float.intBitsToFloat(key < 0 ? key ^ 0x80000000 : ~key);
+	}
+}
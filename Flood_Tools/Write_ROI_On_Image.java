@@ -81,6 +81,7 @@ public class Write_ROI_On_Image implements PlugIn
 
 			}
 
+			ImageCaches.invalidate(imp);
 			imp.updateAndDraw();
 			IJ.run(imp, "Enhance Contrast", "saturated=0.35");
 